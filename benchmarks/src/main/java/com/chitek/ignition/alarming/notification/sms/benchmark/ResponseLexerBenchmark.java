@@ -0,0 +1,117 @@
+package com.chitek.ignition.alarming.notification.sms.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.chitek.ignition.alarming.notification.sms.modem.ModemResponse;
+import com.chitek.ignition.alarming.notification.sms.modem.ResponseLexer;
+import com.chitek.ignition.alarming.notification.sms.modem.ResponsePattern;
+
+/**
+ * Compares the {@link ResponseLexer} with the regular expression loop it replaced.<br />
+ * Both classify the same typical modem responses. Each response is fed line by line, the way the reader does.
+ * After every received line the buffer is classified again, until the response is complete. One operation is one
+ * complete response.<br />
+ * The regex path matches every {@link ResponsePattern} against the buffered text. Once a pattern matches, it reads
+ * the typed field with a second matcher, as the driver and the command handler used to do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseLexerBenchmark {
+
+	/**
+	 * The responses as they are buffered by the reader: CR is replaced by LF and empty lines are dropped.
+	 */
+	public enum Response {
+		OK("OK\n"),
+		CMGS("+CMGS: 123\nOK\n"),
+		CSQ("+CSQ: 18,99\nOK\n"),
+		CREG("+CREG: 0,1\nOK\n"),
+		CNMI("+CNMI: (0-2),(0-3),(0,2),(0-2),(0,1)\nOK\n"),
+		INFORMATION("Manufacturer: WAVECOM MODEM\nModel: MULTIBAND 900E 1800\nRevision: R7.46.0.201204181421.FXT009\nOK\n"),
+		CMS_ERROR("+CMS ERROR: 500\n"),
+		CMT("+CMT: ,28\n07917283010010F5040BC87238880900F10000993092516195800AE8329BFD4697D9EC37\n");
+
+		private final String text;
+
+		private Response(String text) {
+			this.text = text;
+		}
+	}
+
+	@Param
+	public Response response;
+
+	private byte[] buffer;
+
+	/** The buffer length after each received line */
+	private int[] lineEnds;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		buffer = response.text.getBytes(StandardCharsets.ISO_8859_1);
+		int lines = 0;
+		for (byte b : buffer) {
+			if (b == '\n') {
+				lines++;
+			}
+		}
+		lineEnds = new int[lines];
+		int line = 0;
+		for (int i = 0; i < buffer.length; i++) {
+			if (buffer[i] == '\n') {
+				lineEnds[line++] = i + 1;
+			}
+		}
+		if (lex() == null || regex(null) == null) {
+			throw new IllegalStateException("Response is not recognized: " + response);
+		}
+	}
+
+	@Benchmark
+	public ModemResponse lex() {
+		ModemResponse result = null;
+		for (int end : lineEnds) {
+			result = ResponseLexer.lex(buffer, end);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public ModemResponse regex(Blackhole blackhole) {
+		ModemResponse result = null;
+		for (int end : lineEnds) {
+			String text = new String(buffer, 0, end, StandardCharsets.ISO_8859_1);
+			for (ResponsePattern pattern : ResponsePattern.values()) {
+				if (pattern.matches(text)) {
+					result = new ModemResponse(text, ModemResponse.RESPONSE_OK, pattern);
+					Matcher m = result.getMatcher();
+					if (m.matches() && m.groupCount() > 0 && blackhole != null) {
+						blackhole.consume(m.group(m.groupCount()));
+					}
+					break;
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,100 @@
+package org.ajwcc.pduUtils.benchmark;
+
+import java.util.BitSet;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// the BitSet implementation of PduUtils.unencodedSeptetsToEncodedSeptets and
+// encodedSeptetsToUnencodedSeptets before they were changed to shift and
+// mask whole septets, kept unchanged as the baseline of SeptetBenchmark
+final class BitSetSeptets
+{
+	private BitSetSeptets()
+	{
+	}
+
+	public static byte[] unencodedSeptetsToEncodedSeptets(byte[] septetBytes)
+	{
+		byte[] txtBytes;
+		byte[] txtSeptets;
+		int txtBytesLen;
+		BitSet bits;
+		int i, j;
+		txtBytes = septetBytes;
+		txtBytesLen = txtBytes.length;
+		bits = new BitSet();
+		for (i = 0; i < txtBytesLen; i++)
+			for (j = 0; j < 7; j++)
+				if ((txtBytes[i] & (1 << j)) != 0) bits.set((i * 7) + j);
+		int encodedSeptetByteArrayLength = txtBytesLen * 7 / 8 + ((txtBytesLen * 7 % 8 != 0) ? 1 : 0);
+		txtSeptets = new byte[encodedSeptetByteArrayLength];
+		for (i = 0; i < encodedSeptetByteArrayLength; i++)
+		{
+			for (j = 0; j < 8; j++)
+			{
+				txtSeptets[i] |= (byte) ((bits.get((i * 8) + j) ? 1 : 0) << j);
+			}
+		}
+		return txtSeptets;
+	}
+
+	public static byte[] encodedSeptetsToUnencodedSeptets(byte[] octetBytes)
+	{
+		byte newBytes[];
+		BitSet bitSet;
+		int i, j, value1, value2;
+		bitSet = new BitSet(octetBytes.length * 8);
+		value1 = 0;
+		for (i = 0; i < octetBytes.length; i++)
+			for (j = 0; j < 8; j++)
+			{
+				value1 = (i * 8) + j;
+				if ((octetBytes[i] & (1 << j)) != 0) bitSet.set(value1);
+			}
+		value1++;
+		// this is a bit count NOT a byte count
+		value2 = value1 / 7 + ((value1 % 7 != 0) ? 1 : 0);
+		if (value2 == 0) value2++;
+		newBytes = new byte[value2];
+		for (i = 0; i < value2; i++)
+		{
+			for (j = 0; j < 7; j++)
+			{
+				if ((value1 + 1) > (i * 7 + j))
+				{
+					if (bitSet.get(i * 7 + j))
+					{
+						newBytes[i] |= (byte) (1 << j);
+					}
+				}
+			}
+		}
+		if (octetBytes.length * 8 % 7 > 0)
+		{
+			// the last septet may become 0, this is an artifact of the
+			// encoding and not part of the original string
+			if (newBytes[newBytes.length - 1] == 0)
+			{
+				byte[] retVal = new byte[newBytes.length - 1];
+				System.arraycopy(newBytes, 0, retVal, 0, retVal.length);
+				return retVal;
+			}
+		}
+		return newBytes;
+	}
+}
@@ -0,0 +1,51 @@
+package org.ajwcc.pduUtils.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.ajwcc.pduUtils.gsm3040.PduUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// encoding of an outbound message, one operation is one message with all
+// of its parts
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark
+{
+	@Benchmark
+	public List<String> generatePduList(MessageCorpus corpus)
+	{
+		return corpus.generator.generatePduList(corpus.submitPdu, 1);
+	}
+
+	@Benchmark
+	public byte[] stringToUnencodedSeptets(MessageCorpus corpus)
+	{
+		return PduUtils.stringToUnencodedSeptets(corpus.text);
+	}
+}
@@ -0,0 +1,172 @@
+package org.ajwcc.pduUtils.benchmark;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.ajwcc.pduUtils.gsm3040.EncodingPlan;
+import org.ajwcc.pduUtils.gsm3040.HexCodec;
+import org.ajwcc.pduUtils.gsm3040.Pdu;
+import org.ajwcc.pduUtils.gsm3040.PduFactory;
+import org.ajwcc.pduUtils.gsm3040.PduGenerator;
+import org.ajwcc.pduUtils.gsm3040.PduParser;
+import org.ajwcc.pduUtils.gsm3040.PduUtils;
+import org.ajwcc.pduUtils.gsm3040.SmsDeliveryPdu;
+import org.ajwcc.pduUtils.gsm3040.SmsSubmitPdu;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// the fixed set of alarm messages used by all benchmarks
+// every message is prepared once per trial as an SMS-SUBMIT pdu, the way
+// OutboundMessage builds it, and as the SMS-DELIVER pdus a modem would
+// report for it, so the benchmarks only measure the codec call
+@State(Scope.Thread)
+public class MessageCorpus
+{
+	public enum Message
+	{
+		// default alphabet only
+		GSM7("Alarm HIGH: Tank 3 level 87.5 % at 10:42, limit 85 %. Ack with 1234"),
+		// characters of the extension table, which take two septets
+		EXTENDED("Alarm [Pump_4] {state=FAULT} ~ pressure > 5 bar | cost 12\u20AC/h ^ reset \\ ack"),
+		// not encodable in 7bit
+		UCS2("\u0410\u0432\u0430\u0440\u0438\u044F: \u0434\u0430\u0432\u043B\u0435\u043D\u0438\u0435 \u0432 \u043D\u0430\u0441\u043E\u0441\u043D\u043E\u0439 \u0441\u0442\u0430\u043D\u0446\u0438\u0438 3 \u0432\u044B\u0448\u0435 \u043D\u043E\u0440\u043C\u044B (5,2 \u0431\u0430\u0440)"),
+		// three parts in 7bit
+		MULTIPART_GSM7(repeat("Alarm HIGH: Tank 3 level 87.5 % at 10:42, limit 85 %. ", 8) + "Ack with 1234"),
+		// three parts in UCS2
+		MULTIPART_UCS2(repeat("\u0410\u0432\u0430\u0440\u0438\u044F: \u0434\u0430\u0432\u043B\u0435\u043D\u0438\u0435 \u0432 \u043D\u0430\u0441\u043E\u0441\u043D\u043E\u0439 \u0441\u0442\u0430\u043D\u0446\u0438\u0438 3 \u0432\u044B\u0448\u0435 \u043D\u043E\u0440\u043C\u044B. ", 3) + "\u6E29\u5EA6\u8FC7\u9AD8 \u6CF5\u7AD9 3");
+
+		private final String text;
+
+		private Message(String text)
+		{
+			this.text = text;
+		}
+
+		public String getText()
+		{
+			return text;
+		}
+	}
+
+	private static final String DESTINATION = "+491711234567";
+
+	private static final String SMSC = "+491722270333";
+
+	@Param
+	public Message message;
+
+	public String text;
+
+	public PduGenerator generator;
+
+	public PduParser parser;
+
+	public SmsSubmitPdu submitPdu;
+
+	// hex strings of the SMS-SUBMIT pdus
+	public String[] submitHex;
+
+	// hex strings and octets of the SMS-DELIVER pdus, including the smsc info
+	public String[] deliverHex;
+
+	public byte[][] deliverOctets;
+
+	// septets of the text and the packed user data
+	public byte[] septets;
+
+	public byte[] packed;
+
+	// preallocated buffers for the in place pack and unpack
+	public byte[] packBuffer;
+
+	public byte[] unpackBuffer;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		text = message.getText();
+		generator = new PduGenerator();
+		parser = new PduParser();
+		submitPdu = createSubmitPdu(text);
+		submitHex = toArray(generator.generatePduList(submitPdu, 1));
+		deliverHex = toArray(generator.generatePduList(createDeliveryPdu(text), 1));
+		deliverOctets = new byte[deliverHex.length][];
+		for (int i = 0; i < deliverHex.length; i++)
+		{
+			deliverOctets[i] = HexCodec.decode(deliverHex[i]);
+		}
+		septets = PduUtils.stringToUnencodedSeptets(text);
+		packed = PduUtils.unencodedSeptetsToEncodedSeptets(septets);
+		packBuffer = new byte[packed.length];
+		unpackBuffer = new byte[septets.length];
+	}
+
+	private static SmsSubmitPdu createSubmitPdu(String text)
+	{
+		SmsSubmitPdu pdu = PduFactory.newSmsSubmitPdu(PduUtils.TP_VPF_NONE);
+		setAddresses(pdu);
+		pdu.setProtocolIdentifier(0);
+		EncodingPlan plan = EncodingPlan.forText(text);
+		pdu.setDataCodingScheme(plan.getEncoding());
+		plan.addInformationElements(pdu);
+		pdu.setValidityPeriod(-1);
+		pdu.setDecodedText(text);
+		return pdu;
+	}
+
+	private static SmsDeliveryPdu createDeliveryPdu(String text)
+	{
+		SmsDeliveryPdu pdu = PduFactory.newSmsDeliveryPdu(0);
+		setAddresses(pdu);
+		pdu.setProtocolIdentifier(0);
+		pdu.setDataCodingScheme(EncodingPlan.forText(text).getEncoding());
+		pdu.setTimestamp(OffsetDateTime.of(2026, 10, 18, 10, 42, 0, 0, ZoneOffset.ofHours(2)));
+		pdu.setDecodedText(text);
+		return pdu;
+	}
+
+	private static void setAddresses(Pdu pdu)
+	{
+		// address type field + octets of the smsc number without the +
+		pdu.setSmscInfoLength(1 + SMSC.length() / 2);
+		pdu.setSmscAddress(SMSC);
+		pdu.setSmscAddressType(PduUtils.getAddressTypeFor(SMSC));
+		pdu.setAddress(DESTINATION);
+		pdu.setAddressType(PduUtils.getAddressTypeFor(DESTINATION));
+	}
+
+	private static String[] toArray(List<String> list)
+	{
+		return list.toArray(new String[list.size()]);
+	}
+
+	private static String repeat(String s, int count)
+	{
+		StringBuilder sb = new StringBuilder(s.length() * count);
+		for (int i = 0; i < count; i++)
+		{
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
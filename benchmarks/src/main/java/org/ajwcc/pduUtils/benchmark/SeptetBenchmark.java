@@ -0,0 +1,80 @@
+package org.ajwcc.pduUtils.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.ajwcc.pduUtils.gsm3040.PduUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// packing and unpacking of the septets of the whole text, chars that are not
+// in the GSM alphabet are septets of a space, so the UCS2 messages measure
+// the same work as a 7bit text of their length
+// the *Into benchmarks use preallocated arrays, the others allocate the
+// result like the decoder does
+// the *BitSet benchmarks run the former implementation as the baseline
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeptetBenchmark
+{
+	@Benchmark
+	public byte[] packSeptets(MessageCorpus corpus)
+	{
+		return PduUtils.unencodedSeptetsToEncodedSeptets(corpus.septets);
+	}
+
+	@Benchmark
+	public byte[] packSeptetsInto(MessageCorpus corpus)
+	{
+		PduUtils.packSeptets(corpus.septets, 0, corpus.septets.length, corpus.packBuffer, 0);
+		return corpus.packBuffer;
+	}
+
+	@Benchmark
+	public byte[] packSeptetsBitSet(MessageCorpus corpus)
+	{
+		return BitSetSeptets.unencodedSeptetsToEncodedSeptets(corpus.septets);
+	}
+
+	@Benchmark
+	public byte[] unpackSeptets(MessageCorpus corpus)
+	{
+		return PduUtils.encodedSeptetsToUnencodedSeptets(corpus.packed);
+	}
+
+	@Benchmark
+	public byte[] unpackSeptetsInto(MessageCorpus corpus)
+	{
+		PduUtils.unpackSeptets(corpus.packed, corpus.unpackBuffer, corpus.unpackBuffer.length);
+		return corpus.unpackBuffer;
+	}
+
+	@Benchmark
+	public byte[] unpackSeptetsBitSet(MessageCorpus corpus)
+	{
+		return BitSetSeptets.encodedSeptetsToUnencodedSeptets(corpus.packed);
+	}
+}
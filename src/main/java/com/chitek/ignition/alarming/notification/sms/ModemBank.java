@@ -0,0 +1,247 @@
+package com.chitek.ignition.alarming.notification.sms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.chitek.ignition.alarming.notification.sms.modem.ModemDriver;
+import com.chitek.ignition.alarming.notification.sms.settings.GsmSmsNotificationSettings;
+import com.inductiveautomation.ignition.common.util.LoggerEx;
+
+/**
+ * The modems used by a notification profile.<br />
+ * Outbound messages are sent by the available modem with the lowest expected completion time, estimated from the
+ * number of messages already queued on the modem and its measured send latency.<br />
+ * Every modem has its own {@link TokenBucket}, as each modem uses its own SIM card. A modem without tokens is only
+ * used if no other modem is available, and no further messages are handed to the bank while all modems are throttled.
+ */
+class ModemBank {
+
+	/** Send latency (milliseconds) assumed for a modem until the first message was sent */
+	static final long INITIAL_LATENCY = 5000;
+	/** Weight of a new latency sample in the moving average */
+	static final double LATENCY_WEIGHT = 0.2;
+	/**
+	 * Maximum number of messages handed to a modem at a time. Further messages wait in the profile's scheduler, so a
+	 * notification with a higher priority can overtake them. Queued messages with the same text as a message handed to
+	 * the modem are handed over with it, as far as this limit allows.
+	 */
+	static final int MAX_PENDING = 4;
+
+	private final List<Member> members;
+
+	/**
+	 * Create the bank from the profile settings. The modem configured in HostAddress and Port is always the first
+	 * member.
+	 */
+	ModemBank(GsmSmsNotificationSettings settings, String profileName, LoggerEx log) {
+		List<Member> list = new ArrayList<Member>();
+		list.add(new Member(1, String.format("%s:%d", settings.getHostAddress(), settings.getPort()), new ModemDriver(settings, profileName, log), settings));
+
+		for (String entry : settings.getAdditionalModems()) {
+			String host = entry;
+			int port = settings.getPort();
+			int separator = entry.lastIndexOf(':');
+			if (separator > 0) {
+				host = entry.substring(0, separator).trim();
+				try {
+					port = Integer.parseInt(entry.substring(separator + 1).trim());
+				} catch (NumberFormatException e) {
+					log.errorf("Invalid modem address '%s' ignored.", entry);
+					continue;
+				}
+			}
+			int index = list.size() + 1;
+			String name = String.format("%s:%d", host, port);
+			LoggerEx modemLog = LoggerEx.newBuilder().build(String.format("%s[%s/%s]", SmsNotification.LOGGER_NAME, profileName, name));
+			list.add(new Member(index, name, new ModemDriver(settings, host, port, profileName, modemLog), settings));
+		}
+
+		members = Collections.unmodifiableList(list);
+	}
+
+	List<Member> getMembers() {
+		return members;
+	}
+
+	int size() {
+		return members.size();
+	}
+
+	/**
+	 * @return
+	 * 	The available modem with the lowest load, or <code>null</code> if no modem is available. Modems that are not
+	 * 	throttled by their rate limit are preferred.
+	 */
+	Member select() {
+		Member best = null;
+		boolean bestHasToken = false;
+		for (Member member : members) {
+			if (!member.isAvailable()) {
+				continue;
+			}
+			boolean hasToken = member.bucket.hasToken();
+			if (best == null || (hasToken && !bestHasToken) || (hasToken == bestHasToken && member.getLoad() < best.getLoad())) {
+				best = member;
+				bestHasToken = hasToken;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if an available modem can take another message without exceeding its rate limit.
+	 */
+	boolean hasCapacity() {
+		for (Member member : members) {
+			if (member.isAvailable() && member.getPending() < MAX_PENDING && member.bucket.hasToken()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return
+	 * 	The time (milliseconds) until an available modem gets a token, 0 if a token is available or no modem is
+	 * 	available.
+	 */
+	long getTokenWait() {
+		long wait = Long.MAX_VALUE;
+		for (Member member : members) {
+			if (member.isAvailable()) {
+				wait = Math.min(wait, member.bucket.getWaitTime());
+			}
+		}
+		return wait == Long.MAX_VALUE ? 0 : wait;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if at least one modem is connected.
+	 */
+	boolean isConnected() {
+		for (Member member : members) {
+			if (member.driver.isConnected()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return
+	 * 	The number of modems that are connected to the GSM network.
+	 */
+	int getAvailableCount() {
+		int count = 0;
+		for (Member member : members) {
+			if (member.isAvailable()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if no modem can be used anymore because of a configuration error.
+	 */
+	boolean isFailed() {
+		for (Member member : members) {
+			if (!member.failed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A modem of the bank, with its connection state and send statistics. The state is only modified by the profile's
+	 * executor thread, the statistics are thread safe.
+	 */
+	static class Member {
+		final int index;
+		final String name;
+		final ModemDriver driver;
+		final TokenBucket bucket;
+
+		ScheduledFuture<?> heartbeatSchedule;
+		ScheduledFuture<?> connectionSchedule;
+
+		volatile boolean networkConnectionOk;
+		int signalLevel = 0;
+		String operator = "";
+		/** Set if the modem could not be initialized due to a configuration error */
+		boolean failed;
+
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile double latency = INITIAL_LATENCY;
+
+		Member(int index, String name, ModemDriver driver, GsmSmsNotificationSettings settings) {
+			this.index = index;
+			this.name = name;
+			this.driver = driver;
+			this.bucket = new TokenBucket(settings.getRateLimit(), settings.getRateBurst());
+		}
+
+		boolean isAvailable() {
+			return !failed && networkConnectionOk && driver.isConnected();
+		}
+
+		/**
+		 * @return
+		 * 	The expected time (milliseconds) until a new message would be sent by this modem.
+		 */
+		double getLoad() {
+			return (pending.get() + 1) * latency;
+		}
+
+		int getPending() {
+			return pending.get();
+		}
+
+		/**
+		 * @return
+		 * 	The number of messages the modem can take now without exceeding {@link ModemBank#MAX_PENDING} or its rate
+		 * 	limit, at least 1.
+		 */
+		int getMessageLimit() {
+			int limit = MAX_PENDING - pending.get();
+			if (bucket.isLimited()) {
+				limit = Math.min(limit, (int) bucket.getTokens());
+			}
+			return Math.max(1, limit);
+		}
+
+		long getLatency() {
+			return (long) latency;
+		}
+
+		/**
+		 * Register a message that is handed to the modem. The message takes one token, further parts of a multi-part
+		 * message are charged when the message has been sent.
+		 *
+		 * @return
+		 * 	The start time to pass to {@link #sendCompleted(long, int, boolean)}
+		 */
+		long sendStarted() {
+			pending.incrementAndGet();
+			bucket.consume(1);
+			return System.nanoTime();
+		}
+
+		void sendCompleted(long startTime, int parts, boolean success) {
+			pending.decrementAndGet();
+			if (success) {
+				bucket.consume(parts - 1);
+				long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+				latency = latency + LATENCY_WEIGHT * (duration - latency);
+			}
+		}
+	}
+}
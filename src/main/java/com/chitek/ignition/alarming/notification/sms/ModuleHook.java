@@ -38,7 +38,7 @@ public class ModuleHook extends AbstractGatewayModuleHook implements ModuleServi
 	@Override
 	public void startup(LicenseState licenseState) {
 		// Register extended tag properties
-		gatewayContext.getAlarmManager().registerExtendedConfigProperties(MODULE_ID, ProfileProperties.CUSTOM_SMS_MESSAGE);
+		gatewayContext.getAlarmManager().registerExtendedConfigProperties(MODULE_ID, ProfileProperties.CUSTOM_SMS_MESSAGE, ProfileProperties.SMS_DEADLINE);
 
 		gatewayContext.getModuleServicesManager().subscribe(AlarmNotificationContext.class, this);
 		
@@ -0,0 +1,475 @@
+package com.chitek.ignition.alarming.notification.sms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.inductiveautomation.ignition.common.alarming.AlarmPriority;
+import com.inductiveautomation.ignition.common.util.LoggerEx;
+
+/**
+ * Append-only journal of the outbound messages accepted by a profile, so messages that have not been sent survive a
+ * restart of the profile or the gateway.<br />
+ * The journal uses two memory mapped files. Each file starts with a header holding a generation number, the file with
+ * the higher valid generation is the current journal. Records are appended as
+ *
+ * <pre>
+ * int  length of the payload
+ * int  CRC32 of generation, type and payload
+ * byte type
+ * payload
+ * </pre>
+ *
+ * A length of 0 marks the end of the journal. A record with a wrong checksum is an incomplete write, or a left over
+ * from an older generation, and ends the journal as well.<br />
+ * Appending a record only copies it to the mapped buffer. A separate thread forces the buffer to disk every
+ * {@link #COMMIT_INTERVAL} milliseconds, so all records appended in that time share one disk write (group commit) and
+ * the send path never waits for the disk.<br />
+ * When no message is pending, the journal is restarted at the beginning of the current file. When the file is full,
+ * the pending messages are copied to the other file, which then becomes the current one. The current file is never
+ * overwritten by a compaction, so a crash during compaction leaves a valid journal.
+ */
+class OutboundJournal {
+
+	/** Interval (milliseconds) for forcing appended records to disk */
+	static final long COMMIT_INTERVAL = 50;
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+	private static final int MAGIC = 0x47534d4a;
+	/** Magic, generation and checksum of the generation */
+	private static final int FILE_HEADER_SIZE = 16;
+	/** Length, checksum and type */
+	private static final int RECORD_HEADER_SIZE = 9;
+	private static final byte TYPE_ACCEPTED = 1;
+	private static final byte TYPE_COMPLETED = 2;
+
+	private final File directory;
+	private final File[] files;
+	private final String name;
+	private final LoggerEx log;
+
+	private final FileChannel[] channels = new FileChannel[2];
+	private final MappedByteBuffer[] buffers = new MappedByteBuffer[2];
+	/** Index of the current file */
+	private int current;
+	private long generation;
+	/** The buffer of the current file. The position is the end of the journal. */
+	private MappedByteBuffer buffer;
+
+	/** The pending messages, ordered by id */
+	private final Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+	private long nextId = 1;
+	private boolean dirty;
+	private boolean isOpen;
+	private ScheduledExecutorService committer;
+
+	/**
+	 * @param directory
+	 * 	The directory for the journal files. The directory is created if it does not exist.
+	 * @param name
+	 * 	The base name of the journal files
+	 */
+	OutboundJournal(File directory, String name, LoggerEx log) {
+		this.directory = directory;
+		this.name = name;
+		this.log = log;
+		this.files = new File[] { new File(directory, name + ".0.journal"), new File(directory, name + ".1.journal") };
+	}
+
+	/**
+	 * Open the journal and start the commit thread.
+	 *
+	 * @return
+	 * 	The messages that were accepted, but not completed before the journal was closed.
+	 */
+	synchronized List<Entry> open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Unable to create directory %s", directory));
+		}
+
+		long[] generations = new long[2];
+		for (int i = 0; i < 2; i++) {
+			channels[i] = FileChannel.open(files[i].toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (channels[i].size() >= FILE_HEADER_SIZE) {
+				buffers[i] = channels[i].map(FileChannel.MapMode.READ_WRITE, 0, channels[i].size());
+			}
+			generations[i] = readGeneration(buffers[i]);
+		}
+
+		current = generations[0] >= generations[1] ? 0 : 1;
+		if (generations[current] >= 0) {
+			generation = generations[current];
+			replay(buffers[current], generation);
+			log.debugf("Journal %s generation %d replayed, %d pending messages.", name, generation, pending.size());
+		} else {
+			// New journal - the first compaction creates file 0
+			current = 1;
+			generation = 0;
+		}
+
+		compact(0);
+
+		committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, String.format("GsmSmsJournal[%s]", name));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		committer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				commit();
+			}
+		}, COMMIT_INTERVAL, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+
+		isOpen = true;
+		return new ArrayList<Entry>(pending.values());
+	}
+
+	/**
+	 * Force all appended records to disk and close the journal.
+	 */
+	synchronized void close() {
+		if (!isOpen) {
+			return;
+		}
+		isOpen = false;
+		committer.shutdown();
+		buffer.force();
+		for (FileChannel channel : channels) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Record an outbound message that has been accepted for sending.
+	 *
+	 * @return
+	 * 	The journal entry, or <code>null</code> if the journal is closed or the record could not be written.
+	 */
+	synchronized Entry accept(String number, String text, String userPath, AlarmPriority priority, long deadline, List<UUID> eventIds) {
+		if (!isOpen) {
+			return null;
+		}
+		Entry entry = new Entry(nextId++, System.currentTimeMillis(), deadline, priority, userPath, number, text, eventIds, null);
+		try {
+			append(TYPE_ACCEPTED, entry.payload);
+		} catch (IOException e) {
+			log.errorf("IOException while writing to journal %s: %s", name, e.getMessage());
+			return null;
+		}
+		pending.put(entry.id, entry);
+		return entry;
+	}
+
+	/**
+	 * Replace a pending message, e.g. because further notifications were merged into it. The new message is recorded
+	 * before the given entry is completed, so the message is not lost if the journal is interrupted in between.
+	 *
+	 * @return
+	 * 	The new journal entry, or the given entry if the journal is closed or the record could not be written.
+	 */
+	synchronized Entry replace(Entry entry, String text, AlarmPriority priority, long deadline, List<UUID> eventIds) {
+		if (!isOpen || !pending.containsKey(entry.id)) {
+			return entry;
+		}
+		Entry replacement = new Entry(nextId++, entry.acceptedAt, deadline, priority, entry.userPath, entry.number, text, eventIds, null);
+		try {
+			append(TYPE_ACCEPTED, replacement.payload);
+		} catch (IOException e) {
+			log.errorf("IOException while writing to journal %s: %s", name, e.getMessage());
+			return entry;
+		}
+		pending.put(replacement.id, replacement);
+		complete(entry);
+		return replacement;
+	}
+
+	/**
+	 * Record that a message has been sent, or has finally failed. The message will not be sent again after a
+	 * restart.
+	 */
+	synchronized void complete(Entry entry) {
+		if (!isOpen || entry == null || pending.remove(entry.id) == null) {
+			return;
+		}
+		try {
+			if (pending.isEmpty()) {
+				// Nothing left to replay - restart at the beginning of the file
+				buffer.position(FILE_HEADER_SIZE);
+				buffer.putInt(FILE_HEADER_SIZE, 0);
+				dirty = true;
+			} else {
+				ByteBuffer payload = ByteBuffer.allocate(8);
+				payload.putLong(entry.id);
+				append(TYPE_COMPLETED, payload.array());
+			}
+		} catch (IOException e) {
+			log.errorf("IOException while writing to journal %s: %s", name, e.getMessage());
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The number of pending messages.
+	 */
+	synchronized int size() {
+		return pending.size();
+	}
+
+	private void commit() {
+		MappedByteBuffer toForce;
+		synchronized (this) {
+			if (!dirty || !isOpen) {
+				return;
+			}
+			dirty = false;
+			toForce = buffer;
+		}
+		toForce.force();
+	}
+
+	private void append(byte type, byte[] payload) throws IOException {
+		// Keep room for the end marker
+		int length = RECORD_HEADER_SIZE + payload.length;
+		if (buffer.remaining() < length + 4) {
+			compact(length);
+		}
+		// The generation may have been changed by the compaction
+		buffer.put(encode(generation, type, payload));
+		buffer.putInt(buffer.position(), 0);
+		dirty = true;
+	}
+
+	/**
+	 * Copy the pending messages to the other file and make it the current file.
+	 *
+	 * @param extra
+	 * 	Number of bytes that have to fit into the new file in addition to the pending messages.
+	 */
+	private void compact(int extra) throws IOException {
+		int target = 1 - current;
+		long newGeneration = generation + 1;
+		List<byte[]> records = new ArrayList<byte[]>(pending.size());
+		int required = FILE_HEADER_SIZE + extra + 4;
+		for (Entry entry : pending.values()) {
+			byte[] record = encode(newGeneration, TYPE_ACCEPTED, entry.payload);
+			records.add(record);
+			required += record.length;
+		}
+
+		MappedByteBuffer out = buffers[target];
+		if (out == null || out.capacity() < 2 * required) {
+			int size = Math.max(INITIAL_SIZE, out != null ? out.capacity() : 0);
+			while (size < 2 * required) {
+				size *= 2;
+			}
+			out = channels[target].map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffers[target] = out;
+		}
+
+		// Write the records first. The target keeps its old generation until the new content is on disk.
+		out.position(FILE_HEADER_SIZE);
+		for (byte[] record : records) {
+			out.put(record);
+		}
+		out.putInt(out.position(), 0);
+		out.force();
+
+		out.putInt(0, MAGIC);
+		out.putLong(4, newGeneration);
+		out.putInt(12, checksum(newGeneration));
+		out.force();
+
+		generation = newGeneration;
+		current = target;
+		buffer = out;
+		log.debugf("Journal %s compacted to generation %d, %d pending messages.", name, generation, pending.size());
+	}
+
+	private void replay(MappedByteBuffer in, long fileGeneration) {
+		int pos = FILE_HEADER_SIZE;
+		long lastAccepted = 0;
+		while (pos + RECORD_HEADER_SIZE <= in.capacity()) {
+			int length = in.getInt(pos);
+			if (length <= 0 || pos + RECORD_HEADER_SIZE + length > in.capacity()) {
+				break;
+			}
+			byte[] record = new byte[RECORD_HEADER_SIZE + length];
+			ByteBuffer view = in.duplicate();
+			view.position(pos);
+			view.get(record);
+			if (checksum(fileGeneration, record) != in.getInt(pos + 4)) {
+				log.warnf("Journal %s ends with an incomplete record.", name);
+				break;
+			}
+
+			byte type = record[8];
+			ByteBuffer payload = ByteBuffer.wrap(record, RECORD_HEADER_SIZE, length);
+			if (type == TYPE_ACCEPTED) {
+				Entry entry = Entry.decode(payload, Arrays.copyOfRange(record, RECORD_HEADER_SIZE, record.length));
+				if (entry.id <= lastAccepted) {
+					// Left over from before the journal was restarted
+					break;
+				}
+				lastAccepted = entry.id;
+				pending.put(entry.id, entry);
+			} else if (type == TYPE_COMPLETED) {
+				pending.remove(payload.getLong());
+			}
+			pos += RECORD_HEADER_SIZE + length;
+		}
+		nextId = lastAccepted + 1;
+	}
+
+	/**
+	 * @return
+	 * 	The generation stored in the file header, or -1 if the header is not valid.
+	 */
+	private static long readGeneration(MappedByteBuffer in) {
+		if (in == null || in.getInt(0) != MAGIC) {
+			return -1;
+		}
+		long generation = in.getLong(4);
+		return in.getInt(12) == checksum(generation) ? generation : -1;
+	}
+
+	private static byte[] encode(long generation, byte type, byte[] payload) {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		record.putInt(payload.length);
+		record.putInt(0);
+		record.put(type);
+		record.put(payload);
+		record.putInt(4, checksum(generation, record.array()));
+		return record.array();
+	}
+
+	/**
+	 * @return
+	 * 	The checksum of a record: The generation, followed by type and payload of the record.
+	 */
+	private static int checksum(long generation, byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(generation).array());
+		crc.update(record, 8, record.length - 8);
+		return (int) crc.getValue();
+	}
+
+	private static int checksum(long value) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(value).array());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * An outbound message in the journal.
+	 */
+	static class Entry {
+		final long id;
+		final long acceptedAt;
+		final long deadline;
+		final AlarmPriority priority;
+		final String userPath;
+		final String number;
+		final String text;
+		final List<UUID> eventIds;
+		/** The encoded entry, used for compaction */
+		private final byte[] payload;
+
+		/**
+		 * @param payload
+		 * 	The payload the entry was read from, or <code>null</code> to encode a new entry.
+		 */
+		private Entry(long id, long acceptedAt, long deadline, AlarmPriority priority, String userPath, String number, String text, List<UUID> eventIds, byte[] payload) {
+			this.id = id;
+			this.acceptedAt = acceptedAt;
+			this.deadline = deadline;
+			this.priority = priority;
+			this.userPath = userPath;
+			this.number = number;
+			this.text = text;
+			this.eventIds = Collections.unmodifiableList(new ArrayList<UUID>(eventIds));
+			this.payload = payload != null ? payload : encodePayload();
+		}
+
+		private byte[] encodePayload() {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 2 * text.length());
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeLong(id);
+				out.writeLong(acceptedAt);
+				out.writeLong(deadline);
+				writeString(out, priority.name());
+				writeString(out, userPath);
+				writeString(out, number);
+				writeString(out, text);
+				out.writeInt(eventIds.size());
+				for (UUID eventId : eventIds) {
+					out.writeLong(eventId.getMostSignificantBits());
+					out.writeLong(eventId.getLeastSignificantBits());
+				}
+				out.flush();
+				return bytes.toByteArray();
+			} catch (IOException e) {
+				// Not thrown by a ByteArrayOutputStream
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static Entry decode(ByteBuffer in, byte[] payload) {
+			long id = in.getLong();
+			long acceptedAt = in.getLong();
+			long deadline = in.getLong();
+			AlarmPriority priority;
+			try {
+				priority = AlarmPriority.valueOf(readString(in));
+			} catch (IllegalArgumentException e) {
+				priority = AlarmPriority.Low;
+			}
+			String userPath = readString(in);
+			String number = readString(in);
+			String text = readString(in);
+			int count = in.getInt();
+			List<UUID> eventIds = new ArrayList<UUID>(count);
+			for (int i = 0; i < count; i++) {
+				eventIds.add(new UUID(in.getLong(), in.getLong()));
+			}
+			return new Entry(id, acceptedAt, deadline, priority, userPath, number, text, eventIds, payload);
+		}
+
+		private static void writeString(DataOutputStream out, String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private static String readString(ByteBuffer in) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
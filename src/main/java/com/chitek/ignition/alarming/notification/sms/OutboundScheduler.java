@@ -0,0 +1,143 @@
+package com.chitek.ignition.alarming.notification.sms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import com.inductiveautomation.ignition.common.alarming.AlarmPriority;
+
+/**
+ * Orders the outbound notifications of a profile.<br />
+ * Notifications with a higher alarm priority are sent first. Among notifications of the same priority, the one with
+ * the earliest deadline is sent first, notifications without a deadline are sent in the order they were queued.<br />
+ * The scheduler is not thread safe, it is only accessed by the profile's executor thread.
+ */
+class OutboundScheduler<T extends OutboundScheduler.Task> {
+
+	/** Deadline of a task without deadline */
+	static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/**
+	 * A notification waiting to be sent.
+	 */
+	interface Task extends Runnable {
+		AlarmPriority getPriority();
+
+		/**
+		 * @return
+		 * 	The time (milliseconds since epoch) until the notification should be sent, or {@link #NO_DEADLINE}.
+		 */
+		long getDeadline();
+	}
+
+	private final PriorityQueue<Entry<T>> queue = new PriorityQueue<Entry<T>>();
+	private long sequence;
+
+	/**
+	 * Queue a task.
+	 * 
+	 * @return
+	 * 	The position of the task in the queue, 1 if it is the next task to run.
+	 */
+	int add(T task) {
+		Entry<T> entry = new Entry<T>(task, sequence++);
+		int position = 1;
+		for (Entry<T> queued : queue) {
+			if (queued.compareTo(entry) < 0) {
+				position++;
+			}
+		}
+		queue.add(entry);
+		return position;
+	}
+
+	/**
+	 * Move a queued task to the position given by its current priority and deadline. Must be called when the priority
+	 * or deadline of a queued task has changed. The task keeps its place among tasks with equal priority and deadline.
+	 * 
+	 * @return
+	 * 	<code>false</code> if the task is not queued.
+	 */
+	boolean reorder(T task) {
+		Iterator<Entry<T>> it = queue.iterator();
+		while (it.hasNext()) {
+			Entry<T> entry = it.next();
+			if (entry.task == task) {
+				it.remove();
+				queue.add(new Entry<T>(task, entry.sequence));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return
+	 * 	The next task, or <code>null</code> if the queue is empty.
+	 */
+	T poll() {
+		Entry<T> entry = queue.poll();
+		return entry != null ? entry.task : null;
+	}
+
+	/**
+	 * Remove the tasks matching the given filter from the queue.
+	 * 
+	 * @param max
+	 * 	The maximum number of tasks to remove
+	 * @return
+	 * 	The removed tasks, in the order they would have been run.
+	 */
+	List<T> poll(Predicate<T> filter, int max) {
+		List<Entry<T>> matches = new ArrayList<Entry<T>>();
+		for (Entry<T> entry : queue) {
+			if (filter.test(entry.task)) {
+				matches.add(entry);
+			}
+		}
+		Collections.sort(matches);
+		List<T> tasks = new ArrayList<T>();
+		for (Entry<T> entry : matches.subList(0, Math.min(max, matches.size()))) {
+			queue.remove(entry);
+			tasks.add(entry.task);
+		}
+		return tasks;
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	private static class Entry<T extends Task> implements Comparable<Entry<T>> {
+		final T task;
+		final AlarmPriority priority;
+		final long deadline;
+		final long sequence;
+
+		Entry(T task, long sequence) {
+			this.task = task;
+			this.priority = task.getPriority();
+			this.deadline = task.getDeadline();
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry<T> other) {
+			int result = other.priority.compareTo(priority);
+			if (result == 0) {
+				result = Long.compare(deadline, other.deadline);
+			}
+			if (result == 0) {
+				result = Long.compare(sequence, other.sequence);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.chitek.ignition.alarming.notification.sms;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.chitek.ignition.alarming.notification.sms.modem.ModemException;
+import com.chitek.ignition.alarming.notification.sms.modem.ModemResponse;
+
+/**
+ * Decides if and when a failed notification is sent again.<br />
+ * Failures are classified by the error reported by the modem. Every class has its own retry budget and an exponential
+ * backoff. The delay is randomized (between half and the full backoff), so the notifications that failed together
+ * are not retried together.
+ */
+public class RetryPolicy {
+
+	/** Offset of +CME error codes in {@link ModemResponse#getError()} */
+	private static final int CME_ERROR = 5000;
+	/** Offset of +CMS error codes in {@link ModemResponse#getError()} */
+	private static final int CMS_ERROR = 6000;
+
+	enum FailureClass {
+		/** The message can not be delivered, e.g. because the destination is invalid. Not retried. */
+		PERMANENT(0, 0, 0),
+		/** A temporary problem of the modem or the network, e.g. congestion */
+		TRANSIENT(6, 5000, 120000),
+		/** The modem, the SIM card or the network connection is not available */
+		LINK_DOWN(4, 10000, 300000);
+
+		/** Number of retries */
+		final int budget;
+		/** Delay (milliseconds) before the first retry */
+		final long initialDelay;
+		/** Maximum delay (milliseconds) between retries */
+		final long maxDelay;
+
+		FailureClass(int budget, long initialDelay, long maxDelay) {
+			this.budget = budget;
+			this.initialDelay = initialDelay;
+			this.maxDelay = maxDelay;
+		}
+	}
+
+	private RetryPolicy() {
+	}
+
+	/**
+	 * Classify the cause of a failed send operation.
+	 */
+	static FailureClass classify(Throwable cause) {
+		if (cause instanceof ModemException) {
+			return classify(((ModemException) cause).getErrorCode());
+		}
+		if (cause instanceof SocketTimeoutException) {
+			return FailureClass.TRANSIENT;
+		}
+		if (cause instanceof IOException) {
+			return FailureClass.LINK_DOWN;
+		}
+		return FailureClass.TRANSIENT;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if the modem reported that the operation is not supported (+CMS ERROR: 303 or
+	 * 	+CME ERROR: 4). Other errors, e.g. a full storage, do not mean that the operation can not succeed later.
+	 */
+	public static boolean isNotSupported(Throwable cause) {
+		if (!(cause instanceof ModemException)) {
+			return false;
+		}
+		int error = ((ModemException) cause).getErrorCode();
+		return error == CMS_ERROR + 303 || error == CME_ERROR + 4;
+	}
+
+	/**
+	 * Classify an error code as returned by {@link ModemResponse#getError()}. Unknown codes are considered transient.
+	 */
+	static FailureClass classify(int error) {
+		if (error == ModemResponse.ERR_IO_EXCEPTION || error == ModemResponse.NOT_CONNECTED) {
+			return FailureClass.LINK_DOWN;
+		}
+		if (error >= CMS_ERROR && error < CMS_ERROR + 1000) {
+			return classifyCms(error - CMS_ERROR);
+		}
+		if (error >= CME_ERROR && error < CME_ERROR + 1000) {
+			return classifyCme(error - CME_ERROR);
+		}
+		return FailureClass.TRANSIENT;
+	}
+
+	/**
+	 * Classify a +CMS error (3GPP TS 27.005, 3.2.5). Codes 0..127 are the RP causes of TS 24.011, codes 128..255 the
+	 * TP failure causes of TS 23.040.
+	 */
+	private static FailureClass classifyCms(int code) {
+		switch (code) {
+		case 1:		// Unassigned (unallocated) number
+		case 8:		// Operator determined barring
+		case 10:	// Call barred
+		case 21:	// Short message transfer rejected
+		case 28:	// Unidentified subscriber
+		case 29:	// Facility rejected
+		case 30:	// Unknown subscriber
+		case 50:	// Requested facility not subscribed
+		case 69:	// Requested facility not implemented
+		case 96:	// Invalid mandatory information
+		case 97:	// Message type non-existent or not implemented
+		case 98:	// Message not compatible with short message protocol state
+		case 99:	// Information element non-existent or not implemented
+		case 111:	// Protocol error, unspecified
+		case 193:	// No SC subscription
+		case 195:	// Invalid SME address
+		case 196:	// Destination SME barred
+		case 197:	// SM rejected - duplicate SM
+		case 198:	// TP-VPF not supported
+		case 199:	// TP-VP not supported
+		case 303:	// Operation not supported
+		case 304:	// Invalid PDU mode parameter
+		case 330:	// SMSC address unknown
+			return FailureClass.PERMANENT;
+		case 310:	// SIM not inserted
+		case 311:	// SIM PIN required
+		case 312:	// PH-SIM PIN required
+		case 313:	// SIM failure
+		case 315:	// SIM wrong
+		case 316:	// SIM PUK required
+		case 331:	// No network service
+			return FailureClass.LINK_DOWN;
+		default:
+			if (code >= 128 && code <= 191) {
+				// Errors in the TPDU (protocol identifier, data coding scheme, command)
+				return FailureClass.PERMANENT;
+			}
+			return FailureClass.TRANSIENT;
+		}
+	}
+
+	/**
+	 * Classify a +CME error (3GPP TS 27.007, 9.2).
+	 */
+	private static FailureClass classifyCme(int code) {
+		switch (code) {
+		case 4:		// Operation not supported
+			return FailureClass.PERMANENT;
+		case 1:		// No connection to phone
+		case 10:	// SIM not inserted
+		case 11:	// SIM PIN required
+		case 12:	// SIM PUK required
+		case 13:	// SIM failure
+		case 15:	// SIM wrong
+		case 17:	// SIM PIN2 required
+		case 18:	// SIM PUK2 required
+		case 30:	// No network service
+		case 32:	// Network not allowed - emergency calls only
+			return FailureClass.LINK_DOWN;
+		default:
+			return FailureClass.TRANSIENT;
+		}
+	}
+
+	/**
+	 * @param retry
+	 * 	The number of the retry, starting with 1
+	 * @return
+	 * 	The delay (milliseconds) before the given retry.
+	 */
+	static long getDelay(FailureClass failure, int retry) {
+		long backoff = failure.initialDelay << Math.min(retry - 1, 20);
+		backoff = Math.min(backoff, failure.maxDelay);
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+}
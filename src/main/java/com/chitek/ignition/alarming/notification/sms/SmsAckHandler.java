@@ -29,6 +29,8 @@ public class SmsAckHandler {
 	
 	public static final String LOGGER_NAME = "alarming.notificaton.GsmSmsAckHandler";
 	private static final String ACK_PATTERN = ".*(\\d{4}).*";
+	/** Stands for an ack code when the length of a message is checked before the code is known */
+	private static final String ACK_CODE_PLACEHOLDER = "9999";
 	private static final long STALE_TIMEOUT = 120 * 60 * 1000;
 		
 	private LoggerEx log;
@@ -60,8 +62,26 @@ public class SmsAckHandler {
 	 * 	The given message with added ack code.
 	 */
 	public String registerEvent(NotificationContext notificationContext, String phoneNumber, String message) {
+		return registerEvents(notificationContext.getUser().getPath(), notificationContext.getAlarmEvents(), phoneNumber, message);
+	}
 	
-		QualifiedPath userPath = notificationContext.getUser().getPath();
+	/**
+	 * Add's the acknowledge code to the given message and stores the events for later acknowledgement. Used for a
+	 * message that combines several notifications, all events are acknowledged with a single ack code.
+	 * 
+	 * @param userPath
+	 * 	The notified user
+	 * @param events
+	 * 	The events of all notifications in the message
+	 * @param phoneNumber
+	 * 	The phone number used to send the SMS. Has to be given in E164 format.
+	 * @param message
+	 * 	The notification message. The ack code will be added to this message.
+	 * @return
+	 * 	The given message with added ack code.
+	 */
+	public String registerEvents(QualifiedPath userPath, List<AlarmEvent> events, String phoneNumber, String message) {
+		
 		String ackCode;
 		
 		synchronized (userMap) {
@@ -78,7 +98,7 @@ public class SmsAckHandler {
 				return message;
 			}
 			
-			ackCode = user.registerNotification(notificationContext);
+			ackCode = user.registerNotification(events);
 		}
 		
 		// Add the ack code to the message
@@ -92,6 +112,15 @@ public class SmsAckHandler {
 		}
 	}
 	
+	/**
+	 * @return
+	 * 	The given message with the text {@link #registerEvents(QualifiedPath, List, String, String)} adds to it. Used
+	 * 	to check the length of a message before the ack code is registered.
+	 */
+	public static String addAckCodePlaceholder(String message) {
+		return BundleUtil.get().getString("chi_sms.messageWithAck", message, ACK_CODE_PLACEHOLDER);
+	}
+	
 	/**
 	 * Evaluate an incoming messages and acknowledge the related notification.
 	 * 
@@ -164,11 +193,11 @@ public class SmsAckHandler {
 		 * Register a new notification for this user and returns the ack-code. When creating the user, the code
 		 * is initialized with a randon number, after that it simply increments with every call.
 		 * 
-		 * @param notificationContext
+		 * @param events
 		 * @return
 		 * 	The 4 digit ack code or null, if there are no acknowledegable events in the given list. 
 		 */
-		public String registerNotification(NotificationContext notificationContext) {
+		public String registerNotification(List<AlarmEvent> events) {
 			
 			// Create a new unused acknowledgement code
 			int ackCode;
@@ -178,7 +207,7 @@ public class SmsAckHandler {
 			} while (notifications.containsKey(ackCode));
 			lastCode = ackCode;
 			
-			Notification notification = getNotification(notificationContext.getAlarmEvents());
+			Notification notification = getNotification(events);
 			if (notification != null) {
 				String ackCodeString =  String.format("%04d", ackCode);
 				notifications.put(ackCodeString, notification);
@@ -1,20 +1,37 @@
 package com.chitek.ignition.alarming.notification.sms;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.ajwcc.pduUtils.gsm3040.EncodingPlan;
+import org.ajwcc.pduUtils.gsm3040.GsmTransliterator;
+import org.ajwcc.pduUtils.gsm3040.NationalLanguageTables;
 import org.apache.commons.lang3.StringUtils;
 
+import com.chitek.ignition.alarming.notification.sms.ModemBank.Member;
+import com.chitek.ignition.alarming.notification.sms.RetryPolicy.FailureClass;
 import com.chitek.ignition.alarming.notification.sms.SmsAckHandler.AckResult;
 import com.chitek.ignition.alarming.notification.sms.modem.InboundMessage;
 import com.chitek.ignition.alarming.notification.sms.modem.ModemDriver;
@@ -34,6 +51,7 @@ import com.inductiveautomation.ignition.gateway.model.ProfileStatus;
 import com.inductiveautomation.ignition.gateway.model.ProfileStatus.State;
 import com.inductiveautomation.ignition.common.TypeUtilities;
 import com.inductiveautomation.ignition.common.alarming.AlarmEvent;
+import com.inductiveautomation.ignition.common.alarming.AlarmPriority;
 import com.inductiveautomation.ignition.common.config.FallbackPropertyResolver;
 import com.inductiveautomation.ignition.common.expressions.ExpressionParseContext;
 import com.inductiveautomation.ignition.common.expressions.parsing.Parser;
@@ -63,16 +81,25 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	static final int RECONNECT_INTERVAL = 10000;
 	/** Interval (milliseconds) for checking the modem connection by sending a heartbeat */
 	static final int HEARTBEAT_INTERVAL = 10000;
-	/** How often to retry sending a notification if an error occurs*/
-	static final int MAX_RETRIES = 3;
-	/** Interval (milliseconds) for retrying to send notification */
-	static final int RETRY_INTERVAL = 5000;
+	/** Maximum number of threads used to prepare outbound messages */
+	static final int PREPARE_THREADS = 4;
+	/** Maximum number of parts of a message that combines several notifications */
+	static final int MAX_COALESCED_PARTS = 3;
+	/** Directory for the outbound journals, relative to the gateway's data directory */
+	static final String JOURNAL_DIR = "gsm-sms-notification";
 	
 	// Tag paths
 	static final String TAG_IS_CONNECTED = "/ConnectedToModem";
 	static final String TAG_NETWORK_CONNECTED = "/NetworkConnected";
 	static final String TAG_OPERATOR = "/NetworkOperator";
 	static final String TAG_SIGNAL_LEVEL = "/SignalLevel";
+	static final String TAG_QUEUED = "/QueuedMessages";
+	/** Folder for the status tags of the single modems, used if more than one modem is configured */
+	static final String TAG_MODEM_FOLDER = "/Modem%d";
+	static final String TAG_PENDING = "/PendingMessages";
+	static final String TAG_LATENCY = "/SendLatency";
+	static final String TAG_TOKENS = "/TokensAvailable";
+	static final String TAG_THROTTLED = "/ThrottledTime";
 		
 	static final String EVENT_SEND = "send sms";
 	static final String EVENT_ACK = "ack by sms";
@@ -87,7 +114,7 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	private String profileName;
 	private String auditProfileName;
 	
-	private ModemDriver modem;
+	private ModemBank bank;
 	private SmsAckHandler ackHandler;
 	
 	private final Object modemLock = new Object();
@@ -97,15 +124,35 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	
 	/** A single thread executor used for modem operations */
 	private ScheduledExecutorService  executor;
-	private ScheduledFuture<?> heartbeatSchedule;
-	private ScheduledFuture<?> connectionSchedule;
+	/**
+	 * Renders the messages and generates the pdus, so slow message expressions don't delay the modem operations on
+	 * the executor.
+	 */
+	private final ThreadPoolExecutor preparer;
+	
+	/** Notifications waiting for a modem, only accessed by the executor thread */
+	private final OutboundScheduler<NotificationTask> scheduler = new OutboundScheduler<NotificationTask>();
+	/**
+	 * Notifications that have not been sent yet and can take further notifications for the same phone number. Key is
+	 * the phone number in E164 format. Only accessed by the executor thread.
+	 */
+	private final Map<String, NotificationTask> coalescing = new HashMap<String, NotificationTask>();
+	/** Dispatch scheduled while all modems are throttled by their rate limit, only accessed by the executor thread */
+	private ScheduledFuture<?> throttleSchedule;
+	/**
+	 * Notifications that are neither held nor queued, because they wait for a delayed submit or retry, or are being
+	 * sent by a modem. The notifications left are stopped when the profile is shut down.
+	 */
+	private final Set<NotificationTask> detached = ConcurrentHashMap.newKeySet();
+	
+	/** Accepted messages that have not been sent yet, replayed on startup */
+	private final OutboundJournal journal;
 	
-	private int signalLevel = 0;
-	private String operator = "";
 	private ProfileStatus status;
-	private boolean networkConnectionOk = false;
 	private boolean stopped;
 	private boolean isShutdown;
+	/** Set when the profile is shut down, notifications are not sent or retried anymore */
+	private volatile boolean stopping;
 	
 	public SmsNotification(GatewayContext context, AlarmNotificationProfileRecord profileRecord, GsmSmsNotificationSettings settings, SimpleTagProvider statusTagProvider) {
 		this.context = context;
@@ -124,13 +171,29 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	    this.status = ProfileStatus.UNKNOWN;
 
 	    // A single thread executor is used here, because we want to execute modem operations sequentially
-	    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() 
+	    ScheduledThreadPoolExecutor modemExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() 
 	    {
 			@Override
 			public Thread newThread(Runnable r) {
 				return new Thread(r, String.format("GsmSmsNotification[%s]", profileName));
 			}
 	    });
+	    // Delayed notifications are stopped by onShutdown, all other delayed tasks are not needed after a shutdown
+	    modemExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	    executor = modemExecutor;
+	    
+	    int threads = Math.max(1, Math.min(PREPARE_THREADS, Runtime.getRuntime().availableProcessors()));
+	    preparer = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, String.format("GsmSmsNotification[%s]-Prepare-%d", profileName, count.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			}
+	    });
+	    preparer.allowCoreThreadTimeOut(true);
 	    
 	    // In two-way mode, we need to handle acknowledgments
 	    if (settings.isTwoWayEnabled()) {
@@ -148,8 +211,10 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	    	}, 2, 2, TimeUnit.MINUTES);
 	    }
 	    
-	    // The modem driver
-		modem = new ModemDriver(settings, profileRecord.getName(), log);
+	    // The modem drivers
+		bank = new ModemBank(settings, profileRecord.getName(), log);
+		
+		journal = new OutboundJournal(new File(context.getSystemManager().getDataDir(), JOURNAL_DIR), "profile-" + profileRecord.getId(), log);
 		
 		// Add the status tags
 		this.statusTagProvider = statusTagProvider;
@@ -161,8 +226,39 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		statusTagProvider.configureTag(profileName + TAG_NETWORK_CONNECTED, DataType.Boolean, TagType.Custom);		
 		statusTagProvider.configureTag(profileName + TAG_OPERATOR, DataType.String, TagType.Custom);		
 		statusTagProvider.configureTag(profileName + TAG_SIGNAL_LEVEL, DataType.Int2, TagType.Custom);
+		statusTagProvider.configureTag(profileName + TAG_QUEUED, DataType.Int4, TagType.Custom);
+		statusTagProvider.updateValue(profileName + TAG_QUEUED, 0, DataQuality.GOOD_DATA);
 		
-		setStatusTagsNotConnected(false);
+		if (bank.size() > 1) {
+			for (Member member : bank.getMembers()) {
+				String path = getTagPath(member);
+				statusTagProvider.configureTag(path + TAG_IS_CONNECTED, DataType.Boolean, TagType.Custom);
+				statusTagProvider.configureTag(path + TAG_NETWORK_CONNECTED, DataType.Boolean, TagType.Custom);
+				statusTagProvider.configureTag(path + TAG_OPERATOR, DataType.String, TagType.Custom);
+				statusTagProvider.configureTag(path + TAG_SIGNAL_LEVEL, DataType.Int2, TagType.Custom);
+				statusTagProvider.configureTag(path + TAG_PENDING, DataType.Int4, TagType.Custom);
+				statusTagProvider.configureTag(path + TAG_LATENCY, DataType.Int4, TagType.Custom);
+			}
+		}
+		
+		for (Member member : bank.getMembers()) {
+			String path = getTagPath(member);
+			statusTagProvider.configureTag(path + TAG_TOKENS, DataType.Int4, TagType.Custom);
+			statusTagProvider.configureTag(path + TAG_THROTTLED, DataType.Int8, TagType.Custom);
+			updateRateStatus(member);
+			setStatusTagsNotConnected(member, false);
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	The path of the status tags for the given modem. The profile tags are used if there is only one modem.
+	 */
+	private String getTagPath(Member member) {
+		if (bank.size() > 1) {
+			return profileName + String.format(TAG_MODEM_FOLDER, member.index);
+		}
+		return profileName;
 	}
 	
 	@Override
@@ -197,14 +293,56 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		}
 		
 		log.debugf("onShutdown");
+		stopping = true;
 		cancelSchedule();
-		executor.shutdown();
-		try {
-			modem.removeEventHandler();
-			modem.disconnect();
-		} catch (Exception e) {
-			log.error("Exception while disconnecting from modem", e);
+		preparer.shutdown();
+		// Messages that are being sent fail now, their results are passed to the executor
+		for (Member member : bank.getMembers()) {
+			try {
+				member.driver.removeEventHandler();
+				member.driver.disconnect();
+			} catch (Exception e) {
+				log.error("Exception while disconnecting from modem", e);
+			}
 		}
+		// Stop all notifications that have not been sent. This is the last task of the executor that uses the
+		// journal, notifications that reach the executor later are not sent either.
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (throttleSchedule != null) {
+					throttleSchedule.cancel(false);
+				}
+				List<NotificationTask> tasks = new ArrayList<NotificationTask>();
+				for (NotificationTask task : coalescing.values()) {
+					if (task.holdSchedule != null && task.holdSchedule.cancel(false)) {
+						tasks.add(task);
+					}
+				}
+				coalescing.clear();
+				NotificationTask task;
+				while ((task = scheduler.poll()) != null) {
+					tasks.add(task);
+				}
+				for (NotificationTask other : detached) {
+					if (detached.remove(other)) {
+						tasks.add(other);
+					}
+				}
+				// The notifications fail, but messages in the journal are sent after the next start
+				int journaled = 0;
+				for (NotificationTask stopped : tasks) {
+					if (stopped.stop()) {
+						journaled++;
+					}
+				}
+				if (journaled > 0) {
+					log.infof("%d messages that have not been sent stay in the journal and are sent after the next start.", journaled);
+				}
+				journal.close();
+			}
+		});
+		executor.shutdown();
 		isShutdown = true;
 		
 		statusTagProvider.removeTag(profileName + TAG_IS_CONNECTED);
@@ -214,8 +352,25 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	public void onStartup() {
 		
 		log.debugf("onStartup");
+		
+		// Send the messages that were accepted before the profile was stopped
+		try {
+			List<OutboundJournal.Entry> pending = journal.open();
+			if (!pending.isEmpty()) {
+				log.infof("Resending %d messages that were not sent before the profile was stopped.", pending.size());
+			}
+			for (OutboundJournal.Entry entry : pending) {
+				NotificationTask task = new NotificationTask(entry);
+				task.encode();
+				delay(task, RECONNECT_INTERVAL, false);
+			}
+		} catch (IOException e) {
+			log.errorf("Unable to open the outbound journal, messages will not survive a restart: %s", e.getMessage());
+		}
 
-		scheduleConnect(true);
+		for (Member member : bank.getMembers()) {
+			scheduleConnect(member, true);
+		}
 	}
 
 	
@@ -227,10 +382,163 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 			return;			
 		}
 		
-		if (modem.isConnected()) {
-			executor.execute(new NotificationTask(notificationContext));
-		} else {
-			executor.schedule(new NotificationTask(notificationContext), RECONNECT_INTERVAL, TimeUnit.MILLISECONDS);
+		final NotificationTask task = new NotificationTask(notificationContext);
+		try {
+			preparer.execute(new Runnable() {
+				@Override
+				public void run() {
+					prepare(task);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			notificationContext.notificationFailed(new LocalizedString("failed.stopped"));
+		}
+	}
+	
+	/**
+	 * Render the message, normalize the phone number and plan the encoding, then pass the notification to the
+	 * executor. Called by the preparation pool.
+	 */
+	private void prepare(final NotificationTask task) {
+		if (!task.init()) {
+			log.debugf("Initialisation of notification failed. Notification is not send.");
+			writeAuditRecord(task.notificationContext.getAlarmEvents(), task.getUserPath(), EVENT_SEND, false);
+			return;
+		}
+		task.encode();
+		
+		if (!bank.isConnected()) {
+			delay(task, RECONNECT_INTERVAL, true);
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					submit(task);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The profile has been stopped while the message was prepared
+			task.notificationContext.notificationFailed(new LocalizedString("failed.stopped"));
+		}
+	}
+	
+	/**
+	 * Pass a notification to the executor after the given delay. Until then the notification is kept in
+	 * {@link #detached}, so it is stopped if the profile is shut down in the meantime. May be called by any thread.
+	 * 
+	 * @param submit
+	 * 	<code>true</code> to {@link #submit(NotificationTask)} the notification, <code>false</code> to
+	 * 	{@link #enqueue(NotificationTask)} it
+	 */
+	private void delay(final NotificationTask task, long delay, final boolean submit) {
+		detached.add(task);
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// The notification has been stopped if it is not detached anymore
+					if (detached.remove(task)) {
+						if (submit) {
+							submit(task);
+						} else {
+							enqueue(task);
+						}
+					}
+				}
+			}, stopping ? 0 : delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			if (detached.remove(task)) {
+				task.stop();
+			}
+		}
+	}
+	
+	/**
+	 * Queue a prepared notification. If a coalescing window is configured, the notification is merged into a
+	 * notification for the same phone number that has not been sent yet. If there is none, the notification is held
+	 * for the coalescing window, so later notifications can join. The message is recorded in the journal from now on.
+	 * Must be called by the executor thread.
+	 */
+	private void submit(final NotificationTask task) {
+		if (stopping) {
+			// Keep the message for the next start if the journal is still open
+			if (!task.isTestMode()) {
+				task.journal();
+			}
+			task.stop();
+			return;
+		}
+		if (task.isTestMode()) {
+			enqueue(task);
+			return;
+		}
+		int window = settings.getCoalesceWindow();
+		if (window <= 0) {
+			task.journal();
+			enqueue(task);
+			return;
+		}
+		
+		NotificationTask open = coalescing.get(task.phoneNumber);
+		if (open != null && open.merge(task)) {
+			log.debugf("Notification for %s merged into pending message with %d notifications.", task.getUserPath(), open.contexts.size());
+			open.journal();
+			scheduler.reorder(open);
+			return;
+		}
+		if (open != null && open.holdSchedule != null && open.holdSchedule.cancel(false)) {
+			// The pending message is full, no need to wait any longer
+			enqueue(open);
+		}
+		
+		// Hold the notification, but not beyond its deadline
+		long hold = Math.min(TimeUnit.SECONDS.toMillis(window), Math.max(0, task.deadline - System.currentTimeMillis()));
+		task.journal();
+		coalescing.put(task.phoneNumber, task);
+		task.holdSchedule = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				enqueue(task);
+			}
+		}, hold, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Put a notification in the scheduler and send the next notifications. Must be called by the executor thread.
+	 */
+	private void enqueue(NotificationTask task) {
+		if (stopping) {
+			task.stop();
+			return;
+		}
+		task.queuedAt = System.currentTimeMillis();
+		int position = scheduler.add(task);
+		log.debugf("Notification for %s queued with priority %s at position %d.", task.getUserPath(), task.getPriority(), position);
+		dispatch();
+	}
+	
+	/**
+	 * Send queued notifications as long as a modem can take them. If no modem is available, the notifications are
+	 * run anyway to schedule their retry. If all modems are throttled by their rate limit, the notifications stay in
+	 * the scheduler until the next token is available. Must be called by the executor thread.
+	 */
+	private void dispatch() {
+		while (!scheduler.isEmpty() && !isShutdown && (bank.hasCapacity() || bank.getAvailableCount() == 0)) {
+			scheduler.poll().run();
+		}
+		statusTagProvider.updateValue(profileName + TAG_QUEUED, scheduler.size(), DataQuality.GOOD_DATA);
+		
+		long wait = bank.getTokenWait();
+		if (!scheduler.isEmpty() && !isShutdown && wait > 0 && (throttleSchedule == null || throttleSchedule.isDone())) {
+			log.debugf("Rate limit reached, %d notifications wait %d ms for the next message.", scheduler.size(), wait);
+			throttleSchedule = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, wait, TimeUnit.MILLISECONDS);
 		}
 	}
 	
@@ -330,7 +638,9 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		log.debug("Module stopped due to critical error.");
 		status = new ProfileStatus(State.Errored, new LocalizedString(messageKey, messageParams));
 		try {
-			modem.disconnect();
+			for (Member member : bank.getMembers()) {
+				member.driver.disconnect();
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
@@ -338,17 +648,17 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		}
 	}
 	
-	private void scheduleConnect(boolean immediate) {
+	private void scheduleConnect(final Member member, boolean immediate) {
 		if (isShutdown)
 			return;
 		
-		log.debug("New connection schedule started.");
+		log.debugf("New connection schedule started for modem %s.", member.name);
 		synchronized (modemLock) {
-			if (connectionSchedule == null || connectionSchedule.isDone()) {
-				connectionSchedule = executor.schedule(new Runnable() {
+			if (member.connectionSchedule == null || member.connectionSchedule.isDone()) {
+				member.connectionSchedule = executor.schedule(new Runnable() {
 					@Override
 					public void run() {
-						doConnect();
+						doConnect(member);
 					}
 				}, immediate ? 20 : RECONNECT_INTERVAL, TimeUnit.MILLISECONDS);
 			} else {
@@ -357,15 +667,15 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		}
 	}
 	
-	private void scheduleHeartbeat() {
+	private void scheduleHeartbeat(final Member member) {
 		if (isShutdown)
 			return;
 		
 		log.debug("New heartbeat schedule started.");
-		heartbeatSchedule = executor.schedule(new Runnable() {
+		member.heartbeatSchedule = executor.schedule(new Runnable() {
 			@Override
 			public void run() {
-				doHeartbeat();
+				doHeartbeat(member);
 			}
 		}, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
 	}
@@ -375,44 +685,72 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	 */
 	private void cancelSchedule() { 
 		log.debugf("Cancel schedule got GatewayLock");
-		if (heartbeatSchedule != null && !heartbeatSchedule.isDone()) {
-			heartbeatSchedule.cancel(false);
-			heartbeatSchedule = null;
-			log.debug("heartbeatSchedule cancelled");
+		for (Member member : bank.getMembers()) {
+			if (member.heartbeatSchedule != null && !member.heartbeatSchedule.isDone()) {
+				member.heartbeatSchedule.cancel(false);
+				member.heartbeatSchedule = null;
+				log.debug("heartbeatSchedule cancelled");
+			}
+	
+			if (member.connectionSchedule != null && !member.connectionSchedule.isDone()) {
+				member.connectionSchedule.cancel(false);
+				member.connectionSchedule = null;
+				log.debug("connectionSchedule cancelled");
+			}
 		}
-
-		if (connectionSchedule != null && !connectionSchedule.isDone()) {
-			connectionSchedule.cancel(false);
-			connectionSchedule = null;
-			log.debug("connectionSchedule cancelled");
+	}
+	
+	/**
+	 * @return
+	 * 	The delay (milliseconds) until the next heartbeat or connection attempt of any modem.
+	 */
+	private long getNextScheduleDelay(boolean heartbeat) {
+		long delay = Long.MAX_VALUE;
+		for (Member member : bank.getMembers()) {
+			ScheduledFuture<?> schedule = heartbeat ? member.heartbeatSchedule : member.connectionSchedule;
+			if (schedule != null) {
+				delay = Math.min(delay, schedule.getDelay(TimeUnit.MILLISECONDS));
+			}
 		}
+		if (delay == Long.MAX_VALUE) {
+			return heartbeat ? HEARTBEAT_INTERVAL : RECONNECT_INTERVAL;
+		}
+		return delay + 2000;
 	}
 	
-	private void doConnect() {
+	private void doConnect(Member member) {
 		if (isShutdown) {
 			return;
 		}
 		
 		synchronized (modemLock) {
-			connectionSchedule = null;
+			member.connectionSchedule = null;
 			try {
-				modem.setEventHandler(this);
-				modem.connect();
-				status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.status.waitForNetwork"));
-				statusTagProvider.updateValue(profileName + TAG_IS_CONNECTED, true, DataQuality.GOOD_DATA);
-				scheduleHeartbeat();
+				member.driver.setEventHandler(this);
+				member.driver.connect();
+				statusTagProvider.updateValue(getTagPath(member) + TAG_IS_CONNECTED, true, DataQuality.GOOD_DATA);
+				updateProfileStatus();
+				scheduleHeartbeat(member);
+				dispatch();
 			} catch (ModemException e) {
 				// SMS Gateway could not be started (e.g a wrong SIM-Pin or an invalid setup
-				log.errorf("Unable to init modem - Module stopped - %s", e.getLocalizedMessage());
-				stop("chi_sms.error.ModemException", e.getLocalizedMessage());
+				member.failed = true;
+				member.driver.disconnect();
+				if (bank.isFailed()) {
+					log.errorf("Unable to init modem - Module stopped - %s", e.getLocalizedMessage());
+					stop("chi_sms.error.ModemException", e.getLocalizedMessage());
+				} else {
+					log.errorf("Unable to init modem %s - Modem disabled - %s", member.name, e.getLocalizedMessage());
+					updateProfileStatus();
+				}
 			} catch (ConnectException e) {
 				// SMS Gateway could not connect to modem
-				log.debugf("Could not connect to modem. " + e.getMessage());
-				status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.error.noModem"));
-				scheduleConnect(false);
+				log.debugf("Could not connect to modem %s. %s", member.name, e.getMessage());
+				updateProfileStatus();
+				scheduleConnect(member, false);
 			} catch (Exception e) {
 				log.errorf("Exception while initializing modem connection: %s", e.getMessage());
-				scheduleConnect(false);
+				scheduleConnect(member, false);
 			}
 		}
 	}
@@ -420,27 +758,29 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	/**
 	 * This task checks the modem connection by sending a heartbeat and checking the result.
 	 */
-	private void doHeartbeat() {
+	private void doHeartbeat(Member member) {
 		if (isShutdown || stopped) {
 			return;
 		}
 
 		synchronized (modemLock) {
-			heartbeatSchedule = null;
+			member.heartbeatSchedule = null;
 			try {
-				if (!modem.isConnected()) {
+				if (!member.driver.isConnected()) {
 					throw new IOException("Modem not connected");
 				}
-				updateModemStatus();
-				scheduleHeartbeat();
+				updateModemStatus(member);
+				member.driver.evictIncompleteMessages();
+				scheduleHeartbeat(member);
+				dispatch();
 			} catch (IOException e) {
-				log.errorf("Modem connection faulted: %s", e.getMessage());
-				status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.error.noModem"));
-				if (modem.isConnected()) {
-					modem.disconnect();
+				log.errorf("Modem connection to %s faulted: %s", member.name, e.getMessage());
+				if (member.driver.isConnected()) {
+					member.driver.disconnect();
 				}
-				setStatusTagsNotConnected(false);
-				scheduleConnect(false);	
+				setStatusTagsNotConnected(member, false);
+				updateProfileStatus();
+				scheduleConnect(member, false);	
 			}
 		}
 	}
@@ -449,52 +789,105 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 	 * Check the modems network connection and update network operator and signal level.
 	 * @throws IOException
 	 */
-	private void updateModemStatus() throws IOException {
+	private void updateModemStatus(Member member) throws IOException {
 		
 		synchronized (modemLock) {
 			int newSignalLevel = 0;
 			String newOperator;
 
-			int regStatus = modem.getNetworkRegistration();
+			int regStatus = member.driver.getNetworkRegistration();
+			String path = getTagPath(member);
 			if (regStatus == 1 || regStatus == 5) {
 				// 1 - Home network, 5 - Roaming
-				newSignalLevel = modem.getSignalLevel();
-				newOperator = modem.getOperator();
-				statusTagProvider.updateValue(profileName + TAG_NETWORK_CONNECTED, true, DataQuality.GOOD_DATA);
-				networkConnectionOk = true;
+				newSignalLevel = member.driver.getSignalLevel();
+				newOperator = member.driver.getOperator();
+				statusTagProvider.updateValue(path + TAG_NETWORK_CONNECTED, true, DataQuality.GOOD_DATA);
+				member.networkConnectionOk = true;
 			} else {
-				status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.status.waitForNetwork"));
-				setStatusTagsNotConnected(true);
+				setStatusTagsNotConnected(member, true);
+				updateProfileStatus();
 				return;
 			}
 
 			log.tracef("Modem connection ok. Signal: %ddb - Operator: %s", newSignalLevel, newOperator);
 			
-			if (newSignalLevel != this.signalLevel || !newOperator.equals(this.operator)) {
+			if (newSignalLevel != member.signalLevel || !newOperator.equals(member.operator)) {
 				// Update the status only if there are changes
-				this.signalLevel = newSignalLevel;
-				this.operator = newOperator;
-				status = new ProfileStatus(State.Good, new LocalizedString("chi_sms.status.connected", operator, newSignalLevel));
-				statusTagProvider.updateValue(profileName + TAG_OPERATOR, operator, DataQuality.GOOD_DATA);
-				statusTagProvider.updateValue(profileName + TAG_SIGNAL_LEVEL, newSignalLevel, DataQuality.GOOD_DATA);
+				member.signalLevel = newSignalLevel;
+				member.operator = newOperator;
+				statusTagProvider.updateValue(path + TAG_OPERATOR, member.operator, DataQuality.GOOD_DATA);
+				statusTagProvider.updateValue(path + TAG_SIGNAL_LEVEL, newSignalLevel, DataQuality.GOOD_DATA);
+			}
+			if (bank.size() > 1) {
+				statusTagProvider.updateValue(path + TAG_PENDING, member.getPending(), DataQuality.GOOD_DATA);
+				statusTagProvider.updateValue(path + TAG_LATENCY, (int) member.getLatency(), DataQuality.GOOD_DATA);
 			}
+			updateRateStatus(member);
+			updateProfileStatus();
 		}
 	}
 	
 	/**
-	 * Set the status tags to 'not connected' state
+	 * Update the rate limit status tags of the given modem.
+	 */
+	private void updateRateStatus(Member member) {
+		String path = getTagPath(member);
+		statusTagProvider.updateValue(path + TAG_TOKENS, (int) Math.floor(member.bucket.getTokens()), DataQuality.GOOD_DATA);
+		statusTagProvider.updateValue(path + TAG_THROTTLED, member.bucket.getThrottledTime(), DataQuality.GOOD_DATA);
+	}
+	
+	/**
+	 * Update the profile status and the profile status tags from the state of all modems. The operator and signal
+	 * level are taken from the modem with the best signal.
+	 */
+	private void updateProfileStatus() {
+		if (stopped) {
+			return;
+		}
+		
+		Member best = null;
+		for (Member member : bank.getMembers()) {
+			if (member.isAvailable() && (best == null || member.signalLevel > best.signalLevel)) {
+				best = member;
+			}
+		}
+		
+		if (best != null) {
+			int available = bank.getAvailableCount();
+			if (bank.size() > 1) {
+				status = new ProfileStatus(State.Good, new LocalizedString("chi_sms.status.connectedBank", available, bank.size(), best.operator, best.signalLevel));
+			} else {
+				status = new ProfileStatus(State.Good, new LocalizedString("chi_sms.status.connected", best.operator, best.signalLevel));
+			}
+		} else if (bank.isConnected()) {
+			status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.status.waitForNetwork"));
+		} else {
+			status = new ProfileStatus(State.Errored, new LocalizedString("chi_sms.error.noModem"));
+		}
+		
+		if (bank.size() > 1) {
+			statusTagProvider.updateValue(profileName + TAG_IS_CONNECTED, bank.isConnected(), DataQuality.GOOD_DATA);
+			statusTagProvider.updateValue(profileName + TAG_NETWORK_CONNECTED, best != null, DataQuality.GOOD_DATA);
+			statusTagProvider.updateValue(profileName + TAG_OPERATOR, best != null ? best.operator : "", DataQuality.GOOD_DATA);
+			statusTagProvider.updateValue(profileName + TAG_SIGNAL_LEVEL, best != null ? best.signalLevel : 0, DataQuality.GOOD_DATA);
+		}
+	}
+	
+	/**
+	 * Set the status tags of a modem to 'not connected' state
 	 * 
 	 * @param isConnected
 	 * 	The state of the network connection to the modem
 	 */
-	private void setStatusTagsNotConnected(boolean isConnected) {
-		networkConnectionOk = false;
-		this.signalLevel = 0;
-		this.operator = "";		
-		statusTagProvider.updateValue(profileName + TAG_IS_CONNECTED, isConnected, DataQuality.GOOD_DATA);
-		statusTagProvider.updateValue(profileName + TAG_NETWORK_CONNECTED, false, DataQuality.GOOD_DATA);
-		statusTagProvider.updateValue(profileName + TAG_OPERATOR, operator, DataQuality.GOOD_DATA);
-		statusTagProvider.updateValue(profileName + TAG_SIGNAL_LEVEL, signalLevel, DataQuality.GOOD_DATA);
+	private void setStatusTagsNotConnected(Member member, boolean isConnected) {
+		member.networkConnectionOk = false;
+		member.signalLevel = 0;
+		member.operator = "";
+		String path = getTagPath(member);
+		statusTagProvider.updateValue(path + TAG_IS_CONNECTED, isConnected, DataQuality.GOOD_DATA);
+		statusTagProvider.updateValue(path + TAG_NETWORK_CONNECTED, false, DataQuality.GOOD_DATA);
+		statusTagProvider.updateValue(path + TAG_OPERATOR, member.operator, DataQuality.GOOD_DATA);
+		statusTagProvider.updateValue(path + TAG_SIGNAL_LEVEL, member.signalLevel, DataQuality.GOOD_DATA);
 	}
 
 	@Override
@@ -517,72 +910,373 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		}
 	}
 	
-	private class NotificationTask implements Runnable {
+	/**
+	 * @return
+	 * 	The national languages that may be used to encode outgoing messages.
+	 */
+	private int[] getNationalLanguages() {
+		return settings.isNationalLanguageTablesEnabled() ? NationalLanguageTables.LANGUAGES : new int[0];
+	}
+	
+	/**
+	 * Apply the encoding policy of this profile to the given text.
+	 * 
+	 * @return
+	 * 	The text to send, with characters that are not in the GSM alphabet replaced if the policy says so.
+	 */
+	private String prepareText(String text) {
+		switch (settings.getEncodingPolicy()) {
+		case Transliterate:
+			return GsmTransliterator.transliterate(text);
+		case Hybrid:
+			String transliterated = GsmTransliterator.transliterate(text);
+			if (transliterated != text) {
+				int[] languages = getNationalLanguages();
+				if (EncodingPlan.forText(transliterated, languages).getSegmentCount() < EncodingPlan.forText(text, languages).getSegmentCount()) {
+					return transliterated;
+				}
+			}
+			return text;
+		default:
+			return text;
+		}
+	}
+	
+	/**
+	 * Send the given notifications using the given modem. The pdus are generated by the preparation pool and then
+	 * passed to the modem together, so the modem can send a text from its storage if it is sent to several recipients.
+	 * The result of every notification is evaluated by
+	 * {@link NotificationTask#sendCompleted(Member, long, OutboundMessage, Throwable)} on the executor thread.
+	 */
+	private void send(final Member member, List<NotificationTask> group) {
+		final List<OutboundMessage> messages = new ArrayList<OutboundMessage>(group.size());
+		final List<NotificationTask> tasks = new ArrayList<NotificationTask>(group.size());
+		final List<Long> startTimes = new ArrayList<Long>(group.size());
+		for (NotificationTask task : group) {
+			long startTime = task.sendStarted(member);
+			try {
+				messages.add(new OutboundMessage(task.phoneNumber, task.text, getNationalLanguages(), task.plan));
+				tasks.add(task);
+				startTimes.add(startTime);
+				detached.add(task);
+			} catch (Exception e) {
+				task.sendCompleted(member, startTime, null, e);
+			}
+		}
+		if (messages.isEmpty()) {
+			return;
+		}
+		
+		CompletableFuture<List<CompletableFuture<OutboundMessage>>> sent;
+		try {
+			sent = CompletableFuture.runAsync(() -> {
+				for (OutboundMessage msg : messages) {
+					member.driver.preparePdus(msg);
+				}
+			}, preparer).thenApply(v -> member.driver.sendMessagesAsync(messages));
+		} catch (Exception e) {
+			sent = new CompletableFuture<List<CompletableFuture<OutboundMessage>>>();
+			sent.completeExceptionally(e);
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			final int index = i;
+			final NotificationTask task = tasks.get(i);
+			final long startTime = startTimes.get(i);
+			sent.thenCompose(results -> results.get(index)).whenComplete((msg, t) -> {
+				// The notification has been stopped if it is not detached anymore
+				if (!detached.remove(task)) {
+					return;
+				}
+				try {
+					executor.execute(() -> task.sendCompleted(member, startTime, msg, t));
+				} catch (RejectedExecutionException e) {
+					// The profile has been shut down, the notification is completed here
+					if (t == null) {
+						task.done();
+					} else {
+						task.stop();
+					}
+				}
+			});
+		}
+	}
+	
+	private class NotificationTask implements OutboundScheduler.Task {
 
+		/** The notification context, or <code>null</code> if the notification was read from the journal */
 		private final NotificationContext notificationContext;
+		/** All notifications sent with this message, empty if the notification was read from the journal */
+		private final List<NotificationContext> contexts = new ArrayList<NotificationContext>();
+		private OutboundJournal.Entry journalEntry;
+		private AlarmPriority priority;
+		private long deadline;
+		/** Set while the notification is held for the coalescing window */
+		private ScheduledFuture<?> holdSchedule;
+		/** Time the notification was last put in the scheduler */
+		private long queuedAt;
 		private int retries = 0;
+		/** Number of retries by failure class, indexed by ordinal */
+		private final int[] failures = new int[FailureClass.values().length];
+		/** Number of times the notification was moved to another modem because the modem dropped */
+		private int failovers = 0;
 		private LocalizedString error;
 		
 		private String phoneNumber;
 		private String message;
+		/** The message with the encoding policy applied, and the ack code once the notification has been started */
+		private String text;
+		/** The encoding of the text, <code>null</code> if it has to be made again because the text has changed */
+		private EncodingPlan plan;
 		
 		public NotificationTask(NotificationContext notificationContext) {
 			this.notificationContext = notificationContext;
+			this.contexts.add(notificationContext);
+			
+			// The highest priority and the earliest deadline of all events count
+			AlarmPriority priority = null;
+			long deadline = OutboundScheduler.NO_DEADLINE;
+			long now = System.currentTimeMillis();
+			for (AlarmEvent event : notificationContext.getAlarmEvents()) {
+				if (event.getPriority() != null && (priority == null || event.getPriority().compareTo(priority) > 0)) {
+					priority = event.getPriority();
+				}
+				Integer seconds = event.get(ProfileProperties.SMS_DEADLINE);
+				if (seconds != null && seconds > 0) {
+					deadline = Math.min(deadline, now + seconds * 1000L);
+				}
+			}
+			this.priority = priority != null ? priority : AlarmPriority.Low;
+			this.deadline = deadline;
+		}
+		
+		/**
+		 * Create a task for a message read from the journal. The NotificationContext is lost, so the result is only
+		 * logged.
+		 */
+		public NotificationTask(OutboundJournal.Entry entry) {
+			this.notificationContext = null;
+			this.journalEntry = entry;
+			this.priority = entry.priority;
+			this.deadline = entry.deadline;
+			this.phoneNumber = entry.number;
+			this.message = entry.text;
 		}
 		
 		@Override
-		public void run() {
-			
-			if (retries == 0) {
-				boolean success = init();
-				if (!success) {
-					log.debugf("Initialisation of notification failed. Notification is not send.");
-					writeAuditRecord(notificationContext.getAlarmEvents(), notificationContext.getUser().getPath().toString(), EVENT_SEND, false);
-					return;
+		public AlarmPriority getPriority() {
+			return priority;
+		}
+		
+		@Override
+		public long getDeadline() {
+			return deadline;
+		}
+		
+		String getUserPath() {
+			return notificationContext != null ? notificationContext.getUser().getPath().toString() : journalEntry.userPath;
+		}
+		
+		boolean isTestMode() {
+			return notificationContext != null && (notificationContext.getOrDefault(ProfileProperties.TEST_MODE)).booleanValue();
+		}
+		
+		/**
+		 * @return
+		 * 	<code>true</code> if the text will not change when the notification is started. In two-way mode the ack
+		 * 	code is added to the text on the first attempt.
+		 */
+		boolean isFinal() {
+			return retries > 0 || failovers > 0 || notificationContext == null || !settings.isTwoWayEnabled();
+		}
+		
+		/**
+		 * Apply the encoding policy to the message and plan its encoding. Called by the preparation pool, so the
+		 * executor does not spend its time on the text.
+		 */
+		void encode() {
+			text = prepareText(message);
+			plan = EncodingPlan.forText(text, getNationalLanguages());
+		}
+		
+		/**
+		 * Append the message of the given notification to this message. Only possible until the notification is sent
+		 * for the first time.
+		 * 
+		 * @return
+		 * 	<code>false</code> if the notification can not be merged, because this notification has already been
+		 * 	started or the combined message would be too long.
+		 */
+		boolean merge(NotificationTask other) {
+			if (retries > 0 || failovers > 0) {
+				return false;
+			}
+			// Both texts are prepared already, the plan of the combined text is kept for sending
+			String combined = text + "\n" + other.text;
+			EncodingPlan combinedPlan = EncodingPlan.forText(combined, getNationalLanguages());
+			if (combinedPlan.getSegmentCount() > MAX_COALESCED_PARTS) {
+				return false;
+			}
+			// In two-way mode the ack code is added when the message is sent, and counts as well
+			if (settings.isTwoWayEnabled() && EncodingPlan.forText(SmsAckHandler.addAckCodePlaceholder(combined),
+				getNationalLanguages()).getSegmentCount() > MAX_COALESCED_PARTS) {
+				return false;
+			}
+			message = message + "\n" + other.message;
+			text = combined;
+			plan = combinedPlan;
+			contexts.addAll(other.contexts);
+			if (other.priority.compareTo(priority) > 0) {
+				priority = other.priority;
+			}
+			deadline = Math.min(deadline, other.deadline);
+			return true;
+		}
+		
+		/**
+		 * Record the message in the journal. If the message is already in the journal, the entry is replaced by the
+		 * current message.
+		 */
+		private void journal() {
+			List<UUID> eventIds = new ArrayList<UUID>();
+			for (NotificationContext context : contexts) {
+				for (AlarmEvent event : context.getAlarmEvents()) {
+					eventIds.add(event.getId());
+				}
+			}
+			if (journalEntry == null) {
+				journalEntry = journal.accept(phoneNumber, message, getUserPath(), priority, deadline, eventIds);
+			} else {
+				journalEntry = journal.replace(journalEntry, message, priority, deadline, eventIds);
+			}
+		}
+		
+		/**
+		 * The message has been sent.
+		 */
+		private void done() {
+			journal.complete(journalEntry);
+			for (NotificationContext context : contexts) {
+				context.notificationDone();
+			}
+		}
+		
+		/**
+		 * Sending the message finally failed.
+		 */
+		private void failed(LocalizedString reason) {
+			journal.complete(journalEntry);
+			if (notificationContext != null) {
+				for (NotificationContext context : contexts) {
+					context.notificationFailed(reason);
+				}
+			} else {
+				log.errorf("Message to %s from journal could not be sent: %s", phoneNumber, reason);
+			}
+		}
+		
+		/**
+		 * The profile is shut down before the message has been sent. The notification fails, but a message in the
+		 * journal is sent after the next start.
+		 * 
+		 * @return
+		 * 	<code>true</code> if the message stays in the journal
+		 */
+		private boolean stop() {
+			if (notificationContext != null) {
+				for (NotificationContext context : contexts) {
+					context.notificationFailed(new LocalizedString("failed.stopped"));
 				}
 			}
+			return journalEntry != null;
+		}
+		
+		/**
+		 * Put the notification back in the scheduler after the given delay.
+		 */
+		private void retry(long delay) {
+			delay(this, delay, false);
+		}
+		
+		@Override
+		public void run() {
 			
 			// In test mode we just write a log entry
-	        boolean testMode = (notificationContext.getOrDefault(ProfileProperties.TEST_MODE)).booleanValue();
-	        if (testMode) {
+	        if (isTestMode()) {
 	          log.infof("THIS PROFILE IS RUNNING IN TEST MODE. The following sms WOULD have been sent to %s\nMessage: %s", new Object[] { phoneNumber, message });
 	          notificationContext.notificationDone();
 	          return;
 	        }
 			
-			retries ++;
-			
-			if (modem.isConnected() && networkConnectionOk) {
-				boolean success = send();
-				if (success) {
-					notificationContext.notificationDone();
-					return;
-				}
-				if (retries < MAX_RETRIES) {
-					executor.schedule(this, RETRY_INTERVAL, TimeUnit.MILLISECONDS);
-				} else {
-					notificationContext.notificationFailed(error);
+			Member member = bank.select();
+			if (member != null) {
+				start();
+				List<NotificationTask> group = new ArrayList<NotificationTask>();
+				group.add(this);
+				// Queued notifications with the same final text are sent by the same modem, which can send the text from
+				// its storage. A text with an ack code has no plan yet, and no other notification has the same ack code.
+				int limit = member.getMessageLimit() - 1;
+				if (limit > 0 && plan != null && ModemDriver.isFanOutWorthwhile(plan, 2)) {
+					for (NotificationTask other : scheduler.poll(task -> task.isFinal() && !task.isTestMode() && task.text.equals(text), limit)) {
+						other.start();
+						group.add(other);
+					}
 				}
+				send(member, group);
+			} else if (bank.isConnected()) {
+				start();
+				log.debugf("Notification failed, modem not connected to GSM network.");
+				// Retry not before the next heartbeat has checked the network connection
+				retryOrFail(FailureClass.LINK_DOWN, new LocalizedString("chi_sms.failed.noNetwork"), getNextScheduleDelay(true));
 			} else {
-				if (retries < MAX_RETRIES) {
-					if (modem.isConnected()) {
-						log.debugf("Notification failed, modem not connected to GSM network. Scheduling send retry");
-						executor.schedule(this, heartbeatSchedule!=null?heartbeatSchedule.getDelay(TimeUnit.MILLISECONDS) + 2000:HEARTBEAT_INTERVAL,	TimeUnit.MILLISECONDS);
-					} else {
-						log.debugf("Notification failed, not connected to modem. Scheduling send retry");
-						executor.schedule(this, connectionSchedule != null?connectionSchedule.getDelay(TimeUnit.MILLISECONDS) + 2000 : RECONNECT_INTERVAL,	TimeUnit.MILLISECONDS);
-					}
-				} else {
-					
-					if (modem.isConnected()) {
-						log.debugf("Send notification failed. Not connected to modem.");
-						notificationContext.notificationFailed(new LocalizedString("chi_sms.failed.notConnected"));
-					} else {
-						log.debugf("Send notification failed. Modem not connected to GSM network.");
-						notificationContext.notificationFailed(new LocalizedString("chi_sms.failed.noNetwork"));
-					}
+				start();
+				log.debugf("Notification failed, not connected to modem.");
+				retryOrFail(FailureClass.LINK_DOWN, new LocalizedString("chi_sms.failed.notConnected"), getNextScheduleDelay(false));
+			}
+		}
+		
+		/**
+		 * Start a send attempt. On the first attempt the message becomes final.
+		 */
+		private void start() {
+			if (retries == 0 && failovers == 0 && notificationContext != null) {
+				// The message is final now, later notifications for this number start a new message
+				coalescing.remove(phoneNumber, this);
+				holdSchedule = null;
+				
+				List<AlarmEvent> events = new ArrayList<AlarmEvent>();
+				for (NotificationContext context : contexts) {
+					events.addAll(context.getAlarmEvents());
 				}
+				
+				// Register the notification for acknowledgment (if two-way mode is enabled). The journal keeps the
+				// message without ack code, the ack codes do not survive a restart.
+				if (settings.isTwoWayEnabled()) {
+					text = ackHandler.registerEvents(notificationContext.getUser().getPath(), events, phoneNumber, text);
+					// The ack code may change the encoding, the plan is made again when the pdus are generated
+					plan = null;
+				}
+			}
+			
+			retries ++;
+		}
+		
+		/**
+		 * Schedule a retry if the retry budget of the given failure class is not used up, otherwise the notification
+		 * fails.
+		 * 
+		 * @param minDelay
+		 * 	The minimum delay (milliseconds) before the retry
+		 */
+		private void retryOrFail(FailureClass failure, LocalizedString reason, long minDelay) {
+			int retry = ++failures[failure.ordinal()];
+			if (retry > failure.budget) {
+				log.debugf("Send notification failed (%s): %s", failure, reason);
+				failed(reason);
+				return;
 			}
+			long delay = Math.max(minDelay, RetryPolicy.getDelay(failure, retry));
+			log.debugf("Scheduling send retry %d of %d (%s) in %d ms.", retry, failure.budget, failure, delay);
+			retry(delay);
 		}
 		
 		public boolean init() {
@@ -613,11 +1307,6 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 					notificationContext.notificationFailed(new LocalizedString("chi_sms.failed.noMessage"));
 					throw new Exception("Notification failed. No message to send.");
 				}
-				
-				// Register the notification for acknowledgment (if two-way mode is enabled)
-				if (settings.isTwoWayEnabled()) {
-					message = ackHandler.registerEvent(notificationContext, phoneNumber, message);
-				}
 					
 				return true;
 			} catch (Exception e) {
@@ -628,37 +1317,69 @@ public class SmsNotification implements AlarmNotificationProfile, ModemEventHand
 		}
 		
 		/**
-		 * Send the notification
+		 * Register the notification as handed to the given modem.
 		 * 
 		 * @return
-		 * 	<code>true</code> when the notification was send. If the notification was not send, the field error will contain a message.
+		 * 	The start time to pass to {@link #sendCompleted(Member, long, OutboundMessage, Throwable)}
 		 */
-		public boolean send() {
-			String userPath = notificationContext.getUser().getPath().toString();
-			log.debug("sendNotification starting for user: " + userPath);
+		private long sendStarted(Member member) {
+			log.debug("sendNotification starting for user: " + getUserPath());
 			
-			try {		        
-				// Send the message					
-				if (log.isTraceEnabled()) {
-					log.tracef("Sending notification to %s. Text: %s", phoneNumber, message);
-				} else {
-					log.debugf("Sending notification to %s", phoneNumber);
-				}
-
-				OutboundMessage msg = new OutboundMessage(phoneNumber, message);	
-				modem.sendMessage(msg);
+			long now = System.currentTimeMillis();
+			if (log.isTraceEnabled()) {
+				log.tracef("Sending notification to %s via %s after %d ms in queue (priority %s). Text: %s", phoneNumber, member.name, now - queuedAt, priority, text);
+			} else {
+				log.debugf("Sending notification to %s via %s after %d ms in queue (priority %s)", phoneNumber, member.name, now - queuedAt, priority);
+			}
+			if (now > deadline) {
+				log.warnf("Notification to %s is sent %d ms after its deadline.", phoneNumber, now - deadline);
+			}
+			return member.sendStarted();
+		}
+		
+		private void sendCompleted(Member member, long startTime, OutboundMessage msg, Throwable t) {
+			member.sendCompleted(startTime, msg != null ? msg.getPartCount() : 1, t == null);
+			updateRateStatus(member);
+			try {
+				evalSendResult(member, msg, t);
+			} finally {
+				// The modem can take the next message
+				dispatch();
+			}
+		}
+		
+		private void evalSendResult(Member member, OutboundMessage msg, Throwable t) {
+			if (t == null) {
 				log.debugf("Message sent successfully. Ref Nr.: %d", msg.getMsgRef());
-				return true;
-			} catch (ModemException e) {
-				error = e.getLocalizedString();
-			} catch (IOException e) {
+				done();
+				return;
+			}
+			
+			if (stopping) {
+				// The send was aborted because the profile is shut down
+				stop();
+				return;
+			}
+			
+			Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+			if (cause instanceof ModemException) {
+				error = ((ModemException) cause).getLocalizedString();
+			} else if (cause instanceof IOException) {
 				error = new LocalizedString("chi_sms.failed.IOException");
-			} catch (Exception e) {
+			} else {
 				error = new LocalizedString("chi_sms.failed.Exception");
-				log.error(e.getMessage());
+				log.error(cause.getMessage());
 			}
 			
-			return false;
+			if (!member.driver.isConnected() && failovers < bank.size()) {
+				// The modem dropped. Move the notification to another modem, this does not count as retry.
+				log.debugf("Modem %s disconnected while sending, moving notification to another modem.", member.name);
+				failovers++;
+				retries--;
+				run();
+			} else {
+				retryOrFail(RetryPolicy.classify(cause), error, 0);
+			}
 		}
 		
 	}
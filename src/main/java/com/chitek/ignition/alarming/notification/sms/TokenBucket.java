@@ -0,0 +1,101 @@
+package com.chitek.ignition.alarming.notification.sms;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of outbound messages of a modem and its SIM card.<br />
+ * The bucket holds up to <code>burst</code> tokens and is refilled at the sustained rate. Every sent pdu takes one
+ * token. A message may take more tokens than available (a multi-part message is charged when its part count is
+ * known), the following messages then wait until the debt is repaid.
+ */
+class TokenBucket {
+
+	private final double capacity;
+	/** Refill rate in tokens per nanosecond, 0 if the rate is not limited */
+	private final double rate;
+
+	private double tokens;
+	private long lastRefill;
+	/** Total time (nanoseconds) the bucket held less than one token */
+	private long throttledTime;
+
+	/**
+	 * @param sustained
+	 * 	The sustained rate in messages per minute. 0 disables the limit.
+	 * @param burst
+	 * 	The number of messages that may be sent at once.
+	 */
+	TokenBucket(int sustained, int burst) {
+		this.capacity = Math.max(1, burst);
+		this.rate = sustained > 0 ? sustained / (double) TimeUnit.MINUTES.toNanos(1) : 0;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	boolean isLimited() {
+		return rate > 0;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if a message can be sent now.
+	 */
+	synchronized boolean hasToken() {
+		refill();
+		return !isLimited() || tokens >= 1;
+	}
+
+	/**
+	 * Take tokens for sent pdus.
+	 */
+	synchronized void consume(int count) {
+		if (isLimited()) {
+			refill();
+			tokens -= count;
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The time (milliseconds) until a message can be sent, 0 if a token is available.
+	 */
+	synchronized long getWaitTime() {
+		refill();
+		if (!isLimited() || tokens >= 1) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil((1 - tokens) / rate)) + 1;
+	}
+
+	/**
+	 * @return
+	 * 	The number of available tokens. Negative if the bucket is in debt.
+	 */
+	synchronized double getTokens() {
+		refill();
+		return isLimited() ? tokens : capacity;
+	}
+
+	/**
+	 * @return
+	 * 	The total time (milliseconds) messages had to wait for a token.
+	 */
+	synchronized long getThrottledTime() {
+		refill();
+		return TimeUnit.NANOSECONDS.toMillis(throttledTime);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		long elapsed = now - lastRefill;
+		lastRefill = now;
+		if (!isLimited() || elapsed <= 0) {
+			return;
+		}
+		if (tokens < 1) {
+			// Time until the first token became available again
+			throttledTime += Math.min(elapsed, (long) Math.ceil((1 - tokens) / rate));
+		}
+		tokens = Math.min(capacity, tokens + elapsed * rate);
+	}
+}
@@ -2,7 +2,10 @@ package com.chitek.ignition.alarming.notification.sms.modem;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.ajwcc.pduUtils.gsm3040.PduUtils;
 
 public class CommandHandler {
 
@@ -38,7 +41,14 @@ public class CommandHandler {
 	}
 	
 	public String getOperator() throws IOException {
-		ModemResponse response = driver.sendCommand("AT+COPS?");
+		return driver.await(getOperatorAsync());
+	}
+	
+	public CompletableFuture<String> getOperatorAsync() {
+		return driver.sendCommandAsync("AT+COPS?").thenApply(response -> evalOperator(response));
+	}
+	
+	private String evalOperator(ModemResponse response) {
 		if (!response.isOk() || !response.getResponse().startsWith("+COPS:"))
 			return "?";
 		
@@ -52,14 +62,20 @@ public class CommandHandler {
 	}
 	
 	public int getNetworkRegistration() throws IOException {
-		ModemResponse response = driver.sendCommand("AT+CREG?");
+		return driver.await(getNetworkRegistrationAsync());
+	}
+	
+	public CompletableFuture<Integer> getNetworkRegistrationAsync() {
+		return driver.sendCommandAsync("AT+CREG?").thenApply(response -> evalNetworkRegistration(response));
+	}
+	
+	private int evalNetworkRegistration(ModemResponse response) {
 		if (!response.isOk() || !response.getResponse().startsWith("+CREG:")) {
 			driver.getLogger().warnf("Received invalid repsonse for +CREG?: %s", response.getResponse());
 			return 0;
 		}
-		Matcher m = ResponsePattern.CREG_RESPONSE.getPattern().matcher(response.getResponse());
-		if (m.matches()) {
-			int reg = Integer.parseInt(m.group(2));
+		if (response.getPattern() == ResponsePattern.CREG_RESPONSE) {
+			int reg = response.getRegistrationStatus();
 			driver.getLogger().tracef("Evaluated network registration: %d", reg);
 			// 1 - Home network, 5 - Roaming
 			return reg;
@@ -74,14 +90,20 @@ public class CommandHandler {
 	}
 	
 	public int getSignalLevel() throws IOException {
-		ModemResponse response = driver.sendCommand("AT+CSQ");
+		return driver.await(getSignalLevelAsync());
+	}
+	
+	public CompletableFuture<Integer> getSignalLevelAsync() {
+		return driver.sendCommandAsync("AT+CSQ").thenApply(response -> evalSignalLevel(response));
+	}
+	
+	private int evalSignalLevel(ModemResponse response) {
 		if (!response.isOk() || !response.getResponse().startsWith("+CSQ:")) {
 			driver.getLogger().debugf("Received invalid +CSQ response: %s", response.getResponse());
 			return 0;
 		}
-		Matcher m = ResponsePattern.CSQ_RESPONSE.getPattern().matcher(response.getResponse());
-		if (m.matches()) {
-			int level = Integer.parseInt(m.group(1));
+		if (response.getPattern() == ResponsePattern.CSQ_RESPONSE) {
+			int level = response.getSignalQuality();
 			return (-113 + 2 * level);
 		} else {
 			driver.getLogger().debugf("Received invalid +CSQ response: %s", response.getResponse());
@@ -90,16 +112,17 @@ public class CommandHandler {
 	}
 	
 	/**
-	 * Acknowledge an unsolicited response
+	 * Acknowledge an unsolicited response. The acknowledgement is sent before any other queued command, as the
+	 * modem expects it within a short time.
 	 * @return
 	 */
 	public boolean sendAcknowledge() throws IOException{
-		ModemResponse response = driver.sendCommand("AT+CNMA");
+		ModemResponse response = driver.await(driver.sendUrgentCommandAsync("AT+CNMA"));
 		if (response.isOk()) {
 			return true;
 		} else {
 			// Modem reported an error, try to re-enable notification
-			driver.getLogger().errorf("Unsolicited response acknowledgment failed. Modem reponse: %s", response.getErrorMessage());
+			driver.getLogger().errorf("Unsolicited response acknowledgment failed. Modem reponse: %s", ModemException.getErrorMessage(response));
 			driver.getLogger().debugf("Trying to reenable notifications");
 			setIndications();
 			return false;
@@ -118,20 +141,123 @@ public class CommandHandler {
 	 * 	The message id
 	 */
 	public int sendMessage(String pdu, int pduSize) throws IOException, ModemException {
-		ModemResponse response = driver.sendCommandWithPdu(String.format("AT+CMGS=%d", pduSize), pdu);
+		return evalSendMessage(driver.sendCommandWithPdu(String.format("AT+CMGS=%d", pduSize), pdu));
+	}
+	
+	/**
+	 * Queue a SMS
+	 * 
+	 * @param pdu
+	 * 	The pdu to send as a String
+	 * @param pduSize
+	 * 	Size of message in octects, excluding SMSC data.
+	 * @return
+	 * 	A future that is completed with the message id, or exceptionally with a {@link ModemException}.
+	 */
+	public CompletableFuture<Integer> sendMessageAsync(String pdu, int pduSize) {
+		return driver.sendCommandWithPduAsync(String.format("AT+CMGS=%d", pduSize), pdu).thenApply(response -> {
+			try {
+				return evalSendMessage(response);
+			} catch (ModemException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+	
+	private int evalSendMessage(ModemResponse response) throws ModemException {
 		if (!response.isOk()) {
-			throw new ModemException("chi_sms.ModemException.smsError", response.getErrorMessage());
+			throw new ModemException(response.getError(), "chi_sms.ModemException.smsError", ModemException.getErrorMessage(response));
 		}
-		Matcher m = ResponsePattern.CMGS_RESPONSE.getPattern().matcher(response.getResponse());
-		if (m.matches()) {
-			driver.getLogger().debugf("Received +CMGS response Ref: %d - %s", Integer.parseInt(m.group(1)), response.getDebugString());
-			return Integer.parseInt(m.group(1));
+		if (response.getPattern() == ResponsePattern.CMGS_RESPONSE) {
+			driver.getLogger().debugf("Received +CMGS response Ref: %d - %s", response.getMessageReference(), response.getDebugString());
+			return response.getMessageReference();
 		} else {
 			driver.getLogger().errorf("Received invalid +CMGS response: %s", response.getDebugString());
 			return 0;
 		}
 	}
 	
+	/**
+	 * Check if the modem supports writing messages to its storage and sending them from there (AT+CMGW, AT+CMSS).
+	 * 
+	 * @return
+	 * 	<code>true</code> if both commands are supported.
+	 */
+	public boolean isStorageSendSupported() throws IOException {
+		ModemResponse response = driver.sendCommand("AT+CMGW=?");
+		if (response.isOk()) {
+			response = driver.sendCommand("AT+CMSS=?");
+		}
+		if (!response.isOk()) {
+			driver.getLogger().debugf("Sending from storage is not supported: %s", response.getDebugString());
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Write a SMS to the modem storage
+	 * 
+	 * @param pdu
+	 * 	The pdu to write as a String
+	 * @param pduSize
+	 * 	Size of message in octects, excluding SMSC data.
+	 * @return
+	 * 	A future that is completed with the storage index, or exceptionally with a {@link ModemException}.
+	 */
+	public CompletableFuture<Integer> writeMessageAsync(String pdu, int pduSize) {
+		return driver.sendCommandWithPduAsync(String.format("AT+CMGW=%d", pduSize), pdu).thenApply(response -> {
+			if (response.isOk() && response.getPattern() == ResponsePattern.CMGW_RESPONSE) {
+				driver.getLogger().debugf("Received +CMGW response Index: %d", response.getStorageIndex());
+				return response.getStorageIndex();
+			}
+			if (response.isOk()) {
+				driver.getLogger().errorf("Received invalid +CMGW response: %s", response.getDebugString());
+			}
+			throw new CompletionException(new ModemException(response.getError(), "chi_sms.ModemException.smsError", ModemException.getErrorMessage(response)));
+		});
+	}
+	
+	/**
+	 * Send a SMS from the modem storage to the given destination. The destination address in the stored pdu is
+	 * replaced.
+	 * 
+	 * @param index
+	 * 	The storage index returned by {@link #writeMessageAsync(String, int)}
+	 * @param destination
+	 * 	The destination address
+	 * @return
+	 * 	A future that is completed with the message id, or exceptionally with a {@link ModemException}.
+	 */
+	public CompletableFuture<Integer> sendStoredMessageAsync(int index, String destination) {
+		int type = PduUtils.getAddressTypeFor(destination);
+		String address = destination.startsWith("+") ? destination.substring(1) : destination;
+		String command = String.format("AT+CMSS=%d,\"%s\",%d", index, address, type);
+		return driver.sendCommandAsync(command, getOutboundSendTimeout()).thenApply(response -> {
+			if (!response.isOk()) {
+				throw new CompletionException(new ModemException(response.getError(), "chi_sms.ModemException.smsError", ModemException.getErrorMessage(response)));
+			}
+			if (response.getPattern() == ResponsePattern.CMSS_RESPONSE) {
+				driver.getLogger().debugf("Received +CMSS response Ref: %d", response.getMessageReference());
+				return response.getMessageReference();
+			}
+			driver.getLogger().errorf("Received invalid +CMSS response: %s", response.getDebugString());
+			return 0;
+		});
+	}
+	
+	/**
+	 * Delete a message from the modem storage.
+	 * 
+	 * @param index
+	 * 	The storage index
+	 * @return
+	 * 	A future that is completed with <code>true</code> if the message was deleted.
+	 */
+	public CompletableFuture<Boolean> deleteMessageAsync(int index) {
+		return driver.sendCommandAsync(String.format("AT+CMGD=%d", index)).thenApply(response -> response.isOk());
+	}
+	
 	public boolean setIndications() throws IOException {
 		// Ask modem for supported indication modes
 		ModemResponse response;
@@ -141,14 +267,14 @@ public class CommandHandler {
 			driver.getLogger().errorf("Error while querying CNMI cababilities from modem: %s", response.getResponse());
 			return false;
 		}
-		Matcher m = ResponsePattern.CNMI_RESPONSE.getPattern().matcher(response.getResponse());
-		if (m.matches() && m.groupCount()==5) {
+		if (response.getPattern() == ResponsePattern.CNMI_RESPONSE) {
+			String[] ranges = response.getIndicationRanges();
 			// Mode
 			// 0: buffer in TA;
 			// 1: discard indication and reject new SMs when TE-TA link is reserved; otherwise forward directly;
 			// 2: buffer new Sms when TE-TA link is reserved and flush them to TE after reservation; otherwise forward directly to the TE;
 			// 3: forward directly to TE
-			List<Integer> modes = GSMModemUtil.ExpandRangeResponse(m.group(1));
+			List<Integer> modes = GSMModemUtil.ExpandRangeResponse(ranges[0]);
 			int mode = 0;
 			if (modes.contains(3)) {
 				mode = 3;
@@ -164,12 +290,12 @@ public class CommandHandler {
 			// 1: +CMTI: <mem>,<index> routed to TE;
 			// 2: for all SMS_DELIVERs except class 2: +CMT: .... routed to TE; class 2 is indicated as in <mt>=1;
 			// 3: Class 3: as in <mt>=2 other classes: As in <mt>=1;
-			List<Integer> supported_mt = GSMModemUtil.ExpandRangeResponse(m.group(2));
+			List<Integer> supported_mt = GSMModemUtil.ExpandRangeResponse(ranges[1]);
 			int mt = 0;
 			if (supported_mt.contains(2)) {
 				mt = 2;
 			} else {
-				driver.getLogger().warnf("Modem does not support direct new message indications. (mt=%s)", m.group(2));
+				driver.getLogger().warnf("Modem does not support direct new message indications. (mt=%s)", ranges[1]);
 				return false;
 			}
 			
@@ -180,7 +306,7 @@ public class CommandHandler {
 			// 0: No SMS-STATUS-REPORT are routed to TE;
 			// 1: SMS-STATUS-REPORTs are routed to TE, using +CDS: ...
 			// 2: SMS-STATUS-REPORTs is stored in memory and indicated with +CDSI: <mem>,<index>
-//			List<Integer> supported_ds = GSMModemUtil.ExpandRangeResponse(m.group(4));
+//			List<Integer> supported_ds = GSMModemUtil.ExpandRangeResponse(ranges[3]);
 			// We are not interested in status reports
 			int ds = 0;
 //			if (supported_ds.contains(1)) {
@@ -188,7 +314,7 @@ public class CommandHandler {
 //			} else if (supported_ds.contains(2)) {
 //				ds = 2;
 //			} else {
-//				driver.getLogger().warnf("Modem does not support status report indications. (ds=%s)", m.group(4));
+//				driver.getLogger().warnf("Modem does not support status report indications. (ds=%s)", ranges[3]);
 //				return false;
 //			}
 			
@@ -210,6 +336,45 @@ public class CommandHandler {
 		}
 	}
 	
+	/**
+	 * Check if the modem supports keeping the relay protocol link open between messages (AT+CMMS=2).
+	 * 
+	 * @return
+	 * 	<code>true</code> if mode 2 is supported.
+	 */
+	public boolean isMoreMessagesSupported() throws IOException {
+		ModemResponse response = driver.sendCommand("AT+CMMS=?");
+		if (!response.isOk()) {
+			driver.getLogger().debugf("AT+CMMS is not supported: %s", response.getDebugString());
+			return false;
+		}
+		String text = response.getResponse();
+		int start = text.indexOf("(");
+		int end = text.indexOf(")", start);
+		if (!text.startsWith("+CMMS:") || start < 0 || end < 0) {
+			driver.getLogger().debugf("Unexpected response to AT+CMMS=?: %s", response.getDebugString());
+			return false;
+		}
+		try {
+			return GSMModemUtil.ExpandRangeResponse(text.substring(start + 1, end)).contains(2);
+		} catch (NumberFormatException e) {
+			driver.getLogger().debugf("Unexpected response to AT+CMMS=?: %s", response.getDebugString());
+			return false;
+		}
+	}
+	
+	/**
+	 * Keep the relay protocol link open between messages.
+	 * 
+	 * @param enable
+	 * 	<code>true</code> to keep the link open (mode 2), <code>false</code> to close the link after each message.
+	 * @return
+	 * 	A future that is completed with <code>true</code> if the modem accepted the command.
+	 */
+	public CompletableFuture<Boolean> setMoreMessagesAsync(boolean enable) {
+		return driver.sendCommandAsync(enable ? "AT+CMMS=2" : "AT+CMMS=0").thenApply(response -> response.isOk());
+	}
+	
 	public boolean setPduProtocol() throws IOException {
 		return driver.sendCommand("AT+CMGF=0").isOk();
 	}
@@ -0,0 +1,330 @@
+package com.chitek.ignition.alarming.notification.sms.modem;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.inductiveautomation.ignition.common.util.LoggerEx;
+
+/**
+ * Queues AT commands and correlates every final result code with the command it belongs to.<br />
+ * Only one command is in flight at a time. Callers get a {@link CompletableFuture} that is completed when the response
+ * arrives, or exceptionally with a {@link SocketTimeoutException} when the timeout elapses. The futures are completed
+ * on the completion executor, not on the selector or timer thread, so continuations of the caller may block.<br />
+ * A command that timed out stays in flight in a draining state: the next final result code is treated as its late
+ * reply and discarded, so it can't be taken as the answer to the following command. If no reply arrives within
+ * another timeout period, the command is dropped and the queue moves on.
+ */
+class CommandPipeline {
+
+	private static final byte ESC = 27;
+	private static final byte CTRL_Z = 26;
+
+	private enum State {
+		/** Waiting for the final result code */
+		WAIT_RESPONSE,
+		/** Waiting for the '>' prompt before the pdu is sent */
+		WAIT_PROMPT,
+		/** Timed out, the next final result code is discarded */
+		DRAINING
+	}
+
+	private final ModemDriver driver;
+	private final LoggerEx log;
+
+	private final Object lock = new Object();
+	private final Deque<Command> queue = new ArrayDeque<Command>();
+	private Command current;
+	private ScheduledExecutorService timer;
+	private ScheduledFuture<?> timeoutFuture;
+	/** Completes the futures, futures are completed by the calling thread if <code>null</code> */
+	private volatile Executor completions;
+
+	CommandPipeline(ModemDriver driver, LoggerEx log) {
+		this.driver = driver;
+		this.log = log;
+	}
+
+	/**
+	 * Start accepting commands.
+	 *
+	 * @param timer
+	 * 	The executor used to schedule command timeouts.
+	 * @param completions
+	 * 	The executor used to complete the futures of the commands.
+	 */
+	void start(ScheduledExecutorService timer, Executor completions) {
+		synchronized (lock) {
+			this.timer = timer;
+			this.completions = completions;
+		}
+	}
+
+	/**
+	 * Stop the pipeline. All queued commands, and the command in flight, are completed with a
+	 * {@link ModemResponse#NOT_CONNECTED} response.
+	 */
+	void stop() {
+		abort(ModemResponse.NOT_CONNECTED);
+	}
+
+	private void abort(int error) {
+		Deque<Command> pending = new ArrayDeque<Command>();
+		synchronized (lock) {
+			timer = null;
+			cancelTimeout();
+			if (current != null) {
+				pending.add(current);
+				current = null;
+			}
+			pending.addAll(queue);
+			queue.clear();
+		}
+		for (Command command : pending) {
+			complete(command, new ModemResponse("", error), null);
+		}
+	}
+
+	/**
+	 * Queue a command.
+	 *
+	 * @param command
+	 * 	The command without the trailing &lt;CR&gt;
+	 * @param pdu
+	 * 	The pdu to send when the modem prompts for input, or <code>null</code>
+	 * @param timeout
+	 * 	Timeout in milliseconds for the final result code. For pdu commands this is the timeout after the pdu was sent.
+	 * @param urgent
+	 * 	If <code>true</code>, the command is put in front of all queued commands. This does not affect the command in
+	 * flight.
+	 * @return
+	 * 	A future that is completed with the modem response.
+	 */
+	CompletableFuture<ModemResponse> submit(String command, String pdu, long timeout, boolean urgent) {
+		Command cmd = new Command(command, pdu, timeout);
+		IOException writeError;
+		synchronized (lock) {
+			if (timer == null) {
+				return CompletableFuture.completedFuture(new ModemResponse("", ModemResponse.NOT_CONNECTED));
+			}
+			if (urgent) {
+				queue.addFirst(cmd);
+			} else {
+				queue.addLast(cmd);
+			}
+			writeError = dispatchNext();
+		}
+		handleWriteError(writeError);
+		return cmd.future;
+	}
+
+	/**
+	 * Called by the reader thread with every solicited response.
+	 */
+	void responseReceived(ModemResponse response) {
+		Command completed = null;
+		IOException writeError = null;
+
+		synchronized (lock) {
+			Command cmd = current;
+			if (cmd == null) {
+				log.debugf("Discarding response without pending command: %s", response.getDebugString());
+				return;
+			}
+
+			boolean prompt = response.getResponse().equals(">");
+			if (cmd.state == State.DRAINING) {
+				if (prompt) {
+					// The modem still waits for the pdu of a timed out command
+					writeError = cancelPrompt();
+				} else {
+					log.debugf("Discarding late response to '%s': %s", cmd.command, response.getDebugString());
+					current = null;
+					cancelTimeout();
+					writeError = dispatchNext();
+				}
+			} else if (prompt) {
+				if (cmd.state == State.WAIT_PROMPT) {
+					log.debugf("> received. Sending pdu.");
+					writeError = sendPdu(cmd);
+				} else {
+					log.debugf("Ignoring unexpected '>' while waiting for response to '%s'", cmd.command);
+				}
+			} else {
+				current = null;
+				cancelTimeout();
+				completed = cmd;
+				writeError = dispatchNext();
+			}
+		}
+
+		if (completed != null) {
+			complete(completed, driver.checkResponse(response), null);
+		}
+		handleWriteError(writeError);
+	}
+
+	private void timeout(Command cmd) {
+		IOException writeError = null;
+		boolean expired = false;
+
+		synchronized (lock) {
+			if (cmd != current) {
+				// Completed in the meantime
+				return;
+			}
+			if (cmd.state == State.DRAINING) {
+				log.debugf("No late response to '%s' received.", cmd.command);
+				current = null;
+				writeError = dispatchNext();
+			} else {
+				if (cmd.state == State.WAIT_PROMPT) {
+					writeError = cancelPrompt();
+				}
+				cmd.state = State.DRAINING;
+				scheduleTimeout(cmd, cmd.timeout);
+				expired = true;
+			}
+		}
+
+		if (expired) {
+			complete(cmd, null, new SocketTimeoutException("Timeout while waiting for modem response"));
+		}
+		handleWriteError(writeError);
+	}
+
+	/**
+	 * Complete the future of a command on the completion executor. This must be called without holding the lock.
+	 */
+	private void complete(final Command cmd, final ModemResponse response, final Throwable error) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (error != null) {
+					cmd.future.completeExceptionally(error);
+				} else {
+					cmd.future.complete(response);
+				}
+			}
+		};
+		Executor executor = completions;
+		if (executor == null) {
+			task.run();
+			return;
+		}
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// The event loop has been stopped
+			task.run();
+		}
+	}
+
+	/**
+	 * Send the next queued command if no command is in flight. The caller has to hold the lock.
+	 *
+	 * @return
+	 * 	The exception if the command could not be written, <code>null</code> otherwise.
+	 */
+	private IOException dispatchNext() {
+		if (current != null || timer == null) {
+			return null;
+		}
+		Command cmd = queue.pollFirst();
+		if (cmd == null) {
+			return null;
+		}
+		current = cmd;
+		cmd.state = cmd.pdu != null ? State.WAIT_PROMPT : State.WAIT_RESPONSE;
+		// The timeout of pdu commands starts when the pdu is sent
+		scheduleTimeout(cmd, cmd.pdu != null ? driver.handler.getReadTimeout() : cmd.timeout);
+		try {
+			driver.write(cmd.command + "\r");
+			return null;
+		} catch (IOException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Send the pdu after the modem prompted for input. The caller has to hold the lock.
+	 */
+	private IOException sendPdu(Command cmd) {
+		// The pdu is plain ASCII hex, the characters are copied to the output as they are
+		int length = cmd.pdu.length();
+		byte[] data = new byte[length + 1];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) cmd.pdu.charAt(i);
+		}
+		data[length] = CTRL_Z;
+		cmd.state = State.WAIT_RESPONSE;
+		scheduleTimeout(cmd, cmd.timeout);
+		try {
+			driver.write(data);
+			return null;
+		} catch (IOException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Leave the input mode of the modem. The caller has to hold the lock.
+	 */
+	private IOException cancelPrompt() {
+		try {
+			driver.write(new byte[] { ESC });
+			return null;
+		} catch (IOException e) {
+			return e;
+		}
+	}
+
+	private void scheduleTimeout(final Command cmd, long timeout) {
+		cancelTimeout();
+		timeoutFuture = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				timeout(cmd);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void cancelTimeout() {
+		if (timeoutFuture != null) {
+			timeoutFuture.cancel(false);
+			timeoutFuture = null;
+		}
+	}
+
+	/**
+	 * A failed write closes the connection. All pending commands are completed with an
+	 * {@link ModemResponse#ERR_IO_EXCEPTION} response. This must be called without holding the lock.
+	 */
+	private void handleWriteError(IOException e) {
+		if (e != null) {
+			abort(ModemResponse.ERR_IO_EXCEPTION);
+			driver.error("IOException while writing to modem: %s", e.getMessage());
+		}
+	}
+
+	private static class Command {
+		final String command;
+		final String pdu;
+		final long timeout;
+		final CompletableFuture<ModemResponse> future = new CompletableFuture<ModemResponse>();
+		State state;
+
+		Command(String command, String pdu, long timeout) {
+			this.command = command;
+			this.pdu = pdu;
+			this.timeout = timeout;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.chitek.ignition.alarming.notification.sms.modem;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ajwcc.pduUtils.gsm3040.DeliverPduView;
+
+import com.inductiveautomation.ignition.common.util.LoggerEx;
+
+/**
+ * Collects the parts of inbound multi-part messages until the message is complete.<br />
+ * Parts are grouped by the originating address and the concat information element (8 or 16 bit reference and number
+ * of parts). The buffer holds at most <code>maxParts</code> parts, incomplete messages are dropped when the buffer is
+ * full or when their first part is older than the timeout. The parts of a message with more than <code>maxParts</code>
+ * parts are handed on one by one, as the message could never be completed.
+ */
+class ConcatReassembler {
+
+	private final LoggerEx log;
+	private final int maxParts;
+	private final long timeout;
+
+	/** Incomplete messages in order of their first part, so the oldest is evicted first */
+	private final Map<String, Entry> pending = new LinkedHashMap<String, Entry>();
+	private int bufferedParts;
+
+	/**
+	 * @param maxParts
+	 * 	The maximum number of parts of incomplete messages kept in the buffer.
+	 * @param timeout
+	 * 	The time (milliseconds) to wait for the missing parts of a message.
+	 */
+	ConcatReassembler(int maxParts, long timeout, LoggerEx log) {
+		this.maxParts = Math.max(1, maxParts);
+		this.timeout = timeout;
+		this.log = log;
+	}
+
+	/**
+	 * Add a received pdu.
+	 * 
+	 * @return
+	 * 	The parts of the message in order if the message is complete, <code>null</code> if parts are missing.
+	 */
+	synchronized List<DeliverPduView> add(DeliverPduView pdu) {
+		long now = System.currentTimeMillis();
+		evictExpired(now);
+		
+		if (!pdu.isConcatMessage()) {
+			return single(pdu);
+		}
+		int partCount = pdu.getMpMaxNo();
+		int seqNo = pdu.getMpSeqNo();
+		if (partCount <= 1 || seqNo < 1 || seqNo > partCount) {
+			// Invalid concat information - treat the part as a message of its own
+			return single(pdu);
+		}
+		
+		String key = pdu.getAddress() + "/" + pdu.getConcatIdentifier() + "/" + pdu.getMpRefNo() + "/" + partCount;
+		if (partCount > maxParts) {
+			// Logged once per message, the other parts are logged on debug level
+			if (seqNo == 1) {
+				log.warnf("Inbound message %s has %d parts, more than the buffer can hold (%d). The parts are handed on as separate messages.", key, partCount, maxParts);
+			} else {
+				log.debugf("Part %d of inbound message %s handed on as a separate message.", seqNo, key);
+			}
+			return single(pdu);
+		}
+		Entry entry = pending.get(key);
+		if (entry == null) {
+			entry = new Entry(partCount, now);
+			pending.put(key, entry);
+		}
+		if (entry.parts[seqNo - 1] != null) {
+			log.debugf("Duplicate part %d of inbound message %s ignored", seqNo, key);
+			return null;
+		}
+		entry.parts[seqNo - 1] = pdu;
+		entry.received++;
+		bufferedParts++;
+		
+		if (entry.received == partCount) {
+			pending.remove(key);
+			bufferedParts -= partCount;
+			List<DeliverPduView> result = new ArrayList<DeliverPduView>(partCount);
+			for (DeliverPduView part : entry.parts) {
+				result.add(part);
+			}
+			return result;
+		}
+		
+		evictOverflow();
+		return null;
+	}
+
+	/**
+	 * Drop the incomplete messages whose first part is older than the timeout. Expired messages are dropped by
+	 * {@link #add(DeliverPduView)} as well, this method releases them if no further pdu is received.
+	 */
+	synchronized void evictExpired() {
+		evictExpired(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return
+	 * 	The number of parts of incomplete messages in the buffer.
+	 */
+	synchronized int getBufferedParts() {
+		return bufferedParts;
+	}
+
+	synchronized void clear() {
+		pending.clear();
+		bufferedParts = 0;
+	}
+
+	private List<DeliverPduView> single(DeliverPduView pdu) {
+		List<DeliverPduView> result = new ArrayList<DeliverPduView>(1);
+		result.add(pdu);
+		return result;
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Map.Entry<String, Entry>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Entry> e = it.next();
+			if (now - e.getValue().firstReceived < timeout) {
+				// Later entries are younger
+				break;
+			}
+			log.warnf("Inbound message %s dropped, %d of %d parts received before the timeout.", e.getKey(), e.getValue().received, e.getValue().parts.length);
+			bufferedParts -= e.getValue().received;
+			it.remove();
+		}
+	}
+
+	private void evictOverflow() {
+		Iterator<Map.Entry<String, Entry>> it = pending.entrySet().iterator();
+		while (bufferedParts > maxParts && it.hasNext()) {
+			Map.Entry<String, Entry> e = it.next();
+			log.warnf("Inbound message %s dropped, %d of %d parts received when the buffer was full.", e.getKey(), e.getValue().received, e.getValue().parts.length);
+			bufferedParts -= e.getValue().received;
+			it.remove();
+		}
+	}
+
+	private static class Entry {
+		final DeliverPduView[] parts;
+		final long firstReceived;
+		int received;
+
+		Entry(int partCount, long firstReceived) {
+			this.parts = new DeliverPduView[partCount];
+			this.firstReceived = firstReceived;
+		}
+	}
+}
@@ -1,13 +1,26 @@
 package com.chitek.ignition.alarming.notification.sms.modem;
 
-import org.ajwcc.pduUtils.gsm3040.Pdu;
+import java.util.Collections;
+import java.util.List;
+
+import org.ajwcc.pduUtils.gsm3040.DeliverPduView;
 
 public class InboundMessage {
 	
-	private final Pdu pdu;
+	private final List<DeliverPduView> parts;
+	
+	public InboundMessage (DeliverPduView pdu) {
+		this(Collections.singletonList(pdu));
+	}
 	
-	public InboundMessage (Pdu pdu) {
-		this.pdu = pdu;
+	/**
+	 * Create a message from the parts of a multi-part message.
+	 * 
+	 * @param parts
+	 * 	All parts of the message in order
+	 */
+	public InboundMessage (List<DeliverPduView> parts) {
+		this.parts = parts;
 	}
 	
 	/**
@@ -16,14 +29,39 @@ public class InboundMessage {
 	 * @return
 	 */
 	public String getOriginatingAddress() {
-		return pdu.getAddress();
+		return parts.get(0).getAddress();
 	}
 	
 	public String getText() {
-		return pdu.getDecodedText();
+		if (parts.size() == 1) {
+			return parts.get(0).getDecodedText();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (DeliverPduView pdu : parts) {
+			String text = pdu.getDecodedText();
+			if (text != null) {
+				sb.append(text);
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return
+	 * 	The number of pdus the message was received in
+	 */
+	public int getPartCount() {
+		return parts.size();
 	}
 	
 	public String toString() {
-		return pdu.toString();
+		if (parts.size() == 1) {
+			return parts.get(0).toString();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (DeliverPduView pdu : parts) {
+			sb.append(pdu.toString());
+		}
+		return sb.toString();
 	}
 }
@@ -1,31 +1,35 @@
 package com.chitek.ignition.alarming.notification.sms.modem;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
 
-import org.ajwcc.pduUtils.gsm3040.Pdu;
-import org.ajwcc.pduUtils.gsm3040.PduGenerator;
+import org.ajwcc.pduUtils.gsm3040.DeliverPduView;
+import org.ajwcc.pduUtils.gsm3040.EncodingPlan;
 import org.ajwcc.pduUtils.gsm3040.PduParser;
-import org.ajwcc.pduUtils.gsm3040.SmsDeliveryPdu;
+import org.ajwcc.pduUtils.gsm3040.PduUtils;
+import org.ajwcc.pduUtils.gsm3040.SubmitPduEncoder;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.net.telnet.EchoOptionHandler;
-import org.apache.commons.net.telnet.InvalidTelnetOptionException;
-import org.apache.commons.net.telnet.SimpleOptionHandler;
-import org.apache.commons.net.telnet.SuppressGAOptionHandler;
-import org.apache.commons.net.telnet.TelnetClient;
-import org.apache.commons.net.telnet.TerminalTypeOptionHandler;
 
+import com.chitek.ignition.alarming.notification.sms.RetryPolicy;
 import com.chitek.ignition.alarming.notification.sms.settings.GsmSmsNotificationSettings;
 import com.chitek.ignition.alarming.notification.sms.settings.TelnetMode;
 import com.inductiveautomation.ignition.common.util.LoggerEx;
@@ -34,8 +38,7 @@ public class ModemDriver {
 
 	private final LoggerEx log;
 
-	private static final String READER_THREAD_NAME = "GsmModemReader[%s]";
-	private static final String NOTIFIER_THREAD_NAME = "GsmModemNotifier[%s]";
+	private static final byte[] LF = { 10 };
 	
 	// Settings
 	private final String settingsPin;
@@ -47,40 +50,62 @@ public class ModemDriver {
 	private final String profileName;
 
 	protected final CommandHandler handler;
-	private final PduGenerator pduGenerator;
-	private final PduParser pduParser;
+	private final ConcatReassembler reassembler;
 
-	// Telnet Client
-	private TelnetClient telnetClient;
-	private OutputStream os;
-	private TerminalTypeOptionHandler ttopt = new TerminalTypeOptionHandler("VT100", false, false, true, false);
-	private SimpleOptionHandler binaryopt = new SimpleOptionHandler(0, true, false, true, false);
-	private EchoOptionHandler echoopt = new EchoOptionHandler(true, false, true, false);
-	private SuppressGAOptionHandler gaopt = new SuppressGAOptionHandler(true, true, true, true);
+	// Telnet connection, served by the shared event loop
+	private ModemEventLoop loop;
+	private volatile TelnetChannel channel;
 	
 	private Reader reader;
 	private Notifier notifier;
+	private final CommandPipeline pipeline;
 
-	/** Lock used when a modem response is expected */
+	/** Lock used when the reader's input buffer is accessed */
 	private Lock readerLock = new ReentrantLock();
-	private Condition dataAvailable = readerLock.newCondition();
 
 	private volatile boolean isConnected;
 	private volatile ModemEventHandler modemEventHandler;
 
+	/** Burst mode - the radio link is kept open with AT+CMMS while messages are queued */
+	private final Object burstLock = new Object();
+	private volatile boolean burstSupported;
+	private boolean burstActive;
+	private int pendingMessages;
+
+	/** Fan-out - a text sent to several recipients is written to the modem storage once and sent with AT+CMSS */
+	private final Object fanOutLock = new Object();
+	private volatile boolean fanOutSupported;
+	private final Map<String, FanOut> openFanOuts = new HashMap<String, FanOut>();
+	
+	/** Characters sent for an AT+CMSS command with an international destination address */
+	private static final int CMSS_COMMAND_LENGTH = 32;
+	/** Characters sent for a command without pdu, and the equivalent of the round trip for the response */
+	private static final int COMMAND_OVERHEAD = 16;
+	/** Octets of a submit pdu besides the user data, with an international destination address */
+	private static final int PDU_HEADER_LENGTH = 15;
+	/** Octets of the user data header of a part of a concatenated message */
+	private static final int CONCAT_HEADER_LENGTH = 6;
+
 	public ModemDriver(GsmSmsNotificationSettings settings, String profileName, LoggerEx log) {
+		this(settings, settings.getHostAddress(), settings.getPort(), profileName, log);
+	}
+
+	/**
+	 * Create a driver for a modem at the given address. All other settings are taken from the profile settings.
+	 */
+	public ModemDriver(GsmSmsNotificationSettings settings, String hostAddress, int port, String profileName, LoggerEx log) {
 		this.log = log;
 		this.profileName = profileName;
 		this.settingsPin = settings.getSimPin();
 		this.settingsCsca = settings.getCsca();
 		this.settingsTelnetMode = settings.getTelnetMode();
-		this.settingsPort = settings.getPort();
-		this.settingsHostAddress = settings.getHostAddress();
+		this.settingsPort = port;
+		this.settingsHostAddress = hostAddress;
 		this.settingsTwoWayEnabled = settings.isTwoWayEnabled();
 
 		this.handler = new CommandHandler(this);
-		this.pduGenerator = new PduGenerator();
-		this.pduParser = new PduParser();
+		this.pipeline = new CommandPipeline(this, log);
+		this.reassembler = new ConcatReassembler(settings.getReassemblyMaxParts(), TimeUnit.SECONDS.toMillis(settings.getReassemblyTimeout()), log);
 	}
 
 	public void connect() throws ModemException, ConnectException, IOException {
@@ -117,7 +142,7 @@ public class ModemDriver {
 					break;
 				} else if (response.getError() > 0) {
 					log.debugf("Erroneous CPIN response: %s", response.getDebugString());
-					throw new ModemException("chi_sms.ModemException.cpinResponseError", response.getErrorMessage());
+					throw new ModemException("chi_sms.ModemException.cpinResponseError", ModemException.getErrorMessage(response));
 				}
 				log.warnf("Cannot understand SIMPIN response: %s, will wait for a while...", response.getDebugString());
 				handler.doWait();
@@ -131,6 +156,12 @@ public class ModemDriver {
 				throw new ModemException("chi_sms.ModemException.noPdu");
 			}
 
+			burstSupported = handler.isMoreMessagesSupported();
+			log.debugf("Burst mode (AT+CMMS) %s.", burstSupported ? "supported" : "not supported");
+			
+			fanOutSupported = handler.isStorageSendSupported();
+			log.debugf("Sending from storage (AT+CMGW/AT+CMSS) %s.", fanOutSupported ? "supported" : "not supported");
+
 			isConnected = true;
 		} catch (IOException e) {
 			disconnect();
@@ -154,91 +185,327 @@ public class ModemDriver {
 		return isConnected;
 	}
 	
-	public synchronized int getNetworkRegistration() throws IOException {
-		readerLock.lock();
-		try {
-			return handler.getNetworkRegistration();
-		} finally {
-			readerLock.unlock();
-		}
+	public int getNetworkRegistration() throws IOException {
+		return await(getNetworkRegistrationAsync());
 	}
 	
-	public synchronized String getOperator() throws IOException {
-		readerLock.lock();
-		try {
-			return handler.getOperator();
-		} finally {
-			readerLock.unlock();
-		}
+	public CompletableFuture<Integer> getNetworkRegistrationAsync() {
+		return handler.getNetworkRegistrationAsync();
+	}
+	
+	public String getOperator() throws IOException {
+		return await(getOperatorAsync());
+	}
+	
+	public CompletableFuture<String> getOperatorAsync() {
+		return handler.getOperatorAsync();
 	}
 
-	public synchronized int getSignalLevel() throws IOException {
-		readerLock.lock();
+	public int getSignalLevel() throws IOException {
+		return await(getSignalLevelAsync());
+	}
+	
+	public CompletableFuture<Integer> getSignalLevelAsync() {
+		return handler.getSignalLevelAsync();
+	}
+	
+	/**
+	 * Send the given Outbound Message and wait until all parts have been sent.
+	 * @param message
+	 * 	The message to send
+	 */
+	public boolean sendMessage(OutboundMessage message) throws IOException, ModemException{
 		try {
-			return handler.getSignalLevel();
-		} finally {
-			readerLock.unlock();
+			sendMessageAsync(message).get();
+		} catch (InterruptedException e) {
+			throw new SocketTimeoutException("Interrupted while waiting for modem response");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ModemException) {
+				throw (ModemException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
 		}
+		
+		return true;
 	}
-	
+
 	/**
-	 * Send the given Outbound Message
+	 * Queue the given Outbound Message. The parts of a multi-part message are sent one after another.<br />
+	 * If the text is currently written to the modem storage for other recipients, the message joins them and is sent
+	 * from the storage (see {@link FanOut}).
 	 * @param message
 	 * 	The message to send
+	 * @return
+	 * 	A future that is completed when the last part has been accepted by the modem, or exceptionally with a
+	 * {@link ModemException} or {@link IOException}.
 	 */
-	public synchronized boolean sendMessage(OutboundMessage message) throws IOException, ModemException{
+	public CompletableFuture<OutboundMessage> sendMessageAsync(final OutboundMessage message) {
+		CompletableFuture<OutboundMessage> result = null;
+		synchronized (fanOutLock) {
+			FanOut fanOut = openFanOuts.get(message.getText());
+			if (fanOut != null) {
+				result = fanOut.add(message);
+			}
+		}
 		
-		// Create a randon multi-part id
-		int mpRefNo = (int)(Math.random()*65535);
-		// Make the list of pdu's - More than one PDU is created for multi-part messages
-		List<String>pdus = pduGenerator.generatePduList(message.getPdu(settingsCsca), mpRefNo);
+		if (result != null) {
+			startBurst(1);
+		} else {
+			List<String> pdus = generatePdus(message);
+			startBurst(pdus.size());
+			result = sendPdus(message, pdus);
+		}
+		
+		return completed(result);
+	}
+	
+	/**
+	 * Queue several Outbound Messages at once.<br />
+	 * Messages with the same text are written to the modem storage once and sent to every recipient with AT+CMSS, if
+	 * this takes less time than sending them one by one (see {@link #isFanOutWorthwhile(List, int)}). All other
+	 * messages are sent as by {@link #sendMessageAsync(OutboundMessage)}.
+	 * @param messages
+	 * 	The messages to send
+	 * @return
+	 * 	The futures of the messages, in the same order.
+	 */
+	public List<CompletableFuture<OutboundMessage>> sendMessagesAsync(List<OutboundMessage> messages) {
+		Map<String, List<OutboundMessage>> byText = new LinkedHashMap<String, List<OutboundMessage>>();
+		for (OutboundMessage message : messages) {
+			List<OutboundMessage> recipients = byText.get(message.getText());
+			if (recipients == null) {
+				recipients = new ArrayList<OutboundMessage>();
+				byText.put(message.getText(), recipients);
+			}
+			recipients.add(message);
+		}
+		
+		Map<OutboundMessage, CompletableFuture<OutboundMessage>> results = new HashMap<OutboundMessage, CompletableFuture<OutboundMessage>>();
+		for (Map.Entry<String, List<OutboundMessage>> entry : byText.entrySet()) {
+			List<OutboundMessage> recipients = entry.getValue();
+			FanOut fanOut = null;
+			List<CompletableFuture<OutboundMessage>> stored = new ArrayList<CompletableFuture<OutboundMessage>>();
+			if (fanOutSupported && recipients.size() > 1 && isFanOutWorthwhile(generatePdus(recipients.get(0)), recipients.size())) {
+				synchronized (fanOutLock) {
+					if (!openFanOuts.containsKey(entry.getKey())) {
+						fanOut = new FanOut(entry.getKey());
+						openFanOuts.put(entry.getKey(), fanOut);
+						for (OutboundMessage message : recipients) {
+							stored.add(fanOut.add(message));
+						}
+					}
+				}
+			}
+			if (fanOut != null) {
+				for (int i = 0; i < recipients.size(); i++) {
+					startBurst(1);
+					results.put(recipients.get(i), completed(stored.get(i)));
+				}
+				fanOut.start();
+			} else {
+				for (OutboundMessage message : recipients) {
+					results.put(message, sendMessageAsync(message));
+				}
+			}
+		}
+		
+		List<CompletableFuture<OutboundMessage>> list = new ArrayList<CompletableFuture<OutboundMessage>>(messages.size());
+		for (OutboundMessage message : messages) {
+			list.add(results.get(message));
+		}
+		return list;
+	}
+	
+	/**
+	 * Estimate if sending a text from the storage takes less time than sending it to every recipient with AT+CMGS.
+	 * Both send the same number of messages to the network, so the characters sent to the modem are compared. A
+	 * fan-out adds AT+CMGW and AT+CMGD for every part.
+	 * 
+	 * @param pdus
+	 * 	The pdus of the text
+	 * @param recipients
+	 * 	The number of recipients
+	 */
+	private static boolean isFanOutWorthwhile(List<String> pdus, int recipients) {
+		int length = 0;
 		for (String pdu : pdus) {
-			// The pdu size must not include the length of the service center address
-			int pduSize = pdu.length() / 2;
-			if (settingsCsca.isEmpty()) {
-				// Reduce length if no service center address is set
-				pduSize--;
+			length += pdu.length();
+		}
+		return isFanOutWorthwhile(length, pdus.size(), recipients);
+	}
+	
+	/**
+	 * Estimate if sending a text with the given encoding from the storage takes less time than sending it to every
+	 * recipient, before the pdus are generated. The more recipients, the more a fan-out saves, so a text that is not
+	 * worth it for two recipients is never worth it.
+	 * 
+	 * @param plan
+	 * 	The encoding plan of the text
+	 * @param recipients
+	 * 	The number of recipients
+	 */
+	public static boolean isFanOutWorthwhile(EncodingPlan plan, int recipients) {
+		int parts = plan.getSegmentCount();
+		int userData = plan.isUcs2() ? plan.getLength() * 2 : PduUtils.getNumOctetsForSeptets(plan.getLength());
+		int header = PDU_HEADER_LENGTH + (parts > 1 ? CONCAT_HEADER_LENGTH : 0);
+		// Two hex characters per octet
+		return isFanOutWorthwhile(2 * (userData + parts * header), parts, recipients);
+	}
+	
+	private static boolean isFanOutWorthwhile(int pduLength, int parts, int recipients) {
+		int direct = pduLength + parts * COMMAND_OVERHEAD;
+		int stored = direct + parts * (recipients * CMSS_COMMAND_LENGTH + COMMAND_OVERHEAD);
+		return stored < recipients * direct;
+	}
+	
+	/**
+	 * Releases the burst mode when the given send operation has completed, and logs a failure.
+	 */
+	private CompletableFuture<OutboundMessage> completed(CompletableFuture<OutboundMessage> result) {
+		return result.handle((msg, t) -> {
+			endBurst();
+			if (t == null) {
+				return msg;
+			}
+			Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+			if (cause instanceof ModemException) {
+				log.errorf("Error sending message: %s", cause.getMessage());
 			} else {
-				int smscNumberLen = settingsCsca.length();
-				if (settingsCsca.charAt(0) == '+') smscNumberLen--;
-				if (smscNumberLen % 2 != 0) smscNumberLen++;
-				int smscLen = (2 + smscNumberLen) / 2;
-				pduSize = pduSize - smscLen - 1;
+				log.errorf("IOException while sending message: %s", cause.getMessage());
 			}
+			throw new CompletionException(cause);
+		});
+	}
+
+	/**
+	 * Generate the pdus of the given message ahead of time. May be called by any thread, so the encoding is not done
+	 * by the thread that passes the message to {@link #sendMessageAsync(OutboundMessage)}.
+	 */
+	public void preparePdus(OutboundMessage message) {
+		int mpRefNo = (int)(Math.random()*65535);
+		message.setPdus(SubmitPduEncoder.encodeToHex(message.getPdu(settingsCsca), mpRefNo));
+	}
+
+	/**
+	 * Make the list of pdu's - More than one PDU is created for multi-part messages. Prepared pdus are used as they
+	 * are.
+	 */
+	private List<String> generatePdus(OutboundMessage message) {
+		if (message.getPdus() != null) {
+			return message.getPdus();
+		}
+		// Create a randon multi-part id
+		int mpRefNo = (int)(Math.random()*65535);
+		return SubmitPduEncoder.encodeToHex(message.getPdu(settingsCsca), mpRefNo);
+	}
+	
+	/**
+	 * @return
+	 * 	The pdu size, which must not include the length of the service center address
+	 */
+	private int getPduSize(String pdu) {
+		int pduSize = pdu.length() / 2;
+		if (settingsCsca.isEmpty()) {
+			// Reduce length if no service center address is set
+			pduSize--;
+		} else {
+			int smscNumberLen = settingsCsca.length();
+			if (settingsCsca.charAt(0) == '+') smscNumberLen--;
+			if (smscNumberLen % 2 != 0) smscNumberLen++;
+			int smscLen = (2 + smscNumberLen) / 2;
+			pduSize = pduSize - smscLen - 1;
+		}
+		return pduSize;
+	}
+	
+	/**
+	 * Send the pdus of a message with AT+CMGS.
+	 */
+	private CompletableFuture<OutboundMessage> sendPdus(final OutboundMessage message, List<String> pdus) {
+		message.setPartCount(pdus.size());
+		CompletableFuture<Integer> result = CompletableFuture.completedFuture(0);
+		for (final String pdu : pdus) {
 			if (log.isTraceEnabled()) {
 				log.tracef("Sending PDU:\r%s" , new PduParser().parsePdu(pdu).toString());
 			}
 			
-			readerLock.lock();
-			try {
-				int msgRef = handler.sendMessage(pdu, pduSize);
-				message.setMsgRef(msgRef);
-			} catch (ModemException e) {
-				log.errorf("Error sending message: %s", e.getMessage());
-				throw e;
-			} catch (IOException e) {
-				log.errorf("IOException while sending message: %s", e.getMessage());
-				throw e;
-			} finally {
-				readerLock.unlock();
+			final int size = getPduSize(pdu);
+			result = result.thenCompose(msgRef -> handler.sendMessageAsync(pdu, size));
+		}
+		
+		return result.thenApply(msgRef -> {
+			message.setMsgRef(msgRef);
+			return message;
+		});
+	}
+	
+	/**
+	 * Register an outbound message. If the modem supports it, the radio link is kept open as soon as more than one
+	 * pdu is waiting to be sent, so consecutive messages and the parts of a multi-part message are sent back-to-back.
+	 * The AT+CMMS command is queued before the first pdu of the message.
+	 * 
+	 * @param pduCount
+	 * 	The number of pdus of the new message.
+	 */
+	private void startBurst(int pduCount) {
+		synchronized (burstLock) {
+			pendingMessages++;
+			if (!burstSupported || burstActive || (pendingMessages == 1 && pduCount == 1)) {
+				return;
 			}
+			burstActive = true;
 		}
 		
-		return true;
+		log.debugf("Enabling burst mode.");
+		handler.setMoreMessagesAsync(true).thenAccept(ok -> {
+			if (!ok) {
+				// Fall back to one link per message
+				log.warnf("Modem rejected AT+CMMS=2, burst mode disabled.");
+				burstSupported = false;
+			}
+		});
+	}
+	
+	/**
+	 * A registered outbound message has been completed. The radio link is released when no more messages are pending.
+	 */
+	private void endBurst() {
+		synchronized (burstLock) {
+			pendingMessages--;
+			if (pendingMessages > 0 || !burstActive) {
+				return;
+			}
+			burstActive = false;
+			if (!burstSupported) {
+				return;
+			}
+		}
+		
+		log.debugf("Disabling burst mode.");
+		handler.setMoreMessagesAsync(false);
+	}
+
+	/**
+	 * Drop incomplete inbound messages whose missing parts did not arrive in time. Called periodically, so the parts
+	 * are released even if the modem receives no further messages.
+	 */
+	public void evictIncompleteMessages() {
+		reassembler.evictExpired();
 	}
 
 	/**
 	 * Acknowledge an unsolicited response
 	 */
-	public synchronized void sendAcknowledge() {
-		readerLock.lock();
+	public void sendAcknowledge() {
 		try {
 			log.debug("Sending new mesage acknowledgement to modem.");
 			handler.sendAcknowledge();
 		} catch (IOException e) {
 			log.errorf("IOException while acknowledging unsolicited response: %s", e.getMessage());
-		} finally {
-			readerLock.unlock();
 		}
 	}
 	
@@ -248,53 +515,38 @@ public class ModemDriver {
 	public void disconnect() {
 		log.debugf("Closing connection.");
 		isConnected = false;
-		if (reader != null) {
-			reader.stop();
+		pipeline.stop();
+		synchronized (burstLock) {
+			burstActive = false;
 		}
-		if (notifier != null) {
-			notifier.interrupt();
-			try {
-				log.debugf("Waiting for notifier thread.");
-				notifier.join();
-			} catch (InterruptedException e) {
-			}
-			notifier = null;
+		TelnetChannel channel = this.channel;
+		if (channel != null) {
+			channel.close();
 		}
-		try {
-			telnetClient.disconnect();
-		} catch (Exception e) {
+		synchronized (pipeline) {
+			if (loop != null) {
+				ModemEventLoop.release();
+				loop = null;
+			}
 		}
 	}
 
-	private void connectTelnet() throws IOException, ConnectException, ModemException {
+	private void connectTelnet() throws IOException, ConnectException {
 		log.debugf("Connecting to: %s:%d", settingsHostAddress, settingsPort);
 
-		if (telnetClient == null) {
-			try {
-				telnetClient = new TelnetClient();
-				telnetClient.addOptionHandler(this.ttopt);
-				telnetClient.addOptionHandler(this.echoopt);
-				telnetClient.addOptionHandler(this.gaopt);
-				if (settingsTelnetMode.equals(TelnetMode.Binary)) {
-					telnetClient.addOptionHandler(this.binaryopt); // Make telnet session binary, so ^Z in Sendmessage is send raw!
-				}
-				// telnetClient.setReaderThread(true);
-			} catch (InvalidTelnetOptionException e) {
-				throw new ModemException("invalidTelnetOption");
+		ModemEventLoop eventLoop;
+		synchronized (pipeline) {
+			if (loop == null) {
+				loop = ModemEventLoop.acquire();
 			}
+			eventLoop = loop;
 		}
 
-		telnetClient.connect(settingsHostAddress, settingsPort);
-
-		os = telnetClient.getOutputStream();
-		reader = new Reader(telnetClient.getInputStream());
-		Thread thread = new Thread(reader);
-		thread.setName(String.format(READER_THREAD_NAME, profileName));
-		thread.start();
-		
-		notifier = new Notifier();
-		notifier.setName(String.format(NOTIFIER_THREAD_NAME, profileName));
-		notifier.start();
+		reader = new Reader();
+		notifier = new Notifier(eventLoop.getWorkers());
+		// Make telnet session binary, so ^Z in Sendmessage is send raw!
+		channel = TelnetChannel.open(eventLoop, settingsHostAddress, settingsPort, settingsTelnetMode.equals(TelnetMode.Binary), reader);
+		pipeline.start(eventLoop.getScheduler(), eventLoop.getCompletions());
 		
 		isConnected = true;
 	}
@@ -302,7 +554,7 @@ public class ModemDriver {
 	/**
 	 * Error in modem connection. Close and reinitialize.
 	 */
-	private void error(String message, Object... params) {
+	void error(String message, Object... params) {
 		log.errorf(message, params);
 		disconnect();
 	}
@@ -329,219 +581,346 @@ public class ModemDriver {
 	}
 	
 	/**
-	 * Send a command to the modem and return the response. The responsePattern \r ist appended to the given command.
+	 * Send a command to the modem and wait for the response. The responsePattern \r ist appended to the given command.
 	 * 
 	 * @param command
 	 * @return
 	 */
 	protected ModemResponse sendCommand(String command) throws IOException {
-		if (!isConnected)
-			return new ModemResponse("", ModemResponse.NOT_CONNECTED);
-		
-		readerLock.lock();
-		try {
-			try {
-				write(command + "\r");
-			} catch (IOException e) {
-				error("IOException while writing to modem: %s", e.getMessage());
-				return new ModemResponse("", ModemResponse.ERR_IO_EXCEPTION);
-			}
-			return getResponse();
-		} finally {
-			readerLock.unlock();
-		}
+		return await(sendCommandAsync(command));
 	}
 	
 	protected ModemResponse sendCommandWithPdu(String command, String pdu) throws IOException {
-		if (!isConnected)
-			return new ModemResponse("", ModemResponse.NOT_CONNECTED);
-		
-		readerLock.lock();
-		try {
-			try {
-				write(command + "\r");
-			} catch (IOException e) {
-				error("IOException while writing to modem: %s", e.getMessage());
-				return new ModemResponse("", ModemResponse.ERR_IO_EXCEPTION);
-			}
-			ModemResponse response = getResponse();
-			if (response.getResponse().equals(">")) {
-				log.debugf("> received. Sending pdu.");
-				os.write(pdu.getBytes()); 
-				os.write(26); // Send ESC
-				os.flush();
-				return getResponse(handler.getOutboundSendTimeout());
-			} else {
-				return response;
-			}
-		} finally {
-			readerLock.unlock();
-		}		
+		return await(sendCommandWithPduAsync(command, pdu));
 	}
 	
-	private ModemResponse getResponse() throws IOException {
-		return getResponse(handler.getReadTimeout());
+	/**
+	 * Queue a command. The returned future is completed with the response that belongs to this command, or
+	 * exceptionally with a {@link SocketTimeoutException}.
+	 * 
+	 * @param command
+	 * @return
+	 */
+	protected CompletableFuture<ModemResponse> sendCommandAsync(String command) {
+		return sendCommandAsync(command, handler.getReadTimeout());
 	}
 	
 	/**
-	 * Wait for a modem response and return the received response. The calling thread has to hold the
-	 * readerLock!
+	 * Queue a command with the given timeout in milliseconds.
 	 * 
+	 * @param command
 	 * @param timeout
 	 * @return
+	 */
+	protected CompletableFuture<ModemResponse> sendCommandAsync(String command, long timeout) {
+		return pipeline.submit(command, null, timeout, false);
+	}
+	
+	/**
+	 * Queue a command in front of all other pending commands.
+	 * 
+	 * @param command
+	 * @return
+	 */
+	protected CompletableFuture<ModemResponse> sendUrgentCommandAsync(String command) {
+		return pipeline.submit(command, null, handler.getReadTimeout(), true);
+	}
+	
+	/**
+	 * Queue a command that is followed by a pdu. The pdu is sent when the modem prompts for input.
+	 * 
+	 * @param command
+	 * @param pdu
+	 * @return
+	 */
+	protected CompletableFuture<ModemResponse> sendCommandWithPduAsync(String command, String pdu) {
+		return pipeline.submit(command, pdu, handler.getOutboundSendTimeout(), false);
+	}
+	
+	/**
+	 * Wait for the result of an asynchronous command.
+	 * 
+	 * @param future
+	 * @return
 	 * @throws IOException
 	 */
-	private ModemResponse getResponse(long timeout) throws IOException {
-		ModemResponse response;
-		int error = 0;
-
+	protected <T> T await(CompletableFuture<T> future) throws IOException {
 		try {
-			if (!dataAvailable.await(timeout, TimeUnit.MILLISECONDS)) {
-				throw new SocketTimeoutException("Timeout while waiting for modem response");
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new SocketTimeoutException("Interrupted while waiting for modem response");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
 			}
-			response = reader.getResponse();
-		} catch (InterruptedException e1) {
-			throw new SocketTimeoutException("Timeout while waiting for modem response");
-		} 
-
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * Evaluate the final response to a command.
+	 * 
+	 * @param response
+	 * @return
+	 */
+	ModemResponse checkResponse(ModemResponse response) {
 		if (log.isDebugEnabled()) {
 			log.debugf("Received modem response: %s", response.getDebugString());
 		}
-		
-		if (response.getResponse().equals(">")) {
-			// Modem waits for input
-			return response;
-		}
 
-		if (response.getPattern() == ResponsePattern.ERROR_WITH_CODE) {
-			// Try to interpret error code
-			Matcher m = response.getMatcher();
-			if (m.find()) {
-				try {
-					if (m.group(1).equals("CME")) {
-						int code = Integer.parseInt(m.group(2));
-						error = 5000 + code;
-					} else if (m.group(1).equals("CMS")) {
-						int code = Integer.parseInt(m.group(2));
-						error = 6000 + code;
-					} else {
-						log.errorf("Invalid error response:", m.group(1));
-						error = ModemResponse.ERR_UNKNOWN;
-					}
-				} catch (NumberFormatException e) {
-					log.errorf("Error on number conversion while interpreting response: %s", response);
-					error = ModemResponse.ERR_UNKNOWN;
-				}
-			} else {
-				log.errorf("Received unmatched error code. Should never happen!");
-				error = ModemResponse.ERR_UNKNOWN;
-			}
-		} else if (response.getPattern() == ResponsePattern.ERROR_PLAIN) {
-			error = 9000;
-		} else if (response.getResponse().indexOf("OK") == -1) {
-			error = 10000;
+		// Error codes have already been decoded by the ResponseLexer
+		if (response.isOk() && response.getResponse().indexOf("OK") == -1) {
+			response.setError(ModemResponse.ERR_UNKNOWN);
 		}
 		
-		if (error != 0) {
-			response.setError(error);
-			log.debugf("Received error %d from modem: %s", error, response.getDebugString());
+		if (!response.isOk()) {
+			log.debugf("Received error %d from modem: %s", response.getError(), response.getDebugString());
 		}
 		return response;
 	}
 
-	private ResponsePattern findTerminator(String response) {
-		for (ResponsePattern t : ResponsePattern.values()) {
-			if (t.getPattern().matcher(response).matches()) {
-				log.tracef("Found responsePattern: %s", t.name());
-				return t;
-			}
-		}
-		return null;
-	}
-
 	protected void writeDirect(String s) throws IOException {
-		readerLock.lock();
-		try {
-			write(s);
-		} finally {
-			readerLock.unlock();
-		}
+		write(s);
 	}
 
-	private void write(String s) throws IOException {
+	void write(String s) throws IOException {
 		log.debugf("Sending message to modem: %s", s);
-		os.write(s.getBytes());
-		os.flush();
+		write(s.getBytes());
+	}
+	
+	void write(byte[] data) throws IOException {
+		TelnetChannel channel = this.channel;
+		if (channel == null) {
+			throw new IOException("Not connected");
+		}
+		channel.write(data);
 	}
 
 	protected LoggerEx getLogger() {
 		return log;
 	}
 	
-	private class Reader implements Runnable {
+	/**
+	 * A text that is sent to several recipients from the modem storage.<br />
+	 * The pdus of the first recipient are written with AT+CMGW. Recipients can join until the write has completed,
+	 * then every recipient gets the stored pdus with AT+CMSS, which only transfers the destination address to the
+	 * modem. The stored pdus are deleted when all recipients have been served. If the write fails, the recipients are
+	 * sent one by one with AT+CMGS. Sending from storage is only disabled if the modem reports that the write is not
+	 * supported.
+	 */
+	private class FanOut {
+		private final String text;
+		/** Recipients and their futures, guarded by fanOutLock */
+		private final List<OutboundMessage> messages = new ArrayList<OutboundMessage>();
+		private final List<CompletableFuture<OutboundMessage>> futures = new ArrayList<CompletableFuture<OutboundMessage>>();
+		/** Storage indexes of the written pdus, only accessed by the completion stages of the write */
+		private final List<Integer> indexes = new ArrayList<Integer>();
+		
+		FanOut(String text) {
+			this.text = text;
+		}
+		
+		/**
+		 * Add a recipient. The caller has to hold the fanOutLock.
+		 */
+		CompletableFuture<OutboundMessage> add(OutboundMessage message) {
+			CompletableFuture<OutboundMessage> future = new CompletableFuture<OutboundMessage>();
+			messages.add(message);
+			futures.add(future);
+			return future;
+		}
+		
+		/**
+		 * Write the pdus to the modem storage.
+		 */
+		void start() {
+			OutboundMessage first;
+			synchronized (fanOutLock) {
+				first = messages.get(0);
+			}
+			
+			CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+			for (final String pdu : generatePdus(first)) {
+				final int size = getPduSize(pdu);
+				written = written.thenCompose(v -> handler.writeMessageAsync(pdu, size)).thenAccept(index -> indexes.add(index));
+			}
+			written.whenComplete((v, t) -> send(t));
+		}
+		
+		private void send(Throwable writeError) {
+			List<OutboundMessage> recipients;
+			List<CompletableFuture<OutboundMessage>> results;
+			synchronized (fanOutLock) {
+				// Recipients that arrive from now on start a new fan-out
+				openFanOuts.remove(text, this);
+				recipients = new ArrayList<OutboundMessage>(messages);
+				results = new ArrayList<CompletableFuture<OutboundMessage>>(futures);
+			}
+			
+			if (writeError != null) {
+				Throwable cause = writeError instanceof CompletionException && writeError.getCause() != null ? writeError.getCause() : writeError;
+				if (RetryPolicy.isNotSupported(cause)) {
+					log.warnf("Writing message to modem storage is not supported, sending from storage disabled: %s", cause.getMessage());
+					fanOutSupported = false;
+				} else if (isConnected) {
+					// E.g. the storage is full, the next fan-out tries again
+					log.warnf("Writing message to modem storage failed, sending to %d recipients with AT+CMGS: %s", recipients.size(), cause.getMessage());
+				}
+				deleteStored();
+				for (int i = 0; i < recipients.size(); i++) {
+					complete(results.get(i), sendPdus(recipients.get(i), generatePdus(recipients.get(i))));
+				}
+				return;
+			}
+			
+			log.debugf("Message stored at %s, sending to %d recipients.", indexes, recipients.size());
+			CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+			for (int i = 0; i < recipients.size(); i++) {
+				final OutboundMessage message = recipients.get(i);
+				final CompletableFuture<OutboundMessage> result = results.get(i);
+				// A failed recipient does not stop the others
+				sent = sent.thenCompose(v -> complete(result, sendStored(message)));
+			}
+			sent.thenRun(() -> deleteStored());
+		}
+		
+		/**
+		 * Send the stored pdus to one recipient.
+		 */
+		private CompletableFuture<OutboundMessage> sendStored(final OutboundMessage message) {
+			message.setPartCount(indexes.size());
+			CompletableFuture<Integer> result = CompletableFuture.completedFuture(0);
+			for (final int index : indexes) {
+				result = result.thenCompose(msgRef -> handler.sendStoredMessageAsync(index, message.getDestination()));
+			}
+			return result.thenApply(msgRef -> {
+				message.setMsgRef(msgRef);
+				return message;
+			});
+		}
+		
+		private void deleteStored() {
+			for (int index : indexes) {
+				handler.deleteMessageAsync(index);
+			}
+		}
+		
+		/**
+		 * Pass the outcome of the given stage to the recipient's future.
+		 * 
+		 * @return
+		 * 	A future that is completed when the stage has completed, regardless of the outcome.
+		 */
+		private CompletableFuture<Void> complete(final CompletableFuture<OutboundMessage> result, CompletableFuture<OutboundMessage> stage) {
+			return stage.handle((message, t) -> {
+				if (t == null) {
+					result.complete(message);
+				} else {
+					result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+				}
+				return null;
+			});
+		}
+	}
+	
+	/**
+	 * Splits the data received by the telnet channel into responses. All methods except {@link #clearBuffer()} are
+	 * called on the selector thread.
+	 */
+	private class Reader implements TelnetChannel.Listener {
 
-		volatile boolean keepRunning = true;
-		private InputStream is;
-		private char[] buffer = new char[256];
+		/** Initial size of the response buffer. The buffer grows if a longer response is received. */
+		private static final int INITIAL_RESPONSE_SIZE = 256;
+		/** Responses exceeding this size are discarded */
+		private static final int MAX_RESPONSE_SIZE = 8192;
+		
+		private byte[] buffer = new byte[INITIAL_RESPONSE_SIZE];
 		private int bufferPos = 0;
 		private boolean newline = true;
-		private ModemResponse modemResponse;
 		
-		public Reader(InputStream is) {
-			this.is = is;
+		@Override
+		public void dataReceived(byte[] data, int offset, int length) {
+			processInput(data, offset, length);
 		}
 		
 		@Override
-		public void run() {
-			
-			while (keepRunning) {
-				try {
-					int c = is.read();
-					if (c == -1) {
-						// Socket closed
-						keepRunning = false;
-						error("Socket connection closed");
-						break;
-					}
-					
-					if ((char) c == '>' && (newline || bufferPos == 0)) {
-						// Modem waits for input
-						log.debugf("Reader: Modem awaits input ('>' received)");
-						dataAvailable(new ModemResponse(">"));
-						continue;
-					}
-					
-					if (!newline || (c != 10 && c != 13)) {
-						// Add to buffer if we are not in a run of newline chars
-						buffer[bufferPos ++] = (char) c;
-						newline = false;
-					}
-					
-					if (!newline && (c == 10 || c == 13)) {
+		public void channelClosed(String reason) {
+			error(reason);
+		}
+		
+		/**
+		 * Split the received data into lines. Runs of <CR>/<LF> are collapsed into a single <LF>, and every time
+		 * a line is completed the buffered response is checked for a known pattern.
+		 */
+		private void processInput(byte[] data, int offset, int length) {
+			int pos = offset;
+			int end = offset + length;
+			while (pos < end) {
+				byte c = data[pos];
+				
+				if (c == '>' && (newline || bufferPos == 0)) {
+					// Modem waits for input
+					log.debugf("Reader: Modem awaits input ('>' received)");
+					dataAvailable(new ModemResponse(">"));
+					pos++;
+					continue;
+				}
+				
+				if (c == 10 || c == 13) {
+					if (!newline) {
 						// <CR>/<LF> received - check if we have a full response
-						buffer[bufferPos - 1] = 10;	// Replace <CR> with <LF>
+						append(LF, 0, 1);
 						newline = true;
-						String response = new String(buffer,0, bufferPos);
-						ResponsePattern pattern = findTerminator(response);
-						if (pattern != null) {
-							if (pattern.isUnsolicitedResponse()) {
-								handleUnsolicitedResponse(evalResponse(response, pattern));
-							} else {
-								dataAvailable(evalResponse(response, pattern));
-							}
-						} else {
-							// No matching pattern found
-							log.tracef("Response arrived, no matching pattern: %s", response);
-						}
+						lineReceived();
 					}
-					
-				} catch (IOException e) {
-					keepRunning = false;
-					error("IOException in reader thread: " + e.getMessage());
-				} 
+					pos++;
+					continue;
+				}
+				
+				// Copy the rest of the line in one go
+				int start = pos;
+				while (pos < end && data[pos] != 10 && data[pos] != 13) {
+					pos++;
+				}
+				append(data, start, pos - start);
+				newline = false;
+			}
+		}
+		
+		private void append(byte[] data, int offset, int length) {
+			if (bufferPos + length > MAX_RESPONSE_SIZE) {
+				log.errorf("Response exceeds %d bytes, discarding buffer: %s", MAX_RESPONSE_SIZE, 
+					new String(buffer, 0, bufferPos, StandardCharsets.ISO_8859_1));
+				bufferPos = 0;
+				if (length > MAX_RESPONSE_SIZE) {
+					return;
+				}
+			}
+			if (bufferPos + length > buffer.length) {
+				// Grow the buffer, e.g. for a +CMT response with a full length PDU
+				buffer = Arrays.copyOf(buffer, Math.min(MAX_RESPONSE_SIZE, Math.max(buffer.length * 2, bufferPos + length)));
 			}
+			System.arraycopy(data, offset, buffer, bufferPos, length);
+			bufferPos += length;
+		}
 		
-			log.debugf("Reader thread ended");
+		private void lineReceived() {
+			ModemResponse response = ResponseLexer.lex(buffer, bufferPos);
+			if (response != null) {
+				log.tracef("Found responsePattern: %s", response.getPattern().name());
+				if (response.getPattern().isUnsolicitedResponse()) {
+					handleUnsolicitedResponse(response);
+				} else {
+					dataAvailable(response);
+				}
+			} else if (log.isTraceEnabled()) {
+				// No complete response yet
+				log.tracef("Response arrived, no matching pattern: %s", new String(buffer, 0, bufferPos, StandardCharsets.ISO_8859_1));
+			}
 		}
 	
 		/**
@@ -554,7 +933,7 @@ public class ModemDriver {
 			String bufferContent;
 			readerLock.lock();
 			try {
-				bufferContent = new String(buffer, 0, bufferPos);
+				bufferContent = new String(buffer, 0, bufferPos, StandardCharsets.ISO_8859_1);
 				bufferPos = 0;
 				newline = true;
 			} finally {
@@ -563,20 +942,6 @@ public class ModemDriver {
 			return bufferContent;
 		}
 		
-		/**
-		 * The last response received from the modem. Starting linebreaks and runs of newline/linefeeds are
-		 * replaced by a single linefeed (10) to simplify response evaluation.<br />
-		 * This method must only be called after dataAvailable is signalled.
-		 * @return
-		 */
-		public ModemResponse getResponse() {
-			return modemResponse;
-		}
-		
-		public void stop() {
-			keepRunning = false;
-		}
-		
 		private void handleUnsolicitedResponse(ModemResponse modemResponse) {
 			if (modemResponse.getPattern().equals(ResponsePattern.NEW_SMS)) {
 				// New inbound SMS
@@ -591,8 +956,6 @@ public class ModemDriver {
 			readerLock.lock();
 			try {
 				log.tracef("Data available. Response: %s", modemResponse.getDebugString());
-				this.modemResponse = modemResponse;
-				dataAvailable.signalAll();
 				
 				// Reset the input buffer
 				bufferPos = 0;
@@ -600,57 +963,84 @@ public class ModemDriver {
 			} finally {
 				readerLock.unlock();
 			}
-		}
-		
-		private ModemResponse evalResponse(String response, ResponsePattern pattern) {	
-			return new ModemResponse(response, ModemResponse.RESPONSE_OK, pattern);
+			// Hand the response to the command it belongs to
+			pipeline.responseReceived(modemResponse);
 		}
 		
 	}
 	
-	private class Notifier extends Thread {
+	/**
+	 * Processes unsolicited responses in order of arrival on the shared worker pool, as acknowledging a message waits
+	 * for the modem.
+	 */
+	private class Notifier implements Runnable {
 
-		private BlockingQueue<ModemResponse> eventQueue = new LinkedBlockingQueue<ModemResponse>();
+		private final Executor executor;
+		private final Queue<ModemResponse> eventQueue = new ConcurrentLinkedQueue<ModemResponse>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		
+		Notifier(Executor executor) {
+			this.executor = executor;
+		}
 		
 		protected void addResponse(ModemResponse modemResponse)	{
 			log.debugf("Storing AsyncEvent: %s", modemResponse.getPattern().name());
 			this.eventQueue.add(modemResponse);
+			schedule();
+		}
+		
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+				}
+			}
 		}
 		
 		@Override
 		public void run() {
-			
-			while (isConnected()) {
-				try {
-					ModemResponse response = eventQueue.take();
+			try {
+				ModemResponse response;
+				while (isConnected() && (response = eventQueue.poll()) != null) {
 					if (ResponsePattern.NEW_SMS.equals(response.getPattern())) {
 						sendAcknowledge();
 						handleInboundMessage(response);
-						
 					}
-				} catch (InterruptedException e) {
-					if (!isConnected()) break;
 				}
+			} finally {
+				scheduled.set(false);
+			}
+			if (!eventQueue.isEmpty() && isConnected()) {
+				schedule();
 			}
-			
-			log.debugf("Notifier thread ended");
 		}
 		
 		private void handleInboundMessage(ModemResponse response) {
-			Matcher m =response.getMatcher();
-			if (m.matches() && m.groupCount()==2) {
-				int pduSize = Integer.parseInt(m.group(1));
-				String pduString = m.group(2);
+			int pduSize = response.getPduLength();
+			byte[] octets = response.getPduOctets();
+			if (octets != null) {
 				
-				if ((pduSize > 0) && ((pduSize * 2) == pduString.length())) {
-					// The pduSize does not conatin the adress part. If the length of the pdu equals the pduSize,
-					// then there is no adress part. As the Parser requires an address part, we add it here.
-					pduString = "00" + pduString;
-				}
+				// The pduSize does not conatin the adress part. If the length of the pdu equals the pduSize,
+				// then there is no adress part.
+				boolean smscInfo = !(pduSize > 0 && pduSize == octets.length);
 				
-				Pdu pdu = pduParser.parsePdu(pduString);
-				if (pdu instanceof SmsDeliveryPdu) {
-					InboundMessage message = new InboundMessage(pdu);
+				DeliverPduView pdu;
+				try {
+					pdu = DeliverPduView.wrap(octets, octets.length, smscInfo);
+				} catch (IllegalArgumentException e) {
+					log.errorf("Invalid inbound pdu received: %s", e.getMessage());
+					return;
+				}
+				if (pdu != null) {
+					// The parts of a multi-part message are passed on when the message is complete
+					List<DeliverPduView> parts = reassembler.add(pdu);
+					if (parts == null) {
+						log.debugf("Received part %d of %d of an inbound message from %s", pdu.getMpSeqNo(), pdu.getMpMaxNo(), pdu.getAddress());
+						return;
+					}
+					InboundMessage message = new InboundMessage(parts);
 					if (log.isTraceEnabled()) {
 						log.tracef("New inbound mesage:\r%s", message.toString());
 					}
@@ -0,0 +1,227 @@
+package com.chitek.ignition.alarming.notification.sms.modem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.chitek.ignition.alarming.notification.sms.SmsNotification;
+import com.inductiveautomation.ignition.common.util.LoggerEx;
+
+/**
+ * A single selector thread that serves the modem connections of all notification profiles.<br />
+ * The loop is shared and reference counted. It is created when the first modem connects, and stopped when the last
+ * modem disconnects.<br />
+ * Besides the selector thread, the loop owns a timer thread for command timeouts, a small worker pool for work that
+ * may block, like the processing of inbound messages, and a pool that completes the futures of modem commands. No code
+ * that blocks may run on the selector thread.
+ */
+class ModemEventLoop implements Runnable {
+
+	private static final String LOOP_THREAD_NAME = "GsmModemEventLoop";
+	private static final String TIMER_THREAD_NAME = "GsmModemTimer";
+	private static final String WORKER_THREAD_NAME = "GsmModemWorker-%d";
+	private static final String COMPLETION_THREAD_NAME = "GsmModemCompletion-%d";
+
+	/** Maximum number of worker threads */
+	private static final int WORKER_THREADS = 4;
+	/** Size of the buffer used to read from the channels */
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private static ModemEventLoop instance;
+	private static int users;
+
+	private final LoggerEx log = LoggerEx.newBuilder().build(String.format("%s[%s]", SmsNotification.LOGGER_NAME, LOOP_THREAD_NAME));
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final ScheduledExecutorService scheduler;
+	private final ThreadPoolExecutor workers;
+	private final ThreadPoolExecutor completions;
+	private volatile boolean keepRunning = true;
+
+	/**
+	 * Get the shared event loop. Every call has to be paired with a call to {@link #release()}.
+	 */
+	static synchronized ModemEventLoop acquire() throws IOException {
+		if (instance == null) {
+			instance = new ModemEventLoop();
+		}
+		users++;
+		return instance;
+	}
+
+	/**
+	 * Release the shared event loop. The loop is stopped when it is no longer used.
+	 */
+	static synchronized void release() {
+		if (users > 0 && --users == 0) {
+			instance.stop();
+			instance = null;
+		}
+	}
+
+	private ModemEventLoop() throws IOException {
+		selector = Selector.open();
+
+		scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TIMER_THREAD_NAME);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		((ScheduledThreadPoolExecutor) scheduler).setRemoveOnCancelPolicy(true);
+
+		workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, String.format(WORKER_THREAD_NAME, count.incrementAndGet()));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		workers.allowCoreThreadTimeOut(true);
+
+		// Not bounded, a continuation that waits for another command must not keep that command from completing
+		completions = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, String.format(COMPLETION_THREAD_NAME, count.incrementAndGet()));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+		Thread thread = new Thread(this, LOOP_THREAD_NAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return
+	 * 	The executor used to schedule command timeouts. Scheduled tasks must not block.
+	 */
+	ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return
+	 * 	The executor used for work that may block.
+	 */
+	ExecutorService getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return
+	 * 	The executor used to complete the futures of modem commands, so the continuations of the callers never run on
+	 * 	the selector or timer thread.
+	 */
+	ExecutorService getCompletions() {
+		return completions;
+	}
+
+	/**
+	 * Run the given task on the selector thread.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Register a channel with the selector. The registration is done asynchronously on the selector thread.
+	 */
+	void register(final TelnetChannel channel) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					channel.registered(channel.getChannel().register(selector, SelectionKey.OP_READ, channel));
+				} catch (IOException e) {
+					channel.failed(e);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void run() {
+		while (keepRunning) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				log.errorf("IOException in modem event loop: %s", e.getMessage());
+				continue;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				runSafe(task);
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				TelnetChannel channel = (TelnetChannel) key.attachment();
+				try {
+					if (key.isValid() && key.isWritable()) {
+						channel.writable();
+					}
+					if (key.isValid() && key.isReadable()) {
+						channel.readable(readBuffer);
+					}
+				} catch (IOException e) {
+					channel.failed(e);
+				} catch (RuntimeException e) {
+					log.error("Exception in modem event loop", e);
+				}
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+		log.debugf("Modem event loop ended");
+	}
+
+	private void runSafe(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			log.error("Exception in modem event loop task", e);
+		}
+	}
+
+	private void stop() {
+		keepRunning = false;
+		selector.wakeup();
+		scheduler.shutdownNow();
+		workers.shutdown();
+		completions.shutdown();
+	}
+}
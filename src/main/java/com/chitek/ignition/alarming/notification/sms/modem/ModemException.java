@@ -14,6 +14,24 @@ public class ModemException extends Exception {
 		this.message = new LocalizedString(messageKey, args);
 	}
 	
+	/**
+	 * @param errorCode
+	 * 	The error code of the modem response (see {@link ModemResponse#getError()})
+	 */
+	public ModemException(int errorCode, String messageKey, Object... args) {
+		this(messageKey, args);
+		this.errorCode = errorCode;
+	}
+	
+	/**
+	 * @return
+	 * 	The error code of the modem response, 0 if the exception was not caused by an error response. +CME errors are
+	 * 	returned as 5000 + code, +CMS errors as 6000 + code.
+	 */
+	public int getErrorCode() {
+		return errorCode;
+	}
+	
 	@Override
 	public String getMessage() {
 		// en_US is Ignition's default locale
@@ -23,5 +41,13 @@ public class ModemException extends Exception {
 	public LocalizedString getLocalizedString() {
 		return message;
 	}
+	
+	/**
+	 * @return
+	 * 	The localized message for the error code of the given response.
+	 */
+	public static LocalizedString getErrorMessage(ModemResponse response) {
+		return new LocalizedString(String.format("chi_sms.modemError.%d", response.getError()));
+	}
 
 }
@@ -2,7 +2,7 @@ package com.chitek.ignition.alarming.notification.sms.modem;
 
 import java.util.regex.Matcher;
 
-import com.inductiveautomation.ignition.common.i18n.LocalizedString;
+import org.ajwcc.pduUtils.gsm3040.HexCodec;
 
 public class ModemResponse {
 	public static final int ERR_UNKNOWN = 10000;
@@ -15,6 +15,16 @@ public class ModemResponse {
 	private String response;
 	private ResponsePattern responsePattern;
 	
+	// Typed fields, set by the ResponseLexer depending on the response pattern
+	private int messageReference = -1;
+	private int storageIndex = -1;
+	private int pduLength = -1;
+	private byte[] pduOctets;
+	private int signalQuality = -1;
+	private int bitErrorRate = -1;
+	private int registrationStatus = -1;
+	private String[] indicationRanges;
+	
 	public ModemResponse(String response) {
 		this(response, RESPONSE_OK, null);
 	}
@@ -61,11 +71,111 @@ public class ModemResponse {
 		return responsePattern;
 	}
 	
-	public LocalizedString getErrorMessage() {
-		return new LocalizedString(String.format("chi_sms.modemError.%d", error));
-	}
-	
 	public boolean isOk() {
 		return error == 0;
 	}
+	
+	/**
+	 * @return
+	 * 	The message reference of a +CMGS or +CMSS response, or -1.
+	 */
+	public int getMessageReference() {
+		return messageReference;
+	}
+	
+	void setMessageReference(int messageReference) {
+		this.messageReference = messageReference;
+	}
+	
+	/**
+	 * @return
+	 * 	The storage index of a +CMGW response, or -1.
+	 */
+	public int getStorageIndex() {
+		return storageIndex;
+	}
+	
+	void setStorageIndex(int storageIndex) {
+		this.storageIndex = storageIndex;
+	}
+	
+	/**
+	 * @return
+	 * 	The pdu length given in the header of a +CMT or +CDS response, or -1.
+	 */
+	public int getPduLength() {
+		return pduLength;
+	}
+	
+	void setPduLength(int pduLength) {
+		this.pduLength = pduLength;
+	}
+	
+	/**
+	 * @return
+	 * 	The pdu (hex format) of a +CMT or +CDS response, or null. The String is created on every call.
+	 */
+	public String getPdu() {
+		return pduOctets != null ? HexCodec.encode(pduOctets) : null;
+	}
+	
+	/**
+	 * @return
+	 * 	The octets of the pdu of a +CMT or +CDS response, or null.
+	 */
+	public byte[] getPduOctets() {
+		return pduOctets;
+	}
+	
+	void setPduOctets(byte[] pduOctets) {
+		this.pduOctets = pduOctets;
+	}
+	
+	/**
+	 * @return
+	 * 	The signal quality (rssi) of a +CSQ response, or -1.
+	 */
+	public int getSignalQuality() {
+		return signalQuality;
+	}
+	
+	void setSignalQuality(int signalQuality) {
+		this.signalQuality = signalQuality;
+	}
+	
+	/**
+	 * @return
+	 * 	The bit error rate of a +CSQ response, or -1.
+	 */
+	public int getBitErrorRate() {
+		return bitErrorRate;
+	}
+	
+	void setBitErrorRate(int bitErrorRate) {
+		this.bitErrorRate = bitErrorRate;
+	}
+	
+	/**
+	 * @return
+	 * 	The registration status of a +CREG response, or -1.
+	 */
+	public int getRegistrationStatus() {
+		return registrationStatus;
+	}
+	
+	void setRegistrationStatus(int registrationStatus) {
+		this.registrationStatus = registrationStatus;
+	}
+	
+	/**
+	 * @return
+	 * 	The five supported parameter ranges of a +CNMI=? response (without parentheses), or null.
+	 */
+	public String[] getIndicationRanges() {
+		return indicationRanges;
+	}
+	
+	void setIndicationRanges(String[] indicationRanges) {
+		this.indicationRanges = indicationRanges;
+	}
 }
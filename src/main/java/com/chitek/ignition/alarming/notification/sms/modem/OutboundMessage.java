@@ -1,6 +1,8 @@
 package com.chitek.ignition.alarming.notification.sms.modem;
 
-import org.ajwcc.pduUtils.gsm3040.Pdu;
+import java.util.List;
+
+import org.ajwcc.pduUtils.gsm3040.EncodingPlan;
 import org.ajwcc.pduUtils.gsm3040.PduFactory;
 import org.ajwcc.pduUtils.gsm3040.PduUtils;
 import org.ajwcc.pduUtils.gsm3040.SmsSubmitPdu;
@@ -10,6 +12,10 @@ public class OutboundMessage {
 	private String text;
 	private String destination;
 	private int msgRef;
+	private int partCount = 1;
+	private List<String> pdus;
+	private int[] nationalLanguages = new int[0];
+	private volatile EncodingPlan encodingPlan;
 	
 	/**
 	 * Createa an new outbound message with default settings.
@@ -24,6 +30,51 @@ public class OutboundMessage {
 		this.destination = destination;
 	}
 	
+	/**
+	 * Create a new outbound message that may use the national language tables of the given languages, if the text
+	 * can not be sent in the default GSM alphabet.
+	 * 
+	 * @param nationalLanguages
+	 * 	The languages as defined in {@link org.ajwcc.pduUtils.gsm3040.NationalLanguageTables}
+	 */
+	public OutboundMessage(String destination, String text, int[] nationalLanguages) {
+		this(destination, text);
+		this.nationalLanguages = nationalLanguages;
+	}
+	
+	/**
+	 * Create a new outbound message with an encoding plan that has been made ahead of time.
+	 * 
+	 * @param encodingPlan
+	 * 	The plan for the given text and languages, or <code>null</code> to make it on the first call of
+	 * 	{@link #getEncodingPlan()}
+	 */
+	public OutboundMessage(String destination, String text, int[] nationalLanguages, EncodingPlan encodingPlan) {
+		this(destination, text, nationalLanguages);
+		this.encodingPlan = encodingPlan;
+	}
+	
+	public String getText() {
+		return text;
+	}
+	
+	public String getDestination() {
+		return destination;
+	}
+	
+	/**
+	 * @return
+	 * 	The encoding of the text and the number of parts needed to send it. The plan is made on the first call.
+	 */
+	public EncodingPlan getEncodingPlan() {
+		EncodingPlan plan = encodingPlan;
+		if (plan == null) {
+			plan = EncodingPlan.forText(text, nationalLanguages);
+			encodingPlan = plan;
+		}
+		return plan;
+	}
+	
 	public void setMsgRef(int msgRef) {
 		this.msgRef = msgRef;
 	}
@@ -36,7 +87,32 @@ public class OutboundMessage {
 		return msgRef;
 	}
 	
-	public Pdu getPdu(String smscNumber) {
+	/**
+	 * @return
+	 * 	The pdus prepared by {@link ModemDriver#preparePdus(OutboundMessage)}, or <code>null</code> if the pdus are
+	 * 	generated when the message is sent.
+	 */
+	public List<String> getPdus() {
+		return pdus;
+	}
+	
+	void setPdus(List<String> pdus) {
+		this.pdus = pdus;
+	}
+	
+	public void setPartCount(int partCount) {
+		this.partCount = partCount;
+	}
+	
+	/**
+	 * @return
+	 * 	The number of pdus used to send the message
+	 */
+	public int getPartCount() {
+		return partCount;
+	}
+	
+	public SmsSubmitPdu getPdu(String smscNumber) {
 		SmsSubmitPdu pdu = PduFactory.newSmsSubmitPdu(PduUtils.TP_VPF_NONE);
 		
 		// smscInfo
@@ -56,8 +132,10 @@ public class OutboundMessage {
 		pdu.setAddressType(PduUtils.getAddressTypeFor(destination));
 		// Protocol ID - 0 for a standard SMS
 		pdu.setProtocolIdentifier(0);
-		// Encoding - 7-bit alphabet with default message class 0
-		pdu.setDataCodingScheme(PduUtils.DCS_ENCODING_7BIT);
+		// Encoding - 7-bit alphabet if possible, UCS-2 otherwise, with default message class 0
+		EncodingPlan plan = getEncodingPlan();
+		pdu.setDataCodingScheme(plan.getEncoding());
+		plan.addInformationElements(pdu);
 		// validity period - not used
 		pdu.setValidityPeriod(-1);
 		// set the text
@@ -0,0 +1,298 @@
+package com.chitek.ignition.alarming.notification.sms.modem;
+
+import java.nio.charset.StandardCharsets;
+
+import org.ajwcc.pduUtils.gsm3040.HexCodec;
+
+/**
+ * Classifies the buffered modem output in a single pass and extracts the typed fields of the response.<br />
+ * The lexer works directly on the reader's byte buffer. A String is only created if the buffer contains a complete
+ * response, so intermediate lines cost no allocation.<br />
+ * The buffer is expected to contain the lines received since the last complete response, each line terminated by a
+ * single linefeed (10).
+ */
+public class ResponseLexer {
+
+	private static final byte LF = 10;
+
+	private static final byte[] OK = ascii("OK");
+	private static final byte[] ERROR = ascii("ERROR");
+	private static final byte[] NO_CARRIER = ascii("NO CARRIER");
+	private static final byte[] NO_DIALTONE = ascii("NO DIALTONE");
+	private static final byte[] CME_ERROR = ascii("+CME ERROR:");
+	private static final byte[] CMS_ERROR = ascii("+CMS ERROR:");
+	private static final byte[] CMT = ascii("+CMT:");
+	private static final byte[] CDS = ascii("+CDS:");
+	private static final byte[] CMGS = ascii("+CMGS:");
+	private static final byte[] CMGW = ascii("+CMGW:");
+	private static final byte[] CMSS = ascii("+CMSS:");
+	private static final byte[] CSQ = ascii("+CSQ:");
+	private static final byte[] CREG = ascii("+CREG:");
+	private static final byte[] CNMI = ascii("+CNMI:");
+
+	/** Number of parameter ranges in a +CNMI=? response */
+	private static final int CNMI_RANGES = 5;
+
+	/**
+	 * Classify the given buffer.
+	 *
+	 * @param buffer
+	 * 	The received data. The last byte has to be a linefeed.
+	 * @param length
+	 * 	Number of valid bytes in the buffer.
+	 * @return
+	 * 	The evaluated response, or <code>null</code> if the buffer does not (yet) contain a complete response.
+	 */
+	public static ModemResponse lex(byte[] buffer, int length) {
+		if (length == 0 || buffer[length - 1] != LF) {
+			return null;
+		}
+
+		// First line, leading whitespace skipped
+		int firstStart = skipWhitespace(buffer, 0, length);
+		if (firstStart >= length) {
+			return null;
+		}
+		int firstEnd = indexOf(buffer, firstStart, length, LF);
+
+		// Unsolicited responses consist of a header line and a line with the pdu
+		if (startsWith(buffer, firstStart, firstEnd, CMT)) {
+			return lexPduResponse(buffer, firstStart, firstEnd, length, ResponsePattern.NEW_SMS);
+		}
+		if (startsWith(buffer, firstStart, firstEnd, CDS)) {
+			return lexPduResponse(buffer, firstStart, firstEnd, length, ResponsePattern.NEW_STATUS_REPORT);
+		}
+
+		// The final result code is in the last line
+		int lastEnd = trimEnd(buffer, 0, length - 1);
+		int lastStart = lastIndexOf(buffer, 0, lastEnd, LF) + 1;
+		lastStart = skipWhitespace(buffer, lastStart, lastEnd);
+
+		if (equals(buffer, lastStart, lastEnd, OK)) {
+			if (lastStart == firstStart) {
+				return newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.OK);
+			}
+			return lexInformationResponse(buffer, firstStart, firstEnd, length);
+		}
+
+		if (startsWith(buffer, lastStart, lastEnd, CME_ERROR)) {
+			int code = parseNumber(buffer, lastStart + CME_ERROR.length, lastEnd);
+			if (code >= 0) {
+				return newResponse(buffer, length, 5000 + code, ResponsePattern.ERROR_WITH_CODE);
+			}
+		} else if (startsWith(buffer, lastStart, lastEnd, CMS_ERROR)) {
+			int code = parseNumber(buffer, lastStart + CMS_ERROR.length, lastEnd);
+			if (code >= 0) {
+				return newResponse(buffer, length, 6000 + code, ResponsePattern.ERROR_WITH_CODE);
+			}
+		} else if (endsWith(buffer, lastStart, lastEnd, ERROR) || endsWith(buffer, lastStart, lastEnd, NO_CARRIER)
+			|| endsWith(buffer, lastStart, lastEnd, NO_DIALTONE)) {
+			return newResponse(buffer, length, 9000, ResponsePattern.ERROR_PLAIN);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Evaluate a response terminated by OK. The first line decides if this is one of the information responses we
+	 * are interested in.
+	 */
+	private static ModemResponse lexInformationResponse(byte[] buffer, int start, int end, int length) {
+		if (startsWith(buffer, start, end, CMGS)) {
+			int msgRef = parseNumber(buffer, start + CMGS.length, end);
+			if (msgRef >= 0) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CMGS_RESPONSE);
+				response.setMessageReference(msgRef);
+				return response;
+			}
+		} else if (startsWith(buffer, start, end, CMGW)) {
+			int index = parseNumber(buffer, start + CMGW.length, end);
+			if (index >= 0) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CMGW_RESPONSE);
+				response.setStorageIndex(index);
+				return response;
+			}
+		} else if (startsWith(buffer, start, end, CMSS)) {
+			int msgRef = parseNumber(buffer, start + CMSS.length, end);
+			if (msgRef >= 0) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CMSS_RESPONSE);
+				response.setMessageReference(msgRef);
+				return response;
+			}
+		} else if (startsWith(buffer, start, end, CSQ)) {
+			int pos = start + CSQ.length;
+			int separator = indexOfPunctuation(buffer, pos, end);
+			int rssi = parseNumber(buffer, pos, separator);
+			if (rssi >= 0 && separator < end) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CSQ_RESPONSE);
+				response.setSignalQuality(rssi);
+				response.setBitErrorRate(parseNumber(buffer, separator + 1, end));
+				return response;
+			}
+		} else if (startsWith(buffer, start, end, CREG)) {
+			int pos = start + CREG.length;
+			int separator = indexOfPunctuation(buffer, pos, end);
+			int stat = separator < end ? parseNumber(buffer, separator + 1, end) : -1;
+			if (parseNumber(buffer, pos, separator) >= 0 && stat >= 0) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CREG_RESPONSE);
+				response.setRegistrationStatus(stat);
+				return response;
+			}
+		} else if (startsWith(buffer, start, end, CNMI)) {
+			String[] ranges = new String[CNMI_RANGES];
+			int pos = start + CNMI.length;
+			int i;
+			for (i = 0; i < CNMI_RANGES; i++) {
+				int open = indexOf(buffer, pos, end, (byte) '(');
+				int close = indexOf(buffer, open, end, (byte) ')');
+				if (close >= end) {
+					break;
+				}
+				ranges[i] = new String(buffer, open + 1, close - open - 1, StandardCharsets.ISO_8859_1);
+				pos = close + 1;
+			}
+			if (i == CNMI_RANGES) {
+				ModemResponse response = newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.CNMI_RESPONSE);
+				response.setIndicationRanges(ranges);
+				return response;
+			}
+		}
+
+		return newResponse(buffer, length, ModemResponse.RESPONSE_OK, ResponsePattern.ANY_OK);
+	}
+
+	/**
+	 * Evaluate an unsolicited +CMT or +CDS response. The header ends with the length of the pdu, the second line
+	 * holds the pdu in hex format.<br />
+	 * The pdu is decoded from the buffer into an octet array, no String is created for the hex data. The text of the
+	 * response is the header line only.
+	 */
+	private static ModemResponse lexPduResponse(byte[] buffer, int start, int end, int length, ResponsePattern pattern) {
+		if (end + 1 >= length) {
+			// Header only - wait for the pdu
+			return null;
+		}
+
+		// The length follows the last separator in the header
+		int headerEnd = trimEnd(buffer, start, end);
+		int lengthStart = headerEnd;
+		while (lengthStart > start && isDigit(buffer[lengthStart - 1])) {
+			lengthStart--;
+		}
+		int pduLength = parseNumber(buffer, lengthStart, headerEnd);
+
+		int pduStart = skipWhitespace(buffer, end + 1, length);
+		int pduEnd = indexOf(buffer, pduStart, length, LF);
+		if (pduLength < 0 || pduEnd != length - 1 || pduStart == pduEnd) {
+			return null;
+		}
+		for (int i = pduStart; i < pduEnd; i++) {
+			if (Character.digit(buffer[i], 16) < 0) {
+				return null;
+			}
+		}
+
+		if ((pduEnd - pduStart) % 2 != 0) {
+			return null;
+		}
+
+		byte[] octets = new byte[(pduEnd - pduStart) / 2];
+		HexCodec.decode(buffer, pduStart, pduEnd - pduStart, octets, 0);
+		ModemResponse response = new ModemResponse(new String(buffer, start, headerEnd - start, StandardCharsets.ISO_8859_1),
+			ModemResponse.RESPONSE_OK, pattern);
+		response.setPduLength(pduLength);
+		response.setPduOctets(octets);
+		return response;
+	}
+
+	private static ModemResponse newResponse(byte[] buffer, int length, int error, ResponsePattern pattern) {
+		return new ModemResponse(new String(buffer, 0, length, StandardCharsets.ISO_8859_1), error, pattern);
+	}
+
+	/**
+	 * Parse an unsigned decimal number. Leading whitespace is skipped, parsing stops at the first non-digit.
+	 *
+	 * @return
+	 * 	The number, or -1 if there are no digits.
+	 */
+	private static int parseNumber(byte[] buffer, int from, int to) {
+		int pos = skipWhitespace(buffer, from, to);
+		if (pos >= to || !isDigit(buffer[pos])) {
+			return -1;
+		}
+		int value = 0;
+		while (pos < to && isDigit(buffer[pos]) && value < 100000000) {
+			value = value * 10 + (buffer[pos++] - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == LF;
+	}
+
+	private static int skipWhitespace(byte[] buffer, int from, int to) {
+		while (from < to && isWhitespace(buffer[from])) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int trimEnd(byte[] buffer, int from, int to) {
+		while (to > from && isWhitespace(buffer[to - 1])) {
+			to--;
+		}
+		return to;
+	}
+
+	private static int indexOf(byte[] buffer, int from, int to, byte b) {
+		while (from < to && buffer[from] != b) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int lastIndexOf(byte[] buffer, int from, int to, byte b) {
+		for (int i = to - 1; i >= from; i--) {
+			if (buffer[i] == b) {
+				return i;
+			}
+		}
+		return from - 1;
+	}
+
+	private static int indexOfPunctuation(byte[] buffer, int from, int to) {
+		while (from < to && (isDigit(buffer[from]) || isWhitespace(buffer[from]))) {
+			from++;
+		}
+		return from;
+	}
+
+	private static boolean startsWith(byte[] buffer, int from, int to, byte[] prefix) {
+		if (to - from < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer[from + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean endsWith(byte[] buffer, int from, int to, byte[] suffix) {
+		return to - from >= suffix.length && startsWith(buffer, to - suffix.length, to, suffix);
+	}
+
+	private static boolean equals(byte[] buffer, int from, int to, byte[] value) {
+		return to - from == value.length && startsWith(buffer, from, to, value);
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
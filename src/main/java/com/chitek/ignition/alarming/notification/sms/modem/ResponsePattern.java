@@ -2,6 +2,10 @@ package com.chitek.ignition.alarming.notification.sms.modem;
 
 import java.util.regex.Pattern;
 
+/**
+ * The types of modem responses. Received data is classified by the {@link ResponseLexer}, the regular expressions
+ * describe the expected format of each response.
+ */
 public enum ResponsePattern {
 
 	OK("OK\\s", false),
@@ -13,7 +17,9 @@ public enum ResponsePattern {
 	CNMI_RESPONSE("\\+CNMI:\\s*\\(([\\d,-]*)\\)[, ]*\\(([\\d,-]*)\\)[, ]*\\(([\\d,-]*)\\)[, ]*\\(([\\d,-]*)\\)[, ]*\\(([\\d,-]*)\\)\\s+OK\\s+", false),
 	CSQ_RESPONSE("\\+CSQ:\\s*(\\d*)\\s*\\p{Punct}\\s*(\\d*)\\s*\\s+OK\\s*", false),
 	CREG_RESPONSE("\\+CREG:\\s*(\\d+)\\s*\\p{Punct}\\s*(\\d+).*\\s+OK\\s*", false),
-	CMGS_RESPONSE("\\s*\\+CMGS:\\s*(\\d+)\\s+OK\\s*", false);
+	CMGS_RESPONSE("\\s*\\+CMGS:\\s*(\\d+)\\s+OK\\s*", false),
+	CMGW_RESPONSE("\\s*\\+CMGW:\\s*(\\d+)\\s+OK\\s*", false),
+	CMSS_RESPONSE("\\s*\\+CMSS:\\s*(\\d+)\\s+OK\\s*", false);
 	
 	private Pattern pattern;
 	private String regex;
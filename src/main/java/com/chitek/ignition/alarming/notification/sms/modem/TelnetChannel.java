@@ -0,0 +1,391 @@
+package com.chitek.ignition.alarming.notification.sms.modem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A non-blocking telnet connection to a modem, driven by the {@link ModemEventLoop}.<br />
+ * Only the telnet options needed to talk to a serial device server are negotiated: suppress go ahead, terminal type,
+ * echo and, if requested, binary transmission. All other options are refused. Like the option handlers of the former
+ * commons-net client, the channel offers to echo itself and refuses remote echo, so the device server does not echo
+ * the commands back. The channel never echoes received data. Received data is passed to the
+ * {@link Listener} with all telnet commands removed.
+ */
+class TelnetChannel {
+
+	/**
+	 * Receives the data and state changes of a channel. All methods are called on the selector thread and must not
+	 * block.
+	 */
+	interface Listener {
+		void dataReceived(byte[] data, int offset, int length);
+
+		void channelClosed(String reason);
+	}
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final String TERMINAL_TYPE = "VT100";
+
+	// Telnet commands
+	private static final int SE = 240;
+	private static final int SB = 250;
+	private static final int WILL = 251;
+	private static final int WONT = 252;
+	private static final int DO = 253;
+	private static final int DONT = 254;
+	private static final int IAC = 255;
+
+	// Telnet options
+	private static final int OPT_BINARY = 0;
+	private static final int OPT_ECHO = 1;
+	private static final int OPT_SGA = 3;
+	private static final int OPT_TTYPE = 24;
+	private static final int TTYPE_IS = 0;
+	private static final int TTYPE_SEND = 1;
+
+	// Option states
+	private static final byte NO = 0;
+	private static final byte YES = 1;
+	private static final byte WANT_YES = 2;
+
+	// Parser states
+	private static final int STATE_DATA = 0;
+	private static final int STATE_IAC = 1;
+	private static final int STATE_OPTION = 2;
+	private static final int STATE_SB_OPTION = 3;
+	private static final int STATE_SB_DATA = 4;
+	private static final int STATE_SB_IAC = 5;
+
+	private static final int MAX_SUBNEGOTIATION = 64;
+
+	private final ModemEventLoop loop;
+	private final SocketChannel channel;
+	private final Listener listener;
+	private final boolean binary;
+
+	private final Deque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+	private SelectionKey key;
+	private volatile boolean closed;
+
+	// Negotiated option state
+	private final byte[] local = new byte[256];
+	private final byte[] remote = new byte[256];
+
+	// Parser state, only accessed by the selector thread
+	private int state = STATE_DATA;
+	private int command;
+	private int sbOption;
+	private final byte[] sbData = new byte[MAX_SUBNEGOTIATION];
+	private int sbLength;
+	private boolean lastWasCR;
+
+	private TelnetChannel(ModemEventLoop loop, SocketChannel channel, boolean binary, Listener listener) {
+		this.loop = loop;
+		this.channel = channel;
+		this.binary = binary;
+		this.listener = listener;
+	}
+
+	/**
+	 * Connect to the given host. The calling thread blocks until the connection is established.
+	 *
+	 * @param binary
+	 * 	<code>true</code> to request binary transmission, so control characters are passed unchanged.
+	 */
+	static TelnetChannel open(ModemEventLoop loop, String host, int port, boolean binary, Listener listener) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		TelnetChannel telnet = new TelnetChannel(loop, channel, binary, listener);
+		loop.register(telnet);
+		telnet.negotiate();
+		return telnet;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Send data to the modem. IAC bytes are escaped, and unless binary transmission was requested a &lt;CR&gt; is
+	 * followed by a &lt;LF&gt; as required by the telnet protocol.
+	 */
+	void write(byte[] data) throws IOException {
+		boolean crlf = local[OPT_BINARY] == NO;
+		ByteBuffer buffer = ByteBuffer.allocate(data.length * 2);
+		for (byte b : data) {
+			buffer.put(b);
+			if (b == (byte) IAC) {
+				buffer.put(b);
+			} else if (b == '\r' && crlf) {
+				buffer.put((byte) '\n');
+			}
+		}
+		buffer.flip();
+		send(buffer);
+	}
+
+	/**
+	 * Close the connection. May be called from any thread.
+	 */
+	void close() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Called by the loop when the channel has been registered.
+	 */
+	void registered(SelectionKey key) {
+		synchronized (outbound) {
+			this.key = key;
+			if (!outbound.isEmpty()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Called by the loop when the channel is readable.
+	 */
+	void readable(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		int count = channel.read(buffer);
+		if (count == -1) {
+			closeChannel("Socket connection closed");
+			return;
+		}
+		if (count > 0) {
+			int length = decode(buffer.array(), count);
+			if (length > 0) {
+				listener.dataReceived(buffer.array(), 0, length);
+			}
+		}
+	}
+
+	/**
+	 * Called by the loop when pending data can be written.
+	 */
+	void writable() throws IOException {
+		synchronized (outbound) {
+			while (!outbound.isEmpty()) {
+				ByteBuffer buffer = outbound.peekFirst();
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					return;
+				}
+				outbound.removeFirst();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Called by the loop if an I/O operation failed.
+	 */
+	void failed(IOException e) {
+		closeChannel("IOException in modem connection: " + e.getMessage());
+	}
+
+	private void closeChannel(String reason) {
+		if (!closed) {
+			close();
+			listener.channelClosed(reason);
+		}
+	}
+
+	private void send(ByteBuffer buffer) throws IOException {
+		if (closed) {
+			throw new IOException("Connection closed");
+		}
+		synchronized (outbound) {
+			if (outbound.isEmpty()) {
+				channel.write(buffer);
+				if (!buffer.hasRemaining()) {
+					return;
+				}
+			}
+			outbound.addLast(buffer);
+			if (key != null && outbound.size() == 1) {
+				loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (outbound) {
+							if (key.isValid() && !outbound.isEmpty()) {
+								key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+							}
+						}
+					}
+				});
+			}
+		}
+	}
+
+	private void sendCommand(int command, int option) throws IOException {
+		send(ByteBuffer.wrap(new byte[] { (byte) IAC, (byte) command, (byte) option }));
+	}
+
+	/**
+	 * Send the initial option requests.
+	 */
+	private void negotiate() throws IOException {
+		synchronized (local) {
+			local[OPT_SGA] = WANT_YES;
+			sendCommand(WILL, OPT_SGA);
+			remote[OPT_SGA] = WANT_YES;
+			sendCommand(DO, OPT_SGA);
+			local[OPT_ECHO] = WANT_YES;
+			sendCommand(WILL, OPT_ECHO);
+			if (binary) {
+				local[OPT_BINARY] = WANT_YES;
+				sendCommand(WILL, OPT_BINARY);
+			}
+		}
+	}
+
+	private boolean acceptLocal(int option) {
+		return option == OPT_SGA || option == OPT_TTYPE || option == OPT_ECHO || (option == OPT_BINARY && binary);
+	}
+
+	private boolean acceptRemote(int option) {
+		return option == OPT_SGA;
+	}
+
+	/**
+	 * Remove telnet commands from the received data. The data is decoded in place.
+	 *
+	 * @return
+	 * 	The number of data bytes.
+	 */
+	private int decode(byte[] data, int count) throws IOException {
+		int out = 0;
+		for (int i = 0; i < count; i++) {
+			int b = data[i] & 0xff;
+			switch (state) {
+			case STATE_DATA:
+				if (b == IAC) {
+					state = STATE_IAC;
+				} else if (b == 0 && lastWasCR) {
+					// <CR><NUL> in text mode
+					lastWasCR = false;
+				} else {
+					data[out++] = (byte) b;
+					lastWasCR = b == '\r';
+				}
+				break;
+			case STATE_IAC:
+				if (b == IAC) {
+					data[out++] = (byte) b;
+					state = STATE_DATA;
+				} else if (b >= WILL && b <= DONT) {
+					command = b;
+					state = STATE_OPTION;
+				} else if (b == SB) {
+					state = STATE_SB_OPTION;
+				} else {
+					// NOP, GA etc. are ignored
+					state = STATE_DATA;
+				}
+				break;
+			case STATE_OPTION:
+				optionReceived(command, b);
+				state = STATE_DATA;
+				break;
+			case STATE_SB_OPTION:
+				sbOption = b;
+				sbLength = 0;
+				state = STATE_SB_DATA;
+				break;
+			case STATE_SB_DATA:
+				if (b == IAC) {
+					state = STATE_SB_IAC;
+				} else if (sbLength < sbData.length) {
+					sbData[sbLength++] = (byte) b;
+				}
+				break;
+			case STATE_SB_IAC:
+				if (b == SE) {
+					subnegotiationReceived();
+					state = STATE_DATA;
+				} else {
+					if (b == IAC && sbLength < sbData.length) {
+						sbData[sbLength++] = (byte) b;
+					}
+					state = STATE_SB_DATA;
+				}
+				break;
+			}
+		}
+		return out;
+	}
+
+	private void optionReceived(int command, int option) throws IOException {
+		synchronized (local) {
+			switch (command) {
+			case WILL:
+				if (remote[option] == NO) {
+					if (acceptRemote(option)) {
+						remote[option] = YES;
+						sendCommand(DO, option);
+					} else {
+						sendCommand(DONT, option);
+					}
+				} else {
+					remote[option] = YES;
+				}
+				break;
+			case WONT:
+				if (remote[option] == YES) {
+					sendCommand(DONT, option);
+				}
+				remote[option] = NO;
+				break;
+			case DO:
+				if (local[option] == NO) {
+					if (acceptLocal(option)) {
+						local[option] = YES;
+						sendCommand(WILL, option);
+					} else {
+						sendCommand(WONT, option);
+					}
+				} else {
+					local[option] = YES;
+				}
+				break;
+			case DONT:
+				if (local[option] == YES) {
+					sendCommand(WONT, option);
+				}
+				local[option] = NO;
+				break;
+			}
+		}
+	}
+
+	private void subnegotiationReceived() throws IOException {
+		if (sbOption == OPT_TTYPE && sbLength > 0 && sbData[0] == TTYPE_SEND && local[OPT_TTYPE] == YES) {
+			byte[] type = TERMINAL_TYPE.getBytes(StandardCharsets.US_ASCII);
+			ByteBuffer buffer = ByteBuffer.allocate(type.length + 6);
+			buffer.put((byte) IAC).put((byte) SB).put((byte) OPT_TTYPE).put((byte) TTYPE_IS);
+			buffer.put(type);
+			buffer.put((byte) IAC).put((byte) SE);
+			buffer.flip();
+			send(buffer);
+		}
+	}
+}
@@ -33,6 +33,10 @@ public class ProfileProperties {
 		new BasicAlarmProperty<String>("customSmsMessage", String.class, "", "chi_sms.properties.extendedConfig.customSmsMessage.name",
 			"chi_sms.properties.extendedConfig.category", "chi_sms.properties.extendedConfig.customSmsMessage.desc", true, false);
 
+	public static AlarmProperty<Integer> SMS_DEADLINE = 
+		new BasicAlarmProperty<Integer>("smsDeadline", Integer.class, 0, "chi_sms.properties.extendedConfig.smsDeadline.name",
+			"chi_sms.properties.extendedConfig.category", "chi_sms.properties.extendedConfig.smsDeadline.desc", true, false);
+
 	
 	static {
 		SMS_MESSAGE.setExpressionSource(true);
@@ -0,0 +1,26 @@
+package com.chitek.ignition.alarming.notification.sms.settings;
+
+import java.util.Locale;
+
+import com.inductiveautomation.ignition.common.BundleUtil;
+import com.inductiveautomation.ignition.common.i18n.Localized;
+
+/**
+ * How text that can not be sent in the GSM alphabet is handled.
+ */
+public enum EncodingPolicy implements Localized {
+	/** Send the text as it is, as Unicode (UCS-2) if necessary */
+	Unicode,
+	/** Replace characters that are not in the GSM alphabet by similar characters */
+	Transliterate,
+	/** Replace characters only if this saves message parts */
+	Hybrid;
+
+	public String toString(Locale locale) {
+		return BundleUtil.get().getStringLenient(locale, "GsmSmsNotificationSettings.enums.EncodingPolicy." + name());
+	}
+
+	public String toString() {
+		return name();
+	}
+}
@@ -1,5 +1,7 @@
 package com.chitek.ignition.alarming.notification.sms.settings;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import simpleorm.dataset.SFieldFlags;
@@ -32,16 +34,25 @@ public class GsmSmsNotificationSettings extends PersistentRecord {
 	public static final StringField HostAddress = new StringField(META, "HostAddress", SFieldFlags.SMANDATORY);
 	public static final IntField Port = new IntField(META, "Port", SFieldFlags.SMANDATORY);
 	public static final EnumField<TelnetMode> Mode = new EnumField<TelnetMode>(META, "TelnetMode", TelnetMode.class);
+	public static final StringField AdditionalModems = new StringField(META, "AdditionalModems");
 	public static final IntField CountryCode = new IntField(META, "CountryCode", SFieldFlags.SMANDATORY);
 	public static final StringField SimPin = new StringField(META, "SimPin");
 	public static final StringField CSCA = new StringField(META, "CSCA");
 	public static final BooleanField TwoWayEnabled = new BooleanField(META, "TwoWayEnabled");
+	public static final IntField CoalesceWindow = new IntField(META, "CoalesceWindow");
+	public static final BooleanField NationalLanguageTables = new BooleanField(META, "NationalLanguageTables");
+	public static final EnumField<EncodingPolicy> Encoding = new EnumField<EncodingPolicy>(META, "EncodingPolicy", EncodingPolicy.class);
+	public static final IntField RateLimit = new IntField(META, "RateLimit");
+	public static final IntField RateBurst = new IntField(META, "RateBurst");
+	public static final IntField ReassemblyMaxParts = new IntField(META, "ReassemblyMaxParts");
+	public static final IntField ReassemblyTimeout = new IntField(META, "ReassemblyTimeout");
 	public static final LongField AuditProfileId = new LongField(META, "AuditProfileId");
 	public static final ReferenceField<AuditProfileRecord> AuditProfile = new ReferenceField<AuditProfileRecord>(META, AuditProfileRecord.META, "AuditProfile", AuditProfileId);
 	
-	public static final Category Modem = new Category("GsmSmsNotificationSettings.Category.Modem", 1).include(HostAddress, Port, Mode);
-	public static final Category Settings = new Category("GsmSmsNotificationSettings.Category.Settings", 2).include(SimPin, CountryCode, CSCA, TwoWayEnabled);
+	public static final Category Modem = new Category("GsmSmsNotificationSettings.Category.Modem", 1).include(HostAddress, Port, Mode, AdditionalModems);
+	public static final Category Settings = new Category("GsmSmsNotificationSettings.Category.Settings", 2).include(SimPin, CountryCode, CSCA, TwoWayEnabled, CoalesceWindow, NationalLanguageTables, Encoding, ReassemblyMaxParts, ReassemblyTimeout);
 	public static final Category Auditing = new Category("GsmSmsNotificationSettings.Category.Audit", 3).include(AuditProfile);
+	public static final Category Rate = new Category("GsmSmsNotificationSettings.Category.RateLimit", 4).include(RateLimit, RateBurst);
 	
 	@Override
 	public RecordMeta<?> getMeta() {
@@ -64,6 +75,23 @@ public class GsmSmsNotificationSettings extends PersistentRecord {
 		return getInt(Port);
 	}
 	
+	/**
+	 * @return
+	 * The addresses of additional modems (host or host:port) used to send messages. Empty if only one modem is used.
+	 */
+	public List<String> getAdditionalModems() {
+		List<String> result = new ArrayList<String>();
+		String value = getString(AdditionalModems);
+		if (value != null) {
+			for (String entry : value.split("[,;\\s]+")) {
+				if (!entry.isEmpty()) {
+					result.add(entry);
+				}
+			}
+		}
+		return result;
+	}
+	
 	public TelnetMode getTelnetMode() {
 		return getEnum(Mode);
 	}
@@ -109,6 +137,70 @@ public class GsmSmsNotificationSettings extends PersistentRecord {
 	public boolean isTwoWayEnabled() {
 		return getBoolean(TwoWayEnabled);
 	}
+
+	/**
+	 * @return
+	 * 	The time (seconds) notifications for the same phone number are collected and sent in one message, 0 if
+	 * 	notifications are not combined.
+	 */
+	public int getCoalesceWindow() {
+		Integer result = getInt(CoalesceWindow);
+		return result != null ? result : 0;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if the Turkish, Spanish and Portuguese national language tables may be used for texts that
+	 * 	can not be sent in the default GSM alphabet.
+	 */
+	public boolean isNationalLanguageTablesEnabled() {
+		return getBoolean(NationalLanguageTables);
+	}
+
+	/**
+	 * @return
+	 * 	How text that can not be sent in the GSM alphabet is handled.
+	 */
+	public EncodingPolicy getEncodingPolicy() {
+		EncodingPolicy result = getEnum(Encoding);
+		return result != null ? result : EncodingPolicy.Unicode;
+	}
+
+	/**
+	 * @return
+	 * 	The maximum number of message parts sent by each modem per minute, 0 if the rate is not limited.
+	 */
+	public int getRateLimit() {
+		Integer result = getInt(RateLimit);
+		return result != null ? result : 0;
+	}
+
+	/**
+	 * @return
+	 * 	The number of message parts each modem may send at once.
+	 */
+	public int getRateBurst() {
+		Integer result = getInt(RateBurst);
+		return result != null ? result : 10;
+	}
+
+	/**
+	 * @return
+	 * 	The maximum number of parts of incomplete inbound messages each modem keeps until the missing parts arrive.
+	 */
+	public int getReassemblyMaxParts() {
+		Integer result = getInt(ReassemblyMaxParts);
+		return result != null ? result : 64;
+	}
+
+	/**
+	 * @return
+	 * 	The time (seconds) to wait for the missing parts of an inbound message.
+	 */
+	public int getReassemblyTimeout() {
+		Integer result = getInt(ReassemblyTimeout);
+		return result != null ? result : 600;
+	}
 	
 	
 	/**
@@ -124,6 +216,18 @@ public class GsmSmsNotificationSettings extends PersistentRecord {
 		Profile.getFormMeta().setVisible(false);
 		Mode.setDefault(TelnetMode.Binary);
 		CountryCode.addValidator(new RangeValidator<Integer>(1,2000));
+		CoalesceWindow.setDefault(0);
+		CoalesceWindow.addValidator(new RangeValidator<Integer>(0,600));
+		NationalLanguageTables.setDefault(false);
+		Encoding.setDefault(EncodingPolicy.Unicode);
+		RateLimit.setDefault(0);
+		RateLimit.addValidator(new RangeValidator<Integer>(0,1000));
+		RateBurst.setDefault(10);
+		RateBurst.addValidator(new RangeValidator<Integer>(1,100));
+		ReassemblyMaxParts.setDefault(64);
+		ReassemblyMaxParts.addValidator(new RangeValidator<Integer>(1,1000));
+		ReassemblyTimeout.setDefault(600);
+		ReassemblyTimeout.addValidator(new RangeValidator<Integer>(10,86400));
 		CountryCode.setDefault(PhoneNumberUtil.getInstance().getCountryCodeForRegion(Locale.getDefault().getCountry()));
 	}
 	
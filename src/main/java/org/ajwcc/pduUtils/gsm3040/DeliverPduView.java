@@ -0,0 +1,330 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import org.ajwcc.pduUtils.gsm3040.ie.ConcatInformationElement;
+import org.ajwcc.pduUtils.gsm3040.ie.NationalLanguageInformationElement;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// read-only view of an SMS-DELIVER pdu
+// the octets are not copied, only the positions of the fields and the
+// concat and national language information of the UDH are read when the
+// view is created, the address and the text are decoded when accessed
+// the text is decoded the same way as by Pdu.getDecodedText()
+public final class DeliverPduView
+{
+	private final byte[] octets;
+
+	private final int length;
+
+	private final int firstOctet;
+
+	private final int addressLength;
+
+	private final int addressType;
+
+	private final int addressPos;
+
+	private final int protocolIdentifier;
+
+	private final int dataCodingScheme;
+
+	private final int timestampPos;
+
+	private final int udLength;
+
+	private final int udPos;
+
+	// including the UDHL octet, 0 if there is no UDH
+	private final int udhLength;
+
+	private int concatIdentifier = -1;
+
+	private int mpRefNo;
+
+	private int mpMaxNo = 1;
+
+	private int mpSeqNo;
+
+	private int lockingShift = NationalLanguageTables.DEFAULT;
+
+	private int singleShift = NationalLanguageTables.DEFAULT;
+
+	private String address;
+
+	private String decodedText;
+
+	private DeliverPduView(byte[] octets, int length, int pos)
+	{
+		this.octets = octets;
+		this.length = length;
+		firstOctet = octets[pos++] & 0xFF;
+		addressLength = read(pos++);
+		addressType = read(pos++);
+		addressPos = pos;
+		pos += (addressLength + 1) / 2;
+		protocolIdentifier = read(pos++);
+		dataCodingScheme = read(pos++);
+		timestampPos = pos;
+		pos += TimeStampCodec.LENGTH;
+		udLength = read(pos++);
+		udPos = pos;
+		if ((firstOctet & PduUtils.TP_UDHI_WITH_UDH) != 0 && udPos < length)
+		{
+			udhLength = read(udPos) + 1;
+			readUdh(udPos + 1, udPos + udhLength);
+		}
+		else
+		{
+			udhLength = 0;
+		}
+	}
+
+	// returns null if the octets are not an SMS-DELIVER pdu
+	// smscInfo is false if the pdu starts with the first octet
+	public static DeliverPduView wrap(byte[] octets, int length, boolean smscInfo)
+	{
+		int pos = 0;
+		if (smscInfo)
+		{
+			if (length < 1) throw new IllegalArgumentException("Pdu is too short: " + length + " octets");
+			pos = (octets[0] & 0xFF) + 1;
+		}
+		if (pos >= length) throw new IllegalArgumentException("Pdu is too short: " + length + " octets");
+		if ((octets[pos] & ~PduUtils.TP_MTI_MASK) != PduUtils.TP_MTI_SMS_DELIVER) return null;
+		return new DeliverPduView(octets, length, pos);
+	}
+
+	// decodes the ASCII hex digits into a new octet array, which is the only
+	// copy of the data
+	public static DeliverPduView fromHex(byte[] ascii, int offset, int hexLength, boolean smscInfo)
+	{
+		byte[] octets = new byte[hexLength / 2];
+		HexCodec.decode(ascii, offset, hexLength, octets, 0);
+		return wrap(octets, octets.length, smscInfo);
+	}
+
+	private int read(int pos)
+	{
+		if (pos >= length) throw new IllegalArgumentException("Pdu is too short: " + length + " octets");
+		return octets[pos] & 0xFF;
+	}
+
+	private void readUdh(int pos, int end)
+	{
+		if (end > length) throw new IllegalArgumentException("UDH is longer than the pdu");
+		while (pos < end)
+		{
+			int iei = read(pos);
+			int iedl = read(pos + 1);
+			int data = pos + 2;
+			pos = data + iedl;
+			if (pos > end) throw new IllegalArgumentException("UDH is shorter than expected endUdh=" + end + ", position=" + pos);
+			if (iei == ConcatInformationElement.CONCAT_8BIT_REF && iedl == 3)
+			{
+				concatIdentifier = iei;
+				mpRefNo = read(data);
+				mpMaxNo = read(data + 1);
+				mpSeqNo = read(data + 2);
+			}
+			else if (iei == ConcatInformationElement.CONCAT_16BIT_REF && iedl == 4)
+			{
+				concatIdentifier = iei;
+				mpRefNo = read(data) << 8 | read(data + 1);
+				mpMaxNo = read(data + 2);
+				mpSeqNo = read(data + 3);
+			}
+			else if (iei == NationalLanguageInformationElement.LOCKING_SHIFT && iedl == 1)
+			{
+				lockingShift = read(data);
+			}
+			else if (iei == NationalLanguageInformationElement.SINGLE_SHIFT && iedl == 1)
+			{
+				singleShift = read(data);
+			}
+		}
+	}
+
+	// ==================================================
+	// HEADER FIELDS
+	// ==================================================
+	public int getFirstOctet()
+	{
+		return firstOctet;
+	}
+
+	public boolean hasTpUdhi()
+	{
+		return udhLength > 0;
+	}
+
+	public int getAddressType()
+	{
+		return addressType;
+	}
+
+	// the address as returned by Pdu.getAddress(), null if it is empty
+	public String getAddress()
+	{
+		if (address == null && addressLength > 0)
+		{
+			address = decodeAddress();
+		}
+		return address;
+	}
+
+	public int getProtocolIdentifier()
+	{
+		return protocolIdentifier;
+	}
+
+	public int getDataCodingScheme()
+	{
+		return dataCodingScheme;
+	}
+
+	public OffsetDateTime getTimestamp()
+	{
+		if (timestampPos + TimeStampCodec.LENGTH > length) throw new IllegalArgumentException("Pdu is too short: " + length + " octets");
+		return TimeStampCodec.decode(octets, timestampPos);
+	}
+
+	public int getUDLength()
+	{
+		return udLength;
+	}
+
+	// ==================================================
+	// CONCAT INFO
+	// ==================================================
+	public boolean isConcatMessage()
+	{
+		return concatIdentifier >= 0;
+	}
+
+	// ConcatInformationElement.CONCAT_8BIT_REF or CONCAT_16BIT_REF, -1 if the
+	// pdu is not part of a concatenated message
+	public int getConcatIdentifier()
+	{
+		return concatIdentifier;
+	}
+
+	public int getMpRefNo()
+	{
+		return mpRefNo;
+	}
+
+	public int getMpMaxNo()
+	{
+		return mpMaxNo;
+	}
+
+	public int getMpSeqNo()
+	{
+		return mpSeqNo;
+	}
+
+	public int getLockingShiftLanguage()
+	{
+		return lockingShift;
+	}
+
+	public int getSingleShiftLanguage()
+	{
+		return singleShift;
+	}
+
+	// ==================================================
+	// USER DATA
+	// ==================================================
+	public String getDecodedText()
+	{
+		if (decodedText == null)
+		{
+			decodedText = decodeText();
+		}
+		return decodedText;
+	}
+
+	public byte[] getUserDataAsBytes()
+	{
+		int start = Math.min(udPos + udhLength, length);
+		byte[] data = new byte[length - start];
+		System.arraycopy(octets, start, data, 0, data.length);
+		return data;
+	}
+
+	// a full Pdu parsed from the same octets, e.g. for toString()
+	public Pdu toPdu()
+	{
+		return new PduParser().parsePdu(HexCodec.encode(octets, 0, length));
+	}
+
+	@Override
+	public String toString()
+	{
+		return toPdu().toString();
+	}
+
+	private String decodeAddress()
+	{
+		int octetLength = (addressLength + 1) / 2;
+		if (addressPos + octetLength > length) throw new IllegalArgumentException("Pdu is too short: " + length + " octets");
+		if (PduUtils.extractAddressType(addressType) == PduUtils.ADDRESS_TYPE_ALPHANUMERIC)
+		{
+			byte[] septets = new byte[addressLength * 4 / 7];
+			PduUtils.unpackSeptets(octets, addressPos, octetLength, septets, septets.length);
+			return PduUtils.unencodedSeptetsToString(septets);
+		}
+		StringBuilder sb = new StringBuilder(addressLength);
+		for (int i = addressPos; i < addressPos + octetLength; i++)
+		{
+			sb.append(octets[i] & 0x0F);
+			int high = (octets[i] >>> 4) & 0x0F;
+			// fill bits
+			if (high != 0x0F)
+			{
+				sb.append(high);
+			}
+		}
+		return sb.toString();
+	}
+
+	private String decodeText()
+	{
+		int dataStart = Math.min(udPos + udhLength, length);
+		switch (PduUtils.extractDcsEncoding(dataCodingScheme))
+		{
+			case PduUtils.DCS_ENCODING_7BIT:
+				// the UDH is padded to a septet boundary
+				int udhSeptets = (udhLength * 8 + 6) / 7;
+				if (udLength <= udhSeptets) return "";
+				byte[] septets = new byte[udLength];
+				PduUtils.unpackSeptets(octets, udPos, Math.max(0, length - udPos), septets, udLength);
+				byte[] text = new byte[udLength - udhSeptets];
+				System.arraycopy(septets, udhSeptets, text, 0, text.length);
+				return PduUtils.unencodedSeptetsToString(text, lockingShift, singleShift);
+			case PduUtils.DCS_ENCODING_8BIT:
+				return new String(octets, dataStart, length - dataStart, StandardCharsets.ISO_8859_1);
+			case PduUtils.DCS_ENCODING_UCS2:
+				return new String(octets, dataStart, length - dataStart, StandardCharsets.UTF_16);
+		}
+		throw new RuntimeException("Invalid dataCodingScheme: " + dataCodingScheme);
+	}
+}
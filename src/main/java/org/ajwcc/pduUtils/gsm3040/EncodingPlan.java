@@ -0,0 +1,180 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import org.ajwcc.pduUtils.gsm3040.ie.ConcatInformationElement;
+import org.ajwcc.pduUtils.gsm3040.ie.InformationElementFactory;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// the encoding used to send a text and the number of parts it takes
+// 7bit is used if every character of the text is in the GSM alphabet,
+// which always needs fewer parts, otherwise UCS2 so no character is lost
+// if national languages are given, the national language tables are tried
+// before falling back to UCS2, and the combination of locking shift and
+// single shift table with the fewest parts is used
+public final class EncodingPlan
+{
+	// octets of a national language information element
+	private static final int NATIONAL_LANGUAGE_IE_LENGTH = 3;
+
+	private final int encoding;
+
+	private final int lockingShift;
+
+	private final int singleShift;
+
+	private final int length;
+
+	private final int segmentCount;
+
+	private EncodingPlan(int encoding, int lockingShift, int singleShift, int length, int segmentCount)
+	{
+		this.encoding = encoding;
+		this.lockingShift = lockingShift;
+		this.singleShift = singleShift;
+		this.length = length;
+		this.segmentCount = segmentCount;
+	}
+
+	public static EncodingPlan forText(String text, int... nationalLanguages)
+	{
+		// the check is a table lookup per char, so plain ASCII text is cheap
+		int septets = PduUtils.getNumUnencodedSeptetsIfEncodable(text);
+		if (septets >= 0)
+		{
+			return new EncodingPlan(PduUtils.DCS_ENCODING_7BIT, 0, 0, septets, countSeptetSegments(text, septets, 0, 0));
+		}
+		int concatUdhLength = ConcatInformationElement.getDefaultConcatLength() + 1;
+		int partLength = (140 - concatUdhLength) / 2;
+		EncodingPlan best = new EncodingPlan(PduUtils.DCS_ENCODING_UCS2, 0, 0, text.length(), SmsSegmenter.segmentChars(text, 70, partLength).length - 1);
+		// a national language table has to save at least one part, as not
+		// every phone supports them
+		for (int language : nationalLanguages)
+		{
+			if (NationalLanguageTables.hasSingleShift(language))
+			{
+				best = tryTables(text, NationalLanguageTables.DEFAULT, language, best);
+			}
+			if (NationalLanguageTables.hasLockingShift(language))
+			{
+				best = tryTables(text, language, NationalLanguageTables.DEFAULT, best);
+				if (NationalLanguageTables.hasSingleShift(language))
+				{
+					best = tryTables(text, language, language, best);
+				}
+			}
+		}
+		return best;
+	}
+
+	private static EncodingPlan tryTables(String text, int lockingShift, int singleShift, EncodingPlan best)
+	{
+		int septets = NationalLanguageTables.getNumUnencodedSeptets(text, lockingShift, singleShift);
+		if (septets < 0)
+		{
+			return best;
+		}
+		int segments = countSeptetSegments(text, septets, lockingShift, singleShift);
+		return segments < best.segmentCount ? new EncodingPlan(PduUtils.DCS_ENCODING_7BIT, lockingShift, singleShift, septets, segments) : best;
+	}
+
+	private static int countSeptetSegments(String text, int septets, int lockingShift, int singleShift)
+	{
+		int ieLength = 0;
+		if (lockingShift != NationalLanguageTables.DEFAULT)
+		{
+			ieLength += NATIONAL_LANGUAGE_IE_LENGTH;
+		}
+		if (singleShift != NationalLanguageTables.DEFAULT)
+		{
+			ieLength += NATIONAL_LANGUAGE_IE_LENGTH;
+		}
+		// the UDH length includes the UDHL field
+		int singleLength = 160 - PduUtils.getNumSeptetsForOctets(ieLength == 0 ? 0 : ieLength + 1);
+		if (septets <= singleLength)
+		{
+			return 1;
+		}
+		int partLength = 160 - PduUtils.getNumSeptetsForOctets(ieLength + ConcatInformationElement.getDefaultConcatLength() + 1);
+		byte[] data = PduUtils.stringToUnencodedSeptets(text, lockingShift, singleShift);
+		return SmsSegmenter.segmentSeptets(data, septets, singleLength, partLength).length - 1;
+	}
+
+	// PduUtils.DCS_ENCODING_7BIT or PduUtils.DCS_ENCODING_UCS2
+	public int getEncoding()
+	{
+		return encoding;
+	}
+
+	public boolean isUcs2()
+	{
+		return encoding == PduUtils.DCS_ENCODING_UCS2;
+	}
+
+	// national language of the locking shift table, 0 for the default alphabet
+	public int getLockingShift()
+	{
+		return lockingShift;
+	}
+
+	// national language of the single shift table, 0 for the default
+	// extension table
+	public int getSingleShift()
+	{
+		return singleShift;
+	}
+
+	// adds the national language information elements needed for this plan
+	public void addInformationElements(Pdu pdu)
+	{
+		if (lockingShift != NationalLanguageTables.DEFAULT)
+		{
+			pdu.addInformationElement(InformationElementFactory.generateNationalLanguageLockingShift(lockingShift));
+		}
+		if (singleShift != NationalLanguageTables.DEFAULT)
+		{
+			pdu.addInformationElement(InformationElementFactory.generateNationalLanguageSingleShift(singleShift));
+		}
+	}
+
+	// length of the user data in septets (7bit) or chars (ucs2)
+	public int getLength()
+	{
+		return length;
+	}
+
+	public int getSegmentCount()
+	{
+		return segmentCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(isUcs2() ? "UCS2" : "7bit");
+		if (lockingShift != NationalLanguageTables.DEFAULT)
+		{
+			sb.append(", locking shift ").append(lockingShift);
+		}
+		if (singleShift != NationalLanguageTables.DEFAULT)
+		{
+			sb.append(", single shift ").append(singleShift);
+		}
+		sb.append(", ").append(length).append(isUcs2() ? " chars, " : " septets, ").append(segmentCount).append(" part(s)");
+		return sb.toString();
+	}
+}
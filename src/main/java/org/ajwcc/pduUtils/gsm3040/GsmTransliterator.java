@@ -0,0 +1,227 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// replaces characters that are not in the GSM default alphabet by similar
+// characters that are, e.g. typographic quotes and dashes or accented
+// letters, so a text can be sent in 7bit instead of UCS2
+// characters of the default alphabet and extension table are never changed,
+// characters without a replacement are kept as they are
+// the table is built once, when the class is loaded
+public final class GsmTransliterator
+{
+	// replacements that can't be derived from the unicode decomposition
+	// as pairs of char and replacement
+	private static final String[] EXPLICIT = { "\u00A0", " ", // NO-BREAK SPACE
+			"\u00A2", "c", // CENT SIGN
+			"\u00A6", "|", // BROKEN BAR
+			"\u00A9", "(c)", // COPYRIGHT SIGN
+			"\u00AB", "\"", // LEFT-POINTING DOUBLE ANGLE QUOTATION MARK
+			"\u00AD", "", // SOFT HYPHEN
+			"\u00AE", "(R)", // REGISTERED SIGN
+			"\u00B0", "deg", // DEGREE SIGN
+			"\u00B1", "+/-", // PLUS-MINUS SIGN
+			"\u00B5", "u", // MICRO SIGN
+			"\u00B7", ".", // MIDDLE DOT
+			"\u00BB", "\"", // RIGHT-POINTING DOUBLE ANGLE QUOTATION MARK
+			"\u00D0", "D", // LATIN CAPITAL LETTER ETH
+			"\u00D7", "x", // MULTIPLICATION SIGN
+			"\u00DE", "TH", // LATIN CAPITAL LETTER THORN
+			"\u00F0", "d", // LATIN SMALL LETTER ETH
+			"\u00F7", "/", // DIVISION SIGN
+			"\u00FE", "th", // LATIN SMALL LETTER THORN
+			"\u0110", "D", // LATIN CAPITAL LETTER D WITH STROKE
+			"\u0111", "d", // LATIN SMALL LETTER D WITH STROKE
+			"\u0126", "H", // LATIN CAPITAL LETTER H WITH STROKE
+			"\u0127", "h", // LATIN SMALL LETTER H WITH STROKE
+			"\u0131", "i", // LATIN SMALL LETTER DOTLESS I
+			"\u0141", "L", // LATIN CAPITAL LETTER L WITH STROKE
+			"\u0142", "l", // LATIN SMALL LETTER L WITH STROKE
+			"\u0152", "OE", // LATIN CAPITAL LIGATURE OE
+			"\u0153", "oe", // LATIN SMALL LIGATURE OE
+			"\u0166", "T", // LATIN CAPITAL LETTER T WITH STROKE
+			"\u0167", "t", // LATIN SMALL LETTER T WITH STROKE
+			"\u0180", "b", // LATIN SMALL LETTER B WITH STROKE
+			"\u0197", "I", // LATIN CAPITAL LETTER I WITH STROKE
+			"\u01B5", "Z", // LATIN CAPITAL LETTER Z WITH STROKE
+			"\u01B6", "z", // LATIN SMALL LETTER Z WITH STROKE
+			"\u0218", "S", // LATIN CAPITAL LETTER S WITH COMMA BELOW
+			"\u0219", "s", // LATIN SMALL LETTER S WITH COMMA BELOW
+			"\u021A", "T", // LATIN CAPITAL LETTER T WITH COMMA BELOW
+			"\u021B", "t", // LATIN SMALL LETTER T WITH COMMA BELOW
+			"\u200B", "", // ZERO WIDTH SPACE
+			"\u2010", "-", // HYPHEN
+			"\u2011", "-", // NON-BREAKING HYPHEN
+			"\u2012", "-", // FIGURE DASH
+			"\u2013", "-", // EN DASH
+			"\u2014", "-", // EM DASH
+			"\u2015", "-", // HORIZONTAL BAR
+			"\u2018", "'", // LEFT SINGLE QUOTATION MARK
+			"\u2019", "'", // RIGHT SINGLE QUOTATION MARK
+			"\u201A", "'", // SINGLE LOW-9 QUOTATION MARK
+			"\u201B", "'", // SINGLE HIGH-REVERSED-9 QUOTATION MARK
+			"\u201C", "\"", // LEFT DOUBLE QUOTATION MARK
+			"\u201D", "\"", // RIGHT DOUBLE QUOTATION MARK
+			"\u201E", "\"", // DOUBLE LOW-9 QUOTATION MARK
+			"\u201F", "\"", // DOUBLE HIGH-REVERSED-9 QUOTATION MARK
+			"\u2022", "*", // BULLET
+			"\u2032", "'", // PRIME
+			"\u2033", "\"", // DOUBLE PRIME
+			"\u2039", "'", // SINGLE LEFT-POINTING ANGLE QUOTATION MARK
+			"\u203A", "'", // SINGLE RIGHT-POINTING ANGLE QUOTATION MARK
+			"\u2044", "/", // FRACTION SLASH
+			"\u2190", "<-", // LEFTWARDS ARROW
+			"\u2192", "->", // RIGHTWARDS ARROW
+			"\u2212", "-", // MINUS SIGN
+			"\u2264", "<=", // LESS-THAN OR EQUAL TO
+			"\u2265", ">=", // GREATER-THAN OR EQUAL TO
+			"\uFEFF", "", // ZERO WIDTH NO-BREAK SPACE
+	};
+
+	// ranges of chars that are replaced by their compatibility decomposition
+	// without combining marks, if the result is in the default alphabet or
+	// has explicit replacements, e.g. the fraction slash of one half
+	private static final char[][] DECOMPOSED_RANGES = { { '\u00A0', '\u024F' }, // Latin-1 Supplement, Latin Extended-A and B
+			{ '\u1E00', '\u1EFF' }, // Latin Extended Additional
+			{ '\u2000', '\u206F' }, // General Punctuation
+			{ '\u2100', '\u214F' }, // Letterlike Symbols
+			{ '\u2150', '\u218F' }, // Number Forms
+	};
+
+	// sorted chars and their replacements
+	private static final char[] chars;
+
+	private static final String[] replacements;
+
+	static
+	{
+		Map<Character, String> explicit = new TreeMap<Character, String>();
+		for (int i = 0; i < EXPLICIT.length; i += 2)
+		{
+			explicit.put(EXPLICIT[i].charAt(0), EXPLICIT[i + 1]);
+		}
+		Map<Character, String> table = new TreeMap<Character, String>(explicit);
+		for (char[] range : DECOMPOSED_RANGES)
+		{
+			for (char c = range[0]; c <= range[1]; c++)
+			{
+				if (PduUtils.isDefaultEncodable(c) || explicit.containsKey(c))
+				{
+					continue;
+				}
+				String replacement = decompose(c, explicit);
+				if (replacement != null)
+				{
+					table.put(c, replacement);
+				}
+			}
+		}
+		chars = new char[table.size()];
+		replacements = new String[table.size()];
+		int i = 0;
+		for (Map.Entry<Character, String> entry : table.entrySet())
+		{
+			chars[i] = entry.getKey();
+			replacements[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	private GsmTransliterator()
+	{
+	}
+
+	// the decomposition of the char without combining marks, or null if it
+	// has none or can't be completely written in the default alphabet
+	private static String decompose(char c, Map<Character, String> explicit)
+	{
+		String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++)
+		{
+			char d = decomposed.charAt(i);
+			if (Character.getType(d) == Character.NON_SPACING_MARK)
+			{
+				continue;
+			}
+			if (PduUtils.isDefaultEncodable(d))
+			{
+				sb.append(d);
+			}
+			else if (explicit.containsKey(d))
+			{
+				sb.append(explicit.get(d));
+			}
+			else
+			{
+				return null;
+			}
+		}
+		return sb.length() > 0 ? sb.toString() : null;
+	}
+
+	// the replacement for the char, or null if the char is kept
+	public static String getReplacement(char c)
+	{
+		if (PduUtils.isDefaultEncodable(c))
+		{
+			return null;
+		}
+		int index = Arrays.binarySearch(chars, c);
+		return index >= 0 ? replacements[index] : null;
+	}
+
+	// returns the text itself if nothing is replaced
+	public static String transliterate(String text)
+	{
+		int length = text.length();
+		int i = 0;
+		// most alarm texts are in the default alphabet, so nothing is copied
+		// until the first replacement
+		String replacement = null;
+		while (i < length && (replacement = getReplacement(text.charAt(i))) == null)
+		{
+			i++;
+		}
+		if (i == length)
+		{
+			return text;
+		}
+		StringBuilder sb = new StringBuilder(length + 8);
+		sb.append(text, 0, i).append(replacement);
+		for (i++; i < length; i++)
+		{
+			char c = text.charAt(i);
+			replacement = getReplacement(c);
+			if (replacement != null)
+			{
+				sb.append(replacement);
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
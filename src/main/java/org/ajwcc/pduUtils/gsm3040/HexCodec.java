@@ -0,0 +1,197 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.nio.ByteBuffer;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// converts between binary PDU data and the hex format used by the AT commands
+// encoding uses upper case digits, decoding accepts both cases
+// invalid digits cause a NumberFormatException
+public final class HexCodec
+{
+	private static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	// the two hex digits of every byte value, high digit first
+	private static final char[] CHARS = new char[512];
+
+	// the value of every ASCII hex digit, -1 for other characters
+	private static final byte[] VALUES = new byte[128];
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			CHARS[i * 2] = (char) DIGITS[i >>> 4];
+			CHARS[i * 2 + 1] = (char) DIGITS[i & 0x0f];
+		}
+		for (int i = 0; i < VALUES.length; i++)
+		{
+			VALUES[i] = -1;
+		}
+		for (int i = 0; i < 10; i++)
+		{
+			VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++)
+		{
+			VALUES['A' + i] = (byte) (10 + i);
+			VALUES['a' + i] = (byte) (10 + i);
+		}
+	}
+
+	private HexCodec()
+	{
+	}
+
+	// ==================================================
+	// ENCODING
+	// ==================================================
+	public static String encode(byte[] bytes)
+	{
+		return encode(bytes, 0, bytes.length);
+	}
+
+	public static String encode(byte[] bytes, int offset, int length)
+	{
+		char[] chars = new char[length * 2];
+		int pos = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			int index = (bytes[i] & 0xff) << 1;
+			chars[pos++] = CHARS[index];
+			chars[pos++] = CHARS[index + 1];
+		}
+		return new String(chars);
+	}
+
+	// hex digits of a single byte
+	public static String encode(int b)
+	{
+		int index = (b & 0xff) << 1;
+		return new String(CHARS, index, 2);
+	}
+
+	// writes the hex digits as ASCII characters to dst
+	// returns the number of characters written (length * 2)
+	public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset)
+	{
+		int pos = dstOffset;
+		for (int i = offset; i < offset + length; i++)
+		{
+			int b = src[i] & 0xff;
+			dst[pos++] = DIGITS[b >>> 4];
+			dst[pos++] = DIGITS[b & 0x0f];
+		}
+		return pos - dstOffset;
+	}
+
+	// writes the hex digits as ASCII characters to the buffer
+	public static void encode(byte[] src, int offset, int length, ByteBuffer dst)
+	{
+		if (dst.hasArray())
+		{
+			int written = encode(src, offset, length, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + written);
+		}
+		else
+		{
+			for (int i = offset; i < offset + length; i++)
+			{
+				int b = src[i] & 0xff;
+				dst.put(DIGITS[b >>> 4]);
+				dst.put(DIGITS[b & 0x0f]);
+			}
+		}
+	}
+
+	// ==================================================
+	// DECODING
+	// ==================================================
+	public static byte[] decode(CharSequence hex)
+	{
+		checkLength(hex.length());
+		byte[] bytes = new byte[hex.length() / 2];
+		decode(hex, 0, hex.length(), bytes, 0);
+		return bytes;
+	}
+
+	// decodes the hex digits from start (inclusive) to end (exclusive) into dst
+	// returns the number of bytes written
+	public static int decode(CharSequence hex, int start, int end, byte[] dst, int offset)
+	{
+		checkLength(end - start);
+		int pos = offset;
+		for (int i = start; i < end; i += 2)
+		{
+			dst[pos++] = (byte) (value(hex.charAt(i)) << 4 | value(hex.charAt(i + 1)));
+		}
+		return pos - offset;
+	}
+
+	// decodes ASCII hex digits into dst
+	// returns the number of bytes written
+	public static int decode(byte[] ascii, int offset, int length, byte[] dst, int dstOffset)
+	{
+		checkLength(length);
+		int pos = dstOffset;
+		for (int i = offset; i < offset + length; i += 2)
+		{
+			dst[pos++] = (byte) (value(ascii[i]) << 4 | value(ascii[i + 1]));
+		}
+		return pos - dstOffset;
+	}
+
+	// decodes the remaining ASCII hex digits of the buffer
+	public static byte[] decode(ByteBuffer ascii)
+	{
+		int length = ascii.remaining();
+		checkLength(length);
+		byte[] bytes = new byte[length / 2];
+		if (ascii.hasArray())
+		{
+			decode(ascii.array(), ascii.arrayOffset() + ascii.position(), length, bytes, 0);
+			ascii.position(ascii.limit());
+		}
+		else
+		{
+			for (int i = 0; i < bytes.length; i++)
+			{
+				bytes[i] = (byte) (value(ascii.get()) << 4 | value(ascii.get()));
+			}
+		}
+		return bytes;
+	}
+
+	private static int value(int c)
+	{
+		int value = c >= 0 && c < VALUES.length ? VALUES[c] : -1;
+		if (value < 0)
+		{
+			throw new NumberFormatException("Invalid hex digit: " + (char) (c & 0xffff));
+		}
+		return value;
+	}
+
+	private static void checkLength(int length)
+	{
+		if (length % 2 != 0)
+		{
+			throw new NumberFormatException("Odd number of hex digits: " + length);
+		}
+	}
+}
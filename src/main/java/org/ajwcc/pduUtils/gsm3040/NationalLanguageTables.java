@@ -0,0 +1,364 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.util.Arrays;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// national language locking shift and single shift tables (3GPP TS 23.038)
+// a locking shift table replaces the default alphabet, a single shift table
+// replaces the extension table (characters after the escape septet)
+// the tables in use are signalled by the national language information
+// elements of the UDH, language 0 is the default alphabet / extension table
+public final class NationalLanguageTables
+{
+	public static final int DEFAULT = 0;
+
+	public static final int TURKISH = 1;
+
+	public static final int SPANISH = 2;
+
+	public static final int PORTUGUESE = 3;
+
+	// the national languages with tables
+	public static final int[] LANGUAGES = { TURKISH, SPANISH, PORTUGUESE };
+
+	private static final int ESCAPE = 0x1b;
+
+	private static final int EXT_FLAG = 0x100;
+
+	private static final char UNDEFINED = '\uFFFF';
+
+	// differences of the locking shift tables to the default alphabet
+	// as pairs of septet and char
+	private static final int[] TURKISH_LOCKING = { 0x04, '\u20AC', // EURO SIGN
+			0x07, '\u0131', // LATIN SMALL LETTER DOTLESS I
+			0x09, '\u00C7', // LATIN CAPITAL LETTER C WITH CEDILLA
+			0x0b, '\u011E', // LATIN CAPITAL LETTER G WITH BREVE
+			0x0c, '\u011F', // LATIN SMALL LETTER G WITH BREVE
+			0x1c, '\u015E', // LATIN CAPITAL LETTER S WITH CEDILLA
+			0x1d, '\u015F', // LATIN SMALL LETTER S WITH CEDILLA
+			0x40, '\u0130', // LATIN CAPITAL LETTER I WITH DOT ABOVE
+			0x60, '\u00E7', // LATIN SMALL LETTER C WITH CEDILLA
+	};
+
+	private static final int[] PORTUGUESE_LOCKING = { 0x04, '\u00EA', // LATIN SMALL LETTER E WITH CIRCUMFLEX
+			0x06, '\u00FA', // LATIN SMALL LETTER U WITH ACUTE
+			0x07, '\u00ED', // LATIN SMALL LETTER I WITH ACUTE
+			0x08, '\u00F3', // LATIN SMALL LETTER O WITH ACUTE
+			0x09, '\u00E7', // LATIN SMALL LETTER C WITH CEDILLA
+			0x0b, '\u00D4', // LATIN CAPITAL LETTER O WITH CIRCUMFLEX
+			0x0c, '\u00F4', // LATIN SMALL LETTER O WITH CIRCUMFLEX
+			0x0e, '\u00C1', // LATIN CAPITAL LETTER A WITH ACUTE
+			0x0f, '\u00E1', // LATIN SMALL LETTER A WITH ACUTE
+			0x12, '\u00AA', // FEMININE ORDINAL INDICATOR
+			0x13, '\u00C7', // LATIN CAPITAL LETTER C WITH CEDILLA
+			0x14, '\u00C0', // LATIN CAPITAL LETTER A WITH GRAVE
+			0x15, '\u221E', // INFINITY
+			0x16, '^', // CIRCUMFLEX ACCENT
+			0x17, '\\', // REVERSE SOLIDUS
+			0x18, '\u20AC', // EURO SIGN
+			0x19, '\u00D3', // LATIN CAPITAL LETTER O WITH ACUTE
+			0x1a, '|', // VERTICAL LINE
+			0x1c, '\u00C2', // LATIN CAPITAL LETTER A WITH CIRCUMFLEX
+			0x1d, '\u00E2', // LATIN SMALL LETTER A WITH CIRCUMFLEX
+			0x1e, '\u00CA', // LATIN CAPITAL LETTER E WITH CIRCUMFLEX
+			0x24, '\u00BA', // MASCULINE ORDINAL INDICATOR
+			0x40, '\u00CD', // LATIN CAPITAL LETTER I WITH ACUTE
+			0x5b, '\u00C3', // LATIN CAPITAL LETTER A WITH TILDE
+			0x5c, '\u00D5', // LATIN CAPITAL LETTER O WITH TILDE
+			0x5d, '\u00DA', // LATIN CAPITAL LETTER U WITH ACUTE
+			0x60, '~', // TILDE
+			0x7b, '\u00E3', // LATIN SMALL LETTER A WITH TILDE
+			0x7c, '\u00F5', // LATIN SMALL LETTER O WITH TILDE
+			0x7d, '`', // GRAVE ACCENT
+	};
+
+	// single shift tables as pairs of septet and char
+	private static final int[] DEFAULT_SINGLE = { 0x0a, '\f', // FORM FEED
+			0x14, '^', // CIRCUMFLEX ACCENT
+			0x28, '{', // LEFT CURLY BRACKET
+			0x29, '}', // RIGHT CURLY BRACKET
+			0x2f, '\\', // REVERSE SOLIDUS
+			0x3c, '[', // LEFT SQUARE BRACKET
+			0x3d, '~', // TILDE
+			0x3e, ']', // RIGHT SQUARE BRACKET
+			0x40, '|', // VERTICAL LINE
+			0x65, '\u20AC', // EURO SIGN
+	};
+
+	private static final int[] TURKISH_SINGLE = { 0x47, '\u011E', // LATIN CAPITAL LETTER G WITH BREVE
+			0x49, '\u0130', // LATIN CAPITAL LETTER I WITH DOT ABOVE
+			0x53, '\u015E', // LATIN CAPITAL LETTER S WITH CEDILLA
+			0x63, '\u00E7', // LATIN SMALL LETTER C WITH CEDILLA
+			0x67, '\u011F', // LATIN SMALL LETTER G WITH BREVE
+			0x69, '\u0131', // LATIN SMALL LETTER DOTLESS I
+			0x73, '\u015F', // LATIN SMALL LETTER S WITH CEDILLA
+	};
+
+	private static final int[] SPANISH_SINGLE = { 0x09, '\u00E7', // LATIN SMALL LETTER C WITH CEDILLA
+			0x41, '\u00C1', // LATIN CAPITAL LETTER A WITH ACUTE
+			0x49, '\u00CD', // LATIN CAPITAL LETTER I WITH ACUTE
+			0x4f, '\u00D3', // LATIN CAPITAL LETTER O WITH ACUTE
+			0x55, '\u00DA', // LATIN CAPITAL LETTER U WITH ACUTE
+			0x61, '\u00E1', // LATIN SMALL LETTER A WITH ACUTE
+			0x69, '\u00ED', // LATIN SMALL LETTER I WITH ACUTE
+			0x6f, '\u00F3', // LATIN SMALL LETTER O WITH ACUTE
+			0x75, '\u00FA', // LATIN SMALL LETTER U WITH ACUTE
+	};
+
+	private static final int[] PORTUGUESE_SINGLE = { 0x05, '\u00EA', // LATIN SMALL LETTER E WITH CIRCUMFLEX
+			0x09, '\u00E7', // LATIN SMALL LETTER C WITH CEDILLA
+			0x0b, '\u00D4', // LATIN CAPITAL LETTER O WITH CIRCUMFLEX
+			0x0c, '\u00F4', // LATIN SMALL LETTER O WITH CIRCUMFLEX
+			0x0e, '\u00C1', // LATIN CAPITAL LETTER A WITH ACUTE
+			0x0f, '\u00E1', // LATIN SMALL LETTER A WITH ACUTE
+			0x12, '\u03A6', // GREEK CAPITAL LETTER PHI
+			0x13, '\u0393', // GREEK CAPITAL LETTER GAMMA
+			0x15, '\u03A9', // GREEK CAPITAL LETTER OMEGA
+			0x16, '\u03A0', // GREEK CAPITAL LETTER PI
+			0x17, '\u03A8', // GREEK CAPITAL LETTER PSI
+			0x18, '\u03A3', // GREEK CAPITAL LETTER SIGMA
+			0x19, '\u0398', // GREEK CAPITAL LETTER THETA
+			0x1f, '\u00CA', // LATIN CAPITAL LETTER E WITH CIRCUMFLEX
+			0x41, '\u00C0', // LATIN CAPITAL LETTER A WITH GRAVE
+			0x49, '\u00CD', // LATIN CAPITAL LETTER I WITH ACUTE
+			0x4f, '\u00D3', // LATIN CAPITAL LETTER O WITH ACUTE
+			0x55, '\u00DA', // LATIN CAPITAL LETTER U WITH ACUTE
+			0x5b, '\u00C3', // LATIN CAPITAL LETTER A WITH TILDE
+			0x5c, '\u00D5', // LATIN CAPITAL LETTER O WITH TILDE
+			0x61, '\u00C2', // LATIN CAPITAL LETTER A WITH CIRCUMFLEX
+			0x69, '\u00ED', // LATIN SMALL LETTER I WITH ACUTE
+			0x6f, '\u00F3', // LATIN SMALL LETTER O WITH ACUTE
+			0x75, '\u00FA', // LATIN SMALL LETTER U WITH ACUTE
+			0x7b, '\u00E3', // LATIN SMALL LETTER A WITH TILDE
+			0x7c, '\u00F5', // LATIN SMALL LETTER O WITH TILDE
+			0x7f, '\u00E2', // LATIN SMALL LETTER A WITH CIRCUMFLEX
+	};
+
+	// tables indexed by language, then by septet, null if the language has
+	// no such table
+	private static final char[][] lockingTables = new char[4][];
+
+	private static final char[][] singleTables = new char[4][];
+
+	// reverse lookup of the national tables, chars sorted with the
+	// corresponding septets
+	private static final char[][] lockingChars = new char[4][];
+
+	private static final byte[][] lockingSeptets = new byte[4][];
+
+	private static final char[][] singleChars = new char[4][];
+
+	private static final byte[][] singleSeptets = new byte[4][];
+
+	static
+	{
+		char[] defaultAlphabet = new char[128];
+		for (int i = 0; i < defaultAlphabet.length; i++)
+		{
+			defaultAlphabet[i] = PduUtils.getDefaultChar(i);
+		}
+		lockingTables[DEFAULT] = defaultAlphabet;
+		lockingTables[TURKISH] = createTable(defaultAlphabet, TURKISH_LOCKING);
+		lockingTables[PORTUGUESE] = createTable(defaultAlphabet, PORTUGUESE_LOCKING);
+		// the national single shift tables include the default extension table
+		singleTables[DEFAULT] = createTable(null, DEFAULT_SINGLE);
+		singleTables[TURKISH] = createTable(singleTables[DEFAULT], TURKISH_SINGLE);
+		singleTables[SPANISH] = createTable(singleTables[DEFAULT], SPANISH_SINGLE);
+		singleTables[PORTUGUESE] = createTable(singleTables[DEFAULT], PORTUGUESE_SINGLE);
+		for (int language : LANGUAGES)
+		{
+			if (lockingTables[language] != null)
+			{
+				lockingChars[language] = new char[128];
+				lockingSeptets[language] = new byte[128];
+				createReverseLookup(lockingTables[language], lockingChars[language], lockingSeptets[language]);
+			}
+			singleChars[language] = new char[128];
+			singleSeptets[language] = new byte[128];
+			createReverseLookup(singleTables[language], singleChars[language], singleSeptets[language]);
+		}
+	}
+
+	private NationalLanguageTables()
+	{
+	}
+
+	private static char[] createTable(char[] base, int[] pairs)
+	{
+		char[] table = new char[128];
+		if (base != null)
+		{
+			System.arraycopy(base, 0, table, 0, table.length);
+		}
+		else
+		{
+			Arrays.fill(table, UNDEFINED);
+		}
+		for (int i = 0; i < pairs.length; i += 2)
+		{
+			table[pairs[i]] = (char) pairs[i + 1];
+		}
+		table[ESCAPE] = UNDEFINED;
+		return table;
+	}
+
+	// fills chars with the defined chars of the table in ascending order,
+	// and septets with their positions in the table
+	private static void createReverseLookup(char[] table, char[] chars, byte[] septets)
+	{
+		long[] entries = new long[table.length];
+		int count = 0;
+		for (int i = 0; i < table.length; i++)
+		{
+			if (table[i] != UNDEFINED)
+			{
+				entries[count++] = ((long) table[i] << 8) | i;
+			}
+		}
+		Arrays.sort(entries, 0, count);
+		Arrays.fill(chars, UNDEFINED);
+		for (int i = 0; i < count; i++)
+		{
+			chars[i] = (char) (entries[i] >>> 8);
+			septets[i] = (byte) entries[i];
+		}
+	}
+
+	private static int lookup(char[] chars, byte[] septets, char c)
+	{
+		if (c == UNDEFINED) { return -1; }
+		int index = Arrays.binarySearch(chars, c);
+		return index >= 0 ? septets[index] : -1;
+	}
+
+	public static boolean hasLockingShift(int language)
+	{
+		return language >= 0 && language < lockingTables.length && lockingTables[language] != null;
+	}
+
+	public static boolean hasSingleShift(int language)
+	{
+		return language >= 0 && language < singleTables.length && singleTables[language] != null;
+	}
+
+	private static void checkLanguages(int lockingShift, int singleShift)
+	{
+		if (!hasLockingShift(lockingShift)) { throw new IllegalArgumentException("No locking shift table for language " + lockingShift); }
+		if (!hasSingleShift(singleShift)) { throw new IllegalArgumentException("No single shift table for language " + singleShift); }
+	}
+
+	// septet for the char, with EXT_FLAG for chars of the single shift table,
+	// or -1 if the char is in neither table
+	private static int getSeptet(char c, int lockingShift, int singleShift)
+	{
+		int septet;
+		if (lockingShift == DEFAULT)
+		{
+			// includes the character remapping of the default alphabet
+			septet = PduUtils.getDefaultSeptet(c);
+			if (septet <= 0x7f && septet != ESCAPE) { return septet; }
+		}
+		else
+		{
+			septet = lookup(lockingChars[lockingShift], lockingSeptets[lockingShift], c);
+			if (septet >= 0) { return septet; }
+		}
+		if (singleShift == DEFAULT)
+		{
+			septet = PduUtils.getDefaultSeptet(c);
+			return PduUtils.isDefaultExtSeptet(septet) ? EXT_FLAG | (septet & 0x7f) : -1;
+		}
+		septet = lookup(singleChars[singleShift], singleSeptets[singleShift], c);
+		return septet >= 0 ? EXT_FLAG | septet : -1;
+	}
+
+	// number of uncompressed septets needed for the text with the given
+	// tables, or -1 if the text contains characters that are in neither table
+	public static int getNumUnencodedSeptets(String s, int lockingShift, int singleShift)
+	{
+		checkLanguages(lockingShift, singleShift);
+		int length = s.length();
+		int count = 0;
+		for (int i = 0; i < length; i++)
+		{
+			int septet = getSeptet(s.charAt(i), lockingShift, singleShift);
+			if (septet < 0) { return -1; }
+			count += (septet & EXT_FLAG) != 0 ? 2 : 1;
+		}
+		return count;
+	}
+
+	// from Java String to uncompressed septets with the given tables
+	// characters that can't be encoded are replaced by a space
+	public static byte[] stringToUnencodedSeptets(String s, int lockingShift, int singleShift)
+	{
+		checkLanguages(lockingShift, singleShift);
+		int length = s.length();
+		byte[] septets = new byte[length * 2];
+		int pos = 0;
+		for (int i = 0; i < length; i++)
+		{
+			int septet = getSeptet(s.charAt(i), lockingShift, singleShift);
+			if (septet < 0)
+			{
+				septet = ' ';
+			}
+			if ((septet & EXT_FLAG) != 0)
+			{
+				septets[pos++] = ESCAPE;
+			}
+			septets[pos++] = (byte) septet;
+		}
+		return Arrays.copyOf(septets, pos);
+	}
+
+	// from uncompressed septets to Java String with the given tables
+	// an escaped septet that is not in the single shift table is shown as
+	// the char of the locking shift table
+	// a table that is not known is replaced by the default alphabet or
+	// extension table, as by a phone that does not support the language
+	public static String unencodedSeptetsToString(byte[] septets, int lockingShift, int singleShift)
+	{
+		char[] locking = lockingTables[hasLockingShift(lockingShift) ? lockingShift : DEFAULT];
+		char[] single = singleTables[hasSingleShift(singleShift) ? singleShift : DEFAULT];
+		StringBuilder text = new StringBuilder(septets.length);
+		for (int i = 0; i < septets.length; i++)
+		{
+			int septet = septets[i] & 0x7f;
+			if (septet == ESCAPE)
+			{
+				if (i < septets.length - 1)
+				{
+					int ext = septets[++i] & 0x7f;
+					char c = single[ext];
+					if (c == UNDEFINED)
+					{
+						c = locking[ext] != UNDEFINED ? locking[ext] : ' ';
+					}
+					text.append(c);
+				}
+			}
+			else
+			{
+				text.append(locking[septet]);
+			}
+		}
+		return text.toString();
+	}
+}
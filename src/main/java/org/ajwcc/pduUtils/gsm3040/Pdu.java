@@ -2,12 +2,17 @@
 package org.ajwcc.pduUtils.gsm3040;
 
 import java.text.SimpleDateFormat;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import org.ajwcc.pduUtils.gsm3040.ie.ConcatInformationElement;
 import org.ajwcc.pduUtils.gsm3040.ie.InformationElement;
+import org.ajwcc.pduUtils.gsm3040.ie.NationalLanguageInformationElement;
 import org.ajwcc.pduUtils.gsm3040.ie.PortInformationElement;
 
 //PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
@@ -446,6 +451,28 @@ public abstract class Pdu
 		return portIe.getSrcPort();
 	}
 
+	// ==================================================
+	// NATIONAL LANGUAGE TABLES
+	// ==================================================
+	// language of the tables used for 7bit text, 0 for the default alphabet
+	public int getLockingShiftLanguage()
+	{
+		return getNationalLanguage(NationalLanguageInformationElement.LOCKING_SHIFT);
+	}
+
+	public int getSingleShiftLanguage()
+	{
+		return getNationalLanguage(NationalLanguageInformationElement.SINGLE_SHIFT);
+	}
+
+	private int getNationalLanguage(int iei)
+	{
+		checkForUDHI(UDH_CHECK_MODE_IGNORE_IF_NONE);
+		NationalLanguageInformationElement ie = (NationalLanguageInformationElement) getInformationElement(iei);
+		if (ie == null) return NationalLanguageTables.DEFAULT;
+		return ie.getLanguage();
+	}
+
 	// ==================================================
 	// NON-UDH DATA
 	// ==================================================
@@ -542,7 +569,7 @@ public abstract class Pdu
 				byte[] septetsNoUDH = new byte[udLength - septetUDHLength];
 				// src, srcStart, dest, destStart, length
 				System.arraycopy(septets, septetUDHLength, septetsNoUDH, 0, septetsNoUDH.length);
-				return PduUtils.unencodedSeptetsToString(septetsNoUDH);
+				return PduUtils.unencodedSeptetsToString(septetsNoUDH, getLockingShiftLanguage(), getSingleShiftLanguage());
 			case PduUtils.DCS_ENCODING_8BIT:
 				return PduUtils.decode8bitEncoding(getUDHData(), udData);
 			case PduUtils.DCS_ENCODING_UCS2:
@@ -665,4 +692,32 @@ public abstract class Pdu
 		sdf.setTimeZone(timestamp.getTimeZone());
 		return sdf.format(timestamp.getTime());
 	}
+
+	// same format as for a Calendar, offsets are always shown as GMT+hh:mm
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("EEE dd-MMM-yyyy HH:mm:ss 'GMT'xxx");
+
+	protected String formatTimestamp(OffsetDateTime timestamp)
+	{
+		return timestamp == null ? "null" : TIMESTAMP_FORMAT.format(timestamp);
+	}
+
+	// timestamps are stored as OffsetDateTime, the Date and Calendar
+	// accessors convert on every call
+	protected static OffsetDateTime toOffsetDateTime(Calendar timestamp)
+	{
+		if (timestamp == null) return null;
+		return OffsetDateTime.ofInstant(timestamp.toInstant(), timestamp.getTimeZone().toZoneId());
+	}
+
+	protected static Date toDate(OffsetDateTime timestamp)
+	{
+		if (timestamp == null) return null;
+		return Date.from(timestamp.toInstant());
+	}
+
+	protected static Calendar toCalendar(OffsetDateTime timestamp)
+	{
+		if (timestamp == null) return null;
+		return GregorianCalendar.from(timestamp.toZonedDateTime());
+	}
 }
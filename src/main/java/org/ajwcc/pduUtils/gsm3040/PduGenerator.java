@@ -2,6 +2,7 @@
 package org.ajwcc.pduUtils.gsm3040;
 
 import java.io.*;
+import java.time.OffsetDateTime;
 import java.util.*;
 import org.ajwcc.pduUtils.gsm3040.ie.*;
 
@@ -25,6 +26,8 @@ public class PduGenerator
 {
 	private ByteArrayOutputStream baos;
 
+	private final byte[] timeStampBuffer = new byte[TimeStampCodec.LENGTH];
+
 	private int firstOctetPosition = -1;
 
 	private boolean updateFirstOctet = false;
@@ -68,31 +71,16 @@ public class PduGenerator
 
 	protected void writeTimeStampStringForDate(Date timestamp)
 	{
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(timestamp);
-		int year = cal.get(Calendar.YEAR) - 2000;
-		int month = cal.get(Calendar.MONTH) + 1;
-		int dayOfMonth = cal.get(Calendar.DAY_OF_MONTH);
-		int hourOfDay = cal.get(Calendar.HOUR_OF_DAY);
-		int minute = cal.get(Calendar.MINUTE);
-		int sec = cal.get(Calendar.SECOND);
-		TimeZone tz = cal.getTimeZone();
-		int offset = tz.getOffset(timestamp.getTime());
-		int minOffset = offset / 60000;
-		int tzValue = minOffset / 15;
-		// for negative offsets, add 128 to the absolute value
-		if (tzValue < 0)
-		{
-			tzValue = 128 - tzValue;
-		}
-		// note: the nibbles are written as BCD style
-		baos.write(PduUtils.createSwappedBCD(year));
-		baos.write(PduUtils.createSwappedBCD(month));
-		baos.write(PduUtils.createSwappedBCD(dayOfMonth));
-		baos.write(PduUtils.createSwappedBCD(hourOfDay));
-		baos.write(PduUtils.createSwappedBCD(minute));
-		baos.write(PduUtils.createSwappedBCD(sec));
-		baos.write(PduUtils.createSwappedBCD(tzValue));
+		// the time in the default time zone
+		int length = TimeStampCodec.encode(timestamp.getTime(), timeStampBuffer, 0);
+		baos.write(timeStampBuffer, 0, length);
+	}
+
+	protected void writeTimeStamp(OffsetDateTime timestamp)
+	{
+		// the time with its own offset
+		int length = TimeStampCodec.encode(timestamp, timeStampBuffer, 0);
+		baos.write(timeStampBuffer, 0, length);
 	}
 
 	protected void writeAddress(String address, int addressType, int addressLength) throws Exception
@@ -284,7 +272,7 @@ public class PduGenerator
 		//      - max length is based on the size of the UDH
 		//        for 7bit => maxLength = 160 - total UDH septets
 		// check if this message needs a concat
-		byte[] textSeptetsForDecodedText = PduUtils.stringToUnencodedSeptets(decodedText);
+		byte[] textSeptetsForDecodedText = PduUtils.stringToUnencodedSeptets(decodedText, pdu.getLockingShiftLanguage(), pdu.getSingleShiftLanguage());
 		int potentialUdhLength = PduUtils.getNumSeptetsForOctets(computePotentialUdhLength(pdu));
 
 		checkForConcat(pdu, 
@@ -331,7 +319,7 @@ public class PduGenerator
         
         // must use the unencoded septets not the actual string since
         // it is possible that some special characters in string are multi-septet
-        byte[] unencodedSeptets = PduUtils.stringToUnencodedSeptets(pdu.getDecodedText());
+        byte[] unencodedSeptets = PduUtils.stringToUnencodedSeptets(pdu.getDecodedText(), pdu.getLockingShiftLanguage(), pdu.getSingleShiftLanguage());
         
         maxParts = (unencodedSeptets.length / maxMessageLength) + 1;
  
@@ -468,6 +456,12 @@ public class PduGenerator
 	{
 		// generate all required PDUs for a given message
 		// mpRefNo comes from the ModemGateway
+		// SMS-SUBMIT is encoded and segmented in a single pass, note that
+		// the concat info is not added to the pdu in this case
+		if (pdu.getTpMti() == PduUtils.TP_MTI_SMS_SUBMIT)
+		{
+			return SubmitPduEncoder.encodeToHex((SmsSubmitPdu) pdu, mpRefNo);
+		}
 		ArrayList<String> pduList = new ArrayList<String>();
 		for (int i = 1; i <= pdu.getMpMaxNo(); i++)
 		{
@@ -542,7 +536,7 @@ public class PduGenerator
 				writeValidityPeriodInteger(pdu.getValidityPeriod());
 				break;
 			case PduUtils.TP_VPF_TIMESTAMP:
-				writeTimeStampStringForDate(pdu.getValidityDate());
+				writeTimeStamp(pdu.getValidityDateAsOffsetDateTime());
 				break;
 		}
 		// user data
@@ -565,7 +559,7 @@ public class PduGenerator
 		// data coding scheme
 		writeByte(pdu.getDataCodingScheme());
 		// timestamp
-		writeTimeStampStringForDate(pdu.getTimestamp());
+		writeTimeStamp(pdu.getTimestampAsOffsetDateTime());
 		// user data
 		// headers
 		writeUDData(pdu, mpRefNo, partNo);
@@ -582,9 +576,9 @@ public class PduGenerator
 		// destination address info
 		writeAddress(pdu.getAddress(), pdu.getAddressType(), pdu.getAddress().length());
 		// timestamp
-		writeTimeStampStringForDate(pdu.getTimestamp());
+		writeTimeStamp(pdu.getTimestampAsOffsetDateTime());
 		// discharge time(timestamp)
-		writeTimeStampStringForDate(pdu.getDischargeTime());
+		writeTimeStamp(pdu.getDischargeTimeAsOffsetDateTime());
 		// status
 		writeByte(pdu.getStatus());
 	}
@@ -1,6 +1,7 @@
 
 package org.ajwcc.pduUtils.gsm3040;
 
+import java.time.OffsetDateTime;
 import java.util.*;
 import org.ajwcc.pduUtils.gsm3040.ie.*;
 
@@ -54,59 +55,13 @@ public class PduParser
 		return retVal;
 	}
 
-	private Calendar readTimeStamp()
+	private OffsetDateTime readTimeStamp()
 	{
 		// reads timestamp info
 		// 7 bytes in semi-octet(BCD) style
-		int year = readSwappedNibbleBCDByte();
-		int month = readSwappedNibbleBCDByte();
-		int day = readSwappedNibbleBCDByte();
-		int hour = readSwappedNibbleBCDByte();
-		int minute = readSwappedNibbleBCDByte();
-		int second = readSwappedNibbleBCDByte();
-		// special treatment for timezone due to sign bit
-		// swap nibbles, clear the sign bit, convert remaining bits to BCD
-		int timestamp = readByte();
-		boolean negative = (timestamp & 0x08) == 0x08; // check bit 3
-		int timezone = PduUtils.swapNibbles(timestamp) & 0x7F; // remove last bit since this is just a sign
-		// time zone computation
-		TimeZone tz = null;
-		if (negative)
-		{
-			// bit 3 of unswapped value represents the sign (1 == negative, 0 == positive)
-			// when swapped this will now be bit 7 (128)
-			int bcdTimeZone = 0;
-			bcdTimeZone += (((timezone >>> 4) & 0xF) * 10);
-			bcdTimeZone += ((timezone & 0xF));
-			timezone = bcdTimeZone;
-			int totalMinutes = timezone * 15;
-			int hours = totalMinutes / 60;
-			int minutes = totalMinutes % 60;
-			String gmtString = "GMT-" + hours + ":" + (minutes < 10 ? "0" : "") + minutes;
-			//System.out.println(gmtString);
-			tz = TimeZone.getTimeZone(gmtString);
-		}
-		else
-		{
-			int bcdTimeZone = 0;
-			bcdTimeZone += ((timezone >>> 4) & 0xF) * 10;
-			bcdTimeZone += ((timezone & 0xF));
-			timezone = bcdTimeZone;
-			int totalMinutes = timezone * 15;
-			int hours = totalMinutes / 60;
-			int minutes = totalMinutes % 60;
-			String gmtString = "GMT+" + hours + ":" + (minutes < 10 ? "0" : "") + minutes;
-			//System.out.println(gmtString);            
-			tz = TimeZone.getTimeZone(gmtString);
-		}
-		Calendar cal = Calendar.getInstance(tz);
-		cal.set(Calendar.YEAR, year + 2000);
-		cal.set(Calendar.MONTH, month - 1);
-		cal.set(Calendar.DAY_OF_MONTH, day);
-		cal.set(Calendar.HOUR_OF_DAY, hour);
-		cal.set(Calendar.MINUTE, minute);
-		cal.set(Calendar.SECOND, second);
-		return cal;
+		OffsetDateTime timestamp = TimeStampCodec.decode(pduByteArray, position);
+		position += TimeStampCodec.LENGTH;
+		return timestamp;
 	}
 
 	private String readAddress(int addressLength, int addressType)
@@ -282,7 +237,7 @@ public class PduParser
 		int dcs = readByte();
 		pdu.setDataCodingScheme(dcs);
 		// timestamp
-		Calendar timestamp = readTimeStamp();
+		OffsetDateTime timestamp = readTimeStamp();
 		pdu.setTimestamp(timestamp);
 		// user data
 		parseUserData(pdu);
@@ -300,10 +255,10 @@ public class PduParser
 		pdu.setAddressType(addressType);
 		pdu.setAddress(destinationAddress);
 		// timestamp
-		Calendar timestamp = readTimeStamp();
+		OffsetDateTime timestamp = readTimeStamp();
 		pdu.setTimestamp(timestamp);
 		// discharge time(timestamp)
-		Calendar timestamp2 = readTimeStamp();
+		OffsetDateTime timestamp2 = readTimeStamp();
 		pdu.setDischargeTime(timestamp2);
 		// status
 		int status = readByte();
@@ -339,7 +294,7 @@ public class PduParser
 				pdu.setValidityPeriod(validityInt / 60); // pdu assumes hours
 				break;
 			case PduUtils.TP_VPF_TIMESTAMP:
-				Calendar validityDate = readTimeStamp();
+				OffsetDateTime validityDate = readTimeStamp();
 				pdu.setValidityTimestamp(validityDate);
 				break;
 		}
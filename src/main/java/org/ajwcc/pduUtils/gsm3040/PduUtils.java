@@ -296,6 +296,47 @@ public class PduUtils
 			'\u00E0', // LATIN SMALL LETTER A WITH GRAVE
 	};
 
+	// lookup tables for encoding, built from the alphabets above
+	// charToSeptet holds the septet for every char, characters of the
+	// extension table are marked with EXT_FLAG (they need an escape septet),
+	// characters that can't be encoded are replaced by a space and marked
+	// with UNMAPPED_FLAG
+	private static final int EXT_FLAG = 0x100;
+
+	private static final int UNMAPPED_FLAG = 0x200;
+
+	private static final short[] charToSeptet = new short[0x10000];
+
+	// fast path for ASCII text, -1 if the char needs the lookup in charToSeptet
+	private static final byte[] asciiToSeptet = new byte[0x80];
+
+	static
+	{
+		Arrays.fill(charToSeptet, (short) (UNMAPPED_FLAG | ' '));
+		for (int i = 0; i < stdAlphabet.length; i++)
+		{
+			charToSeptet[stdAlphabet[i]] = (short) i;
+		}
+		for (int i = 0; i < grcAlphabetRemapping.length; i++)
+		{
+			charToSeptet[grcAlphabetRemapping[i][0]] = charToSeptet[grcAlphabetRemapping[i][1]];
+		}
+		for (int i = 0; i < extAlphabet.length; i++)
+		{
+			charToSeptet[extAlphabet[i]] = (short) (EXT_FLAG | Integer.parseInt(extBytes[i].substring(2, 4), 16));
+		}
+		// LATIN CAPITAL LETTER C WITH CEDILLA is sent as LATIN SMALL LETTER C WITH CEDILLA
+		charToSeptet['\u00C7'] = charToSeptet['\u00E7'];
+		// the NBSP in the alphabet stands for the escape septet, a NBSP in
+		// the text can't be encoded
+		charToSeptet['\u00A0'] = (short) (UNMAPPED_FLAG | ' ');
+		for (int i = 0; i < asciiToSeptet.length; i++)
+		{
+			int septet = charToSeptet[i];
+			asciiToSeptet[i] = (septet & EXT_FLAG) == 0 ? (byte) septet : -1;
+		}
+	}
+
 	// ==================================================
 	// FIRST OCTET CONSTANTS
 	// ==================================================
@@ -684,15 +725,13 @@ public class PduUtils
 		}
 		else
 		{
-			// convert UDH octets as if they were encoded septets
-			// NOTE: DO NOT DISCARD THE LAST SEPTET IF IT IS ZERO
-			byte[] udhSeptets = PduUtils.encodedSeptetsToUnencodedSeptets(udhOctets, false);
-			// combine the two arrays and encode them as a whole
-			byte[] combined = new byte[udhSeptets.length + textSeptets.length];
-			System.arraycopy(udhSeptets, 0, combined, 0, udhSeptets.length);
-			System.arraycopy(textSeptets, 0, combined, udhSeptets.length, textSeptets.length);
-			// convert encoded byte[] to a PDU string
-			return unencodedSeptetsToEncodedSeptets(combined);
+			// the text starts at the first septet boundary after the UDH,
+			// the bits in between are fill bits
+			int udhSeptets = getNumSeptetsForOctets(udhOctets.length);
+			byte[] encoded = new byte[getNumOctetsForSeptets(udhSeptets + textSeptets.length)];
+			System.arraycopy(udhOctets, 0, encoded, 0, udhOctets.length);
+			packSeptets(textSeptets, 0, textSeptets.length, encoded, udhSeptets);
+			return encoded;
 		}
 	}
 
@@ -792,93 +831,226 @@ public class PduUtils
 	// from Java String to uncompressed septets (GSM characters)
 	public static byte[] stringToUnencodedSeptets(String s)
 	{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		int i, j, index;
-		char ch;
-		s = s.replace('\u00C7', // LATIN CAPITAL LETTER C WITH CEDILLA
-				'\u00E7' // LATIN SMALL LETTER C WITH CEDILLA
-		);
-		for (i = 0; i < s.length(); i++)
+		byte[] septets = new byte[getNumUnencodedSeptets(s)];
+		stringToUnencodedSeptets(s, septets, 0);
+		return septets;
+	}
+
+	// from Java String to uncompressed septets with the national language
+	// tables, language 0 is the default alphabet / extension table
+	public static byte[] stringToUnencodedSeptets(String s, int lockingShift, int singleShift)
+	{
+		if (lockingShift == NationalLanguageTables.DEFAULT && singleShift == NationalLanguageTables.DEFAULT)
+		{
+			return stringToUnencodedSeptets(s);
+		}
+		return NationalLanguageTables.stringToUnencodedSeptets(s, lockingShift, singleShift);
+	}
+
+	// from Java String to uncompressed septets, written to the given array
+	// the array must have room for getNumUnencodedSeptets(s) bytes
+	// returns the number of septets written
+	public static int stringToUnencodedSeptets(String s, byte[] septets, int offset)
+	{
+		int pos = offset;
+		int length = s.length();
+		for (int i = 0; i < length; i++)
 		{
-			ch = s.charAt(i);
-			index = -1;
-			for (j = 0; j < extAlphabet.length; j++)
-				if (extAlphabet[j] == ch)
+			char ch = s.charAt(i);
+			if (ch < 0x80)
+			{
+				byte septet = asciiToSeptet[ch];
+				if (septet >= 0)
 				{
-					index = j;
-					break;
+					septets[pos++] = septet;
+					continue;
 				}
-			if (index != -1) // An extended char...
+			}
+			int septet = charToSeptet[ch];
+			if ((septet & EXT_FLAG) != 0)
 			{
-				baos.write((byte) Integer.parseInt(extBytes[index].substring(0, 2), 16));
-				baos.write((byte) Integer.parseInt(extBytes[index].substring(2, 4), 16));
+				septets[pos++] = 0x1b;
 			}
-			else
-			// Maybe a standard char...
+			septets[pos++] = (byte) septet;
+		}
+		return pos - offset;
+	}
+
+	// number of uncompressed septets needed for the given text
+	// (characters of the extension table take 2 septets)
+	public static int getNumUnencodedSeptets(String s)
+	{
+		int length = s.length();
+		int count = length;
+		for (int i = 0; i < length; i++)
+		{
+			if ((charToSeptet[s.charAt(i)] & EXT_FLAG) != 0)
 			{
-				index = -1;
-				for (j = 0; j < stdAlphabet.length; j++)
-					if (stdAlphabet[j] == ch)
-					{
-						index = j;
-						baos.write((byte) j);
-						break;
-					}
-				if (index == -1) // Maybe a Greek Char...
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// access to the default alphabet for the national language tables
+	static char getDefaultChar(int septet)
+	{
+		return stdAlphabet[septet];
+	}
+
+	// septet of the char in the default alphabet, values above 0x7f are
+	// flagged, see isDefaultExtSeptet
+	static int getDefaultSeptet(char c)
+	{
+		return charToSeptet[c];
+	}
+
+	static boolean isDefaultExtSeptet(int septet)
+	{
+		return (septet & (EXT_FLAG | UNMAPPED_FLAG)) == EXT_FLAG;
+	}
+
+	// true if the char is in the default alphabet or the extension table
+	static boolean isDefaultEncodable(char c)
+	{
+		return (charToSeptet[c] & UNMAPPED_FLAG) == 0;
+	}
+
+	// number of uncompressed septets needed for the given text, or -1 if
+	// the text contains characters that can't be encoded in 7bit
+	public static int getNumUnencodedSeptetsIfEncodable(String s)
+	{
+		int length = s.length();
+		int count = length;
+		for (int i = 0; i < length; i++)
+		{
+			int septet = charToSeptet[s.charAt(i)];
+			if (septet > 0x7f)
+			{
+				if ((septet & UNMAPPED_FLAG) != 0)
 				{
-					for (j = 0; j < grcAlphabetRemapping.length; j++)
-						if (grcAlphabetRemapping[j][0] == ch)
-						{
-							index = j;
-							ch = grcAlphabetRemapping[j][1];
-							break;
-						}
-					if (index != -1)
-					{
-						for (j = 0; j < stdAlphabet.length; j++)
-							if (stdAlphabet[j] == ch)
-							{
-								index = j;
-								baos.write((byte) j);
-								break;
-							}
-					}
-					else
-					// Unknown char replacement...
-					{
-						baos.write((byte) ' ');
-					}
+					return -1;
 				}
+				count++;
 			}
 		}
-		return baos.toByteArray();
+		return count;
 	}
 
 	// from compress unencoded septets
 	public static byte[] unencodedSeptetsToEncodedSeptets(byte[] septetBytes)
 	{
-		byte[] txtBytes;
-		byte[] txtSeptets;
-		int txtBytesLen;
-		BitSet bits;
-		int i, j;
-		txtBytes = septetBytes;
-		txtBytesLen = txtBytes.length;
-		bits = new BitSet();
-		for (i = 0; i < txtBytesLen; i++)
-			for (j = 0; j < 7; j++)
-				if ((txtBytes[i] & (1 << j)) != 0) bits.set((i * 7) + j);
-		// big diff here
-		int encodedSeptetByteArrayLength = txtBytesLen * 7 / 8 + ((txtBytesLen * 7 % 8 != 0) ? 1 : 0);
-		txtSeptets = new byte[encodedSeptetByteArrayLength];
-		for (i = 0; i < encodedSeptetByteArrayLength; i++)
+		byte[] encoded = new byte[getNumOctetsForSeptets(septetBytes.length)];
+		packSeptets(septetBytes, 0, septetBytes.length, encoded, 0);
+		return encoded;
+	}
+
+	// packs the septets into the octets, starting at the given septet position
+	// bits of the octets before that position are preserved
+	// the octets must have room for getNumOctetsForSeptets(septetPos + length) bytes
+	public static void packSeptets(byte[] septets, int offset, int length, byte[] octets, int septetPos)
+	{
+		packSeptets(septets, offset, length, octets, 0, septetPos);
+	}
+
+	// same as above, the septet position is counted from octets[octetOffset]
+	public static void packSeptets(byte[] septets, int offset, int length, byte[] octets, int octetOffset, int septetPos)
+	{
+		int end = offset + length;
+		int i = offset;
+		int bitPos = septetPos * 7;
+		int out = octetOffset + (bitPos >> 3);
+		int accBits = bitPos & 7;
+		int acc = accBits != 0 ? octets[out] & ((1 << accBits) - 1) : 0;
+		// single septets until the output is byte aligned
+		while (i < end && accBits != 0)
 		{
-			for (j = 0; j < 8; j++)
+			acc |= (septets[i++] & 0x7f) << accBits;
+			accBits += 7;
+			if (accBits >= 8)
 			{
-				txtSeptets[i] |= (byte) ((bits.get((i * 8) + j) ? 1 : 0) << j);
+				octets[out++] = (byte) acc;
+				acc >>>= 8;
+				accBits -= 8;
 			}
 		}
-		return txtSeptets;
+		// 8 septets make 7 octets
+		while (end - i >= 8)
+		{
+			long word = 0;
+			for (int j = 0; j < 8; j++)
+			{
+				word |= (long) (septets[i++] & 0x7f) << (j * 7);
+			}
+			for (int j = 0; j < 7; j++)
+			{
+				octets[out++] = (byte) word;
+				word >>>= 8;
+			}
+		}
+		while (i < end)
+		{
+			acc |= (septets[i++] & 0x7f) << accBits;
+			accBits += 7;
+			if (accBits >= 8)
+			{
+				octets[out++] = (byte) acc;
+				acc >>>= 8;
+				accBits -= 8;
+			}
+		}
+		if (accBits > 0)
+		{
+			octets[out] = (byte) acc;
+		}
+	}
+
+	// unpacks the given number of septets from the octets
+	// septets beyond the end of the octets are 0
+	public static void unpackSeptets(byte[] octets, byte[] septets, int count)
+	{
+		unpackSeptets(octets, 0, octets.length, septets, count);
+	}
+
+	// unpacks the septets from the octets from octetOffset up to
+	// octetOffset + octetLength
+	public static void unpackSeptets(byte[] octets, int octetOffset, int octetLength, byte[] septets, int count)
+	{
+		int in = octetOffset;
+		int end = octetOffset + octetLength;
+		int i = 0;
+		// 7 octets make 8 septets
+		while (count - i >= 8 && end - in >= 7)
+		{
+			long word = 0;
+			for (int j = 0; j < 7; j++)
+			{
+				word |= (long) (octets[in++] & 0xff) << (j * 8);
+			}
+			for (int j = 0; j < 8; j++)
+			{
+				septets[i++] = (byte) (word & 0x7f);
+				word >>>= 7;
+			}
+		}
+		int acc = 0;
+		int accBits = 0;
+		while (i < count)
+		{
+			if (accBits < 7 && in < end)
+			{
+				acc |= (octets[in++] & 0xff) << accBits;
+				accBits += 8;
+			}
+			septets[i++] = (byte) (acc & 0x7f);
+			acc >>>= 7;
+			accBits -= 7;
+		}
+	}
+
+	public static int getNumOctetsForSeptets(int numSeptets)
+	{
+		return (numSeptets * 7 + 7) / 8;
 	}
 
 	public static int getNumMultiCharsInSeptets(byte[] bytes)
@@ -925,6 +1097,16 @@ public class PduUtils
 		return text.toString();
 	}
 
+	// from GSM characters with the national language tables to java string
+	public static String unencodedSeptetsToString(byte[] bytes, int lockingShift, int singleShift)
+	{
+		if (lockingShift == NationalLanguageTables.DEFAULT && singleShift == NationalLanguageTables.DEFAULT)
+		{
+			return unencodedSeptetsToString(bytes);
+		}
+		return NationalLanguageTables.unencodedSeptetsToString(bytes, lockingShift, singleShift);
+	}
+
 	public static String encodedSeptetsToString(byte[] encodedSeptets)
 	{
 		return unencodedSeptetsToString(encodedSeptetsToUnencodedSeptets(encodedSeptets));
@@ -944,38 +1126,8 @@ public class PduUtils
 
 	public static byte[] encodedSeptetsToUnencodedSeptets(byte[] octetBytes, boolean discardLast)
 	{
-		byte newBytes[];
-		BitSet bitSet;
-		int i, j, value1, value2;
-		bitSet = new BitSet(octetBytes.length * 8);
-		value1 = 0;
-		for (i = 0; i < octetBytes.length; i++)
-			for (j = 0; j < 8; j++)
-			{
-				value1 = (i * 8) + j;
-				if ((octetBytes[i] & (1 << j)) != 0) bitSet.set(value1);
-			}
-		value1++;
-		// this is a bit count NOT a byte count
-		value2 = value1 / 7 + ((value1 % 7 != 0) ? 1 : 0); // big diff here
-		//System.out.println(octetBytes.length);
-		//System.out.println(value1+" --> "+value2);
-		if (value2 == 0) value2++;
-		newBytes = new byte[value2];
-		for (i = 0; i < value2; i++)
-		{
-			for (j = 0; j < 7; j++)
-			{
-				if ((value1 + 1) > (i * 7 + j))
-				{
-					if (bitSet.get(i * 7 + j))
-					{
-						newBytes[i] |= (byte) (1 << j);
-					}
-				}
-			}
-		}
-		if (discardLast && octetBytes.length * 8 % 7 > 0)
+		int count = Math.max(1, getNumSeptetsForOctets(octetBytes.length));
+		if (discardLast && octetBytes.length * 8 % 7 > 0 && count > 1)
 		{
 			// when decoding a 7bit encoded string 
 			// the last septet may become 0, this should be discarded
@@ -983,25 +1135,21 @@ public class PduUtils
 			// original string
 			// this is only done for decoding 7bit encoded text NOT for
 			// reversing octets to septets (e.g. for the encoding the UDH)
-			if (newBytes[newBytes.length - 1] == 0)
+			int lastBits = octetBytes.length * 8 - (count - 1) * 7;
+			if ((octetBytes[octetBytes.length - 1] & 0xff) >>> (8 - lastBits) == 0)
 			{
-				byte[] retVal = new byte[newBytes.length - 1];
-				System.arraycopy(newBytes, 0, retVal, 0, retVal.length);
-				return retVal;
+				count--;
 			}
 		}
-		return newBytes;
+		byte[] septets = new byte[count];
+		unpackSeptets(octetBytes, septets, count);
+		return septets;
 	}
 
 	// converts a PDU style string to a byte array
 	public static byte[] pduToBytes(String s)
 	{
-		byte[] bytes = new byte[s.length() / 2];
-		for (int i = 0; i < s.length(); i += 2)
-		{
-			bytes[i / 2] = (byte) (Integer.parseInt(s.substring(i, i + 2), 16));
-		}
-		return bytes;
+		return HexCodec.decode(s);
 	}
 
 	// converts a PDU style string to a bit string
@@ -1013,12 +1161,7 @@ public class PduUtils
 	// converts a byte array to PDU style string
 	public static String bytesToPdu(byte[] bytes)
 	{
-		StringBuffer sb = new StringBuffer();
-		for (int i = 0; i < bytes.length; i++)
-		{
-			sb.append(byteToPdu(bytes[i] & 0xFF));
-		}
-		return sb.toString();
+		return HexCodec.encode(bytes);
 	}
 
 	// converts a byte array to a bit string
@@ -1053,13 +1196,6 @@ public class PduUtils
 
 	public static String byteToPdu(int b)
 	{
-		StringBuffer sb = new StringBuffer();
-		String s = Integer.toHexString(b & 0xFF);
-		if (s.length() == 1)
-		{
-			sb.append("0");
-		}
-		sb.append(s);
-		return sb.toString().toUpperCase();
+		return HexCodec.encode(b);
 	}
 }
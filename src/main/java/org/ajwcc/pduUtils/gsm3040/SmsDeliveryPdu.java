@@ -1,6 +1,7 @@
 
 package org.ajwcc.pduUtils.gsm3040;
 
+import java.time.OffsetDateTime;
 import java.util.*;
 
 //PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
@@ -29,23 +30,33 @@ public class SmsDeliveryPdu extends Pdu
 	// ==================================================
 	// TIMESTAMP
 	// ==================================================
-	private Calendar timestamp;
+	private OffsetDateTime timestamp;
 
-	public void setTimestamp(Calendar timestamp)
+	public void setTimestamp(OffsetDateTime timestamp)
 	{
 		this.timestamp = timestamp;
 	}
 
+	public void setTimestamp(Calendar timestamp)
+	{
+		this.timestamp = toOffsetDateTime(timestamp);
+	}
+
 	public Date getTimestamp()
 	{
-		return this.timestamp.getTime();
+		return toDate(this.timestamp);
 	}
 	
     public Calendar getTimestampAsCalendar()
     {
-        return this.timestamp;
+        return toCalendar(this.timestamp);
     }
 
+	public OffsetDateTime getTimestampAsOffsetDateTime()
+	{
+		return this.timestamp;
+	}
+
 	// ==================================================
 	// FIRST OCTET UTILITIES
 	// ==================================================
@@ -101,7 +112,7 @@ public class SmsDeliveryPdu extends Pdu
 		sb.append("TP-DCS: " + PduUtils.byteToPdu(getDataCodingScheme()) + " (" + PduUtils.decodeDataCodingScheme(this) + ") (" + PduUtils.byteToBits((byte) getDataCodingScheme()) + ")");
 		sb.append("\n");
 		// timestamp
-		sb.append("TP-SCTS: " + formatTimestamp(getTimestampAsCalendar()));
+		sb.append("TP-SCTS: " + formatTimestamp(getTimestampAsOffsetDateTime()));
 		sb.append("\n");
 		return sb.toString();
 	}
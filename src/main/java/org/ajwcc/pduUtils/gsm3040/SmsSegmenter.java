@@ -0,0 +1,102 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// splits the user data of a message into the parts of a multi-part message
+// in a single pass over the already encoded data
+// the result is an array of part boundaries, part n (0 based) covers the
+// units from bounds[n] up to bounds[n + 1]
+// a part never ends between the escape septet and the character of the
+// extension table (7bit), or between the two chars of a surrogate pair (ucs2)
+public final class SmsSegmenter
+{
+	private static final byte ESCAPE = 0x1b;
+
+	private SmsSegmenter()
+	{
+	}
+
+	// unencoded septets
+	// singleLength is the maximum length without a concat header,
+	// partLength the maximum length of a part of a multi-part message
+	public static int[] segmentSeptets(byte[] septets, int length, int singleLength, int partLength)
+	{
+		if (length <= singleLength) { return new int[] { 0, length }; }
+		int[] bounds = new int[length / (partLength - 1) + 2];
+		int parts = 0;
+		int partStart = 0;
+		int i = 0;
+		while (i < length)
+		{
+			int charLength = septets[i] == ESCAPE && i + 1 < length ? 2 : 1;
+			if (i + charLength - partStart > partLength)
+			{
+				bounds[++parts] = i;
+				partStart = i;
+			}
+			i += charLength;
+		}
+		bounds[++parts] = length;
+		return trim(bounds, parts);
+	}
+
+	// ucs2 text, lengths are in chars
+	public static int[] segmentChars(CharSequence text, int singleLength, int partLength)
+	{
+		int length = text.length();
+		if (length <= singleLength) { return new int[] { 0, length }; }
+		int[] bounds = new int[length / (partLength - 1) + 2];
+		int parts = 0;
+		int partStart = 0;
+		int i = 0;
+		while (i < length)
+		{
+			int charLength = Character.isHighSurrogate(text.charAt(i)) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+			if (i + charLength - partStart > partLength)
+			{
+				bounds[++parts] = i;
+				partStart = i;
+			}
+			i += charLength;
+		}
+		bounds[++parts] = length;
+		return trim(bounds, parts);
+	}
+
+	// binary data, every octet is a boundary
+	public static int[] segmentOctets(int length, int singleLength, int partLength)
+	{
+		if (length <= singleLength) { return new int[] { 0, length }; }
+		int parts = (length + partLength - 1) / partLength;
+		int[] bounds = new int[parts + 1];
+		for (int i = 1; i < parts; i++)
+		{
+			bounds[i] = i * partLength;
+		}
+		bounds[parts] = length;
+		return bounds;
+	}
+
+	private static int[] trim(int[] bounds, int parts)
+	{
+		if (bounds.length == parts + 1) { return bounds; }
+		int[] result = new int[parts + 1];
+		System.arraycopy(bounds, 0, result, 0, parts + 1);
+		return result;
+	}
+}
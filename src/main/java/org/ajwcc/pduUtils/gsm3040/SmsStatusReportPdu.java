@@ -1,6 +1,7 @@
 
 package org.ajwcc.pduUtils.gsm3040;
 
+import java.time.OffsetDateTime;
 import java.util.*;
 
 //PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
@@ -87,43 +88,63 @@ public class SmsStatusReportPdu extends Pdu
 	// ==================================================
 	// TIMESTAMP
 	// ==================================================
-	private Calendar timestamp;
+	private OffsetDateTime timestamp;
 
-	public void setTimestamp(Calendar timestamp)
+	public void setTimestamp(OffsetDateTime timestamp)
 	{
 		this.timestamp = timestamp;
 	}
 
+	public void setTimestamp(Calendar timestamp)
+	{
+		this.timestamp = toOffsetDateTime(timestamp);
+	}
+
 	public Date getTimestamp()
 	{
-		return this.timestamp.getTime();
+		return toDate(this.timestamp);
 	}
 	
     public Calendar getTimestampAsCalendar()
     {
-        return this.timestamp;
+        return toCalendar(this.timestamp);
     }
+
+	public OffsetDateTime getTimestampAsOffsetDateTime()
+	{
+		return this.timestamp;
+	}
 	
 
 	// ==================================================
 	// DISCHARGE TIME
 	// ==================================================
-	private Calendar dischargeTime;
+	private OffsetDateTime dischargeTime;
 
-	public void setDischargeTime(Calendar myDischargeTime)
+	public void setDischargeTime(OffsetDateTime myDischargeTime)
 	{
 		this.dischargeTime = myDischargeTime;
 	}
 
+	public void setDischargeTime(Calendar myDischargeTime)
+	{
+		this.dischargeTime = toOffsetDateTime(myDischargeTime);
+	}
+
 	public Date getDischargeTime()
 	{
-		return this.dischargeTime.getTime();
+		return toDate(this.dischargeTime);
 	}
 	
     public Calendar getDischargeTimeAsCalendar()
     {
-        return this.dischargeTime;
+        return toCalendar(this.dischargeTime);
     }
+
+	public OffsetDateTime getDischargeTimeAsOffsetDateTime()
+	{
+		return this.dischargeTime;
+	}
 	
 
 	@Override
@@ -151,10 +172,10 @@ public class SmsStatusReportPdu extends Pdu
 		
 		sb.append("\n");
 		// timestamp
-		sb.append("TP-SCTS: " + formatTimestamp(getTimestampAsCalendar()));
+		sb.append("TP-SCTS: " + formatTimestamp(getTimestampAsOffsetDateTime()));
 		sb.append("\n");
 		// discharge time
-		sb.append("Discharge Time: " + formatTimestamp(getDischargeTimeAsCalendar()));
+		sb.append("Discharge Time: " + formatTimestamp(getDischargeTimeAsOffsetDateTime()));
 		sb.append("\n");
 		// status
 		sb.append("Status: " + PduUtils.byteToPdu(getStatus()));
@@ -1,6 +1,7 @@
 
 package org.ajwcc.pduUtils.gsm3040;
 
+import java.time.OffsetDateTime;
 import java.util.*;
 
 //PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
@@ -81,7 +82,7 @@ public class SmsSubmitPdu extends Pdu
 	// which one is used depends of validity period format (TP-VPF)
 	private int validityPeriod = -1;
 
-	private Calendar validityPeriodTimeStamp;
+	private OffsetDateTime validityPeriodTimeStamp;
 
 	public int getValidityPeriod()
 	{
@@ -93,19 +94,29 @@ public class SmsSubmitPdu extends Pdu
 		this.validityPeriod = validityPeriod;
 	}
 
-	public void setValidityTimestamp(Calendar date)
+	public void setValidityTimestamp(OffsetDateTime date)
 	{
 		this.validityPeriodTimeStamp = date;
 	}
 
+	public void setValidityTimestamp(Calendar date)
+	{
+		this.validityPeriodTimeStamp = toOffsetDateTime(date);
+	}
+
 	public Date getValidityDate()
 	{
-		return validityPeriodTimeStamp.getTime();
+		return toDate(validityPeriodTimeStamp);
 	}
 
     public Calendar getValidityDateAsCalendar()
 	{
-	    return validityPeriodTimeStamp;
+	    return toCalendar(validityPeriodTimeStamp);
+	}
+
+	public OffsetDateTime getValidityDateAsOffsetDateTime()
+	{
+		return validityPeriodTimeStamp;
 	}
 
 	
@@ -146,7 +157,7 @@ public class SmsSubmitPdu extends Pdu
 				sb.append("TP-VPF: " + getValidityPeriod() + " hours");
 				break;
 			case PduUtils.TP_VPF_TIMESTAMP:
-				sb.append("TP-VPF: " + formatTimestamp(getValidityDateAsCalendar()));
+				sb.append("TP-VPF: " + formatTimestamp(getValidityDateAsOffsetDateTime()));
 				break;
 		}
 		sb.append("\n");
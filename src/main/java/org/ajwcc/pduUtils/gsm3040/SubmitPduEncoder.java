@@ -0,0 +1,384 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.ajwcc.pduUtils.gsm3040.ie.ConcatInformationElement;
+import org.ajwcc.pduUtils.gsm3040.ie.InformationElement;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// encodes the parts of an SMS-SUBMIT into a caller supplied buffer
+// the user data is encoded and split into parts once per message
+// unlike the PduGenerator this class has no state and does not modify the
+// pdu, the concat information of a multi-part message is only written to
+// the output, so the same pdu may be encoded by several threads at once
+public final class SubmitPduEncoder
+{
+	// maximum size of an encoded part
+	// SMSC info (12) + first octet, message reference (2) + destination
+	// address (12) + protocol id, dcs (2) + validity period (7) + udl (1)
+	// + user data (140)
+	public static final int MAX_PDU_LENGTH = 176;
+
+	private SubmitPduEncoder()
+	{
+	}
+
+	// ==================================================
+	// PUBLIC API
+	// ==================================================
+	public static int getPartCount(SmsSubmitPdu pdu)
+	{
+		return new Segments(pdu).parts;
+	}
+
+	// encodes all parts of the message as hex strings
+	// mpRefNo is only used if the message needs a concat header
+	public static List<String> encodeToHex(SmsSubmitPdu pdu, int mpRefNo)
+	{
+		Segments segments = new Segments(pdu);
+		List<String> pduList = new ArrayList<String>(segments.parts);
+		byte[] buffer = new byte[MAX_PDU_LENGTH];
+		for (int partNo = 1; partNo <= segments.parts; partNo++)
+		{
+			int length = encode(pdu, segments, mpRefNo, partNo, buffer, 0);
+			pduList.add(HexCodec.encode(buffer, 0, length));
+		}
+		return pduList;
+	}
+
+	// encodes part partNo (1 based) of the message into the array
+	// the array must have room for MAX_PDU_LENGTH bytes
+	// returns the number of bytes written
+	public static int encode(SmsSubmitPdu pdu, int mpRefNo, int partNo, byte[] dst, int offset)
+	{
+		return encode(pdu, new Segments(pdu), mpRefNo, partNo, dst, offset);
+	}
+
+	// encodes part partNo (1 based) of the message at the position of the
+	// buffer, and advances the position
+	// returns the number of bytes written
+	public static int encode(SmsSubmitPdu pdu, int mpRefNo, int partNo, ByteBuffer dst)
+	{
+		if (dst.hasArray() && dst.remaining() >= MAX_PDU_LENGTH)
+		{
+			int length = encode(pdu, mpRefNo, partNo, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + length);
+			return length;
+		}
+		// direct or small buffer, throws a BufferOverflowException if the
+		// part does not fit
+		byte[] buffer = new byte[MAX_PDU_LENGTH];
+		int length = encode(pdu, mpRefNo, partNo, buffer, 0);
+		dst.put(buffer, 0, length);
+		return length;
+	}
+
+	// ==================================================
+	// SEGMENTATION
+	// ==================================================
+	// the user data of a message and how it is split into parts, computed
+	// once per message
+	private static final class Segments
+	{
+		final int encoding;
+
+		// septets for 7bit, octets for 8bit
+		final byte[] data;
+
+		// text for ucs2
+		final String text;
+
+		// length of the data in septets, octets or characters
+		final int length;
+
+		// the concat information element of the pdu, if present
+		final ConcatInformationElement concatInfo;
+
+		// true if the message needs a concat header
+		final boolean concat;
+
+		// true if a concat information element has to be added
+		final boolean addConcat;
+
+		// value of the UDHL field, 0 if there is no UDH
+		final int udhLength;
+
+		// part boundaries, see SmsSegmenter
+		final int[] bounds;
+
+		final int parts;
+
+		Segments(SmsSubmitPdu pdu)
+		{
+			encoding = PduUtils.extractDcsEncoding(pdu.getDataCodingScheme());
+			concatInfo = pdu.getConcatInfo();
+			int ieLength = pdu.getUDHLength();
+			int concatLength = ConcatInformationElement.getDefaultConcatLength();
+			switch (encoding)
+			{
+				case PduUtils.DCS_ENCODING_7BIT:
+					data = PduUtils.stringToUnencodedSeptets(pdu.getDecodedText(), pdu.getLockingShiftLanguage(), pdu.getSingleShiftLanguage());
+					text = null;
+					length = data.length;
+					break;
+				case PduUtils.DCS_ENCODING_8BIT:
+					data = pdu.isBinary() ? pdu.getDataBytes() : PduUtils.encode8bitUserData(pdu.getDecodedText());
+					text = null;
+					length = data.length;
+					break;
+				case PduUtils.DCS_ENCODING_UCS2:
+					data = null;
+					text = pdu.getDecodedText();
+					length = text.length();
+					break;
+				default:
+					throw new RuntimeException("Invalid DCS encoding: " + encoding);
+			}
+			int singleLength = getMaxLength(totalUdhLength(ieLength));
+			concat = length > singleLength;
+			addConcat = concat && concatInfo == null;
+			udhLength = addConcat ? ieLength + concatLength : ieLength;
+			int partLength = getMaxLength(totalUdhLength(udhLength));
+			switch (encoding)
+			{
+				case PduUtils.DCS_ENCODING_7BIT:
+					bounds = SmsSegmenter.segmentSeptets(data, length, singleLength, partLength);
+					break;
+				case PduUtils.DCS_ENCODING_8BIT:
+					bounds = SmsSegmenter.segmentOctets(length, singleLength, partLength);
+					break;
+				default:
+					bounds = SmsSegmenter.segmentChars(text, singleLength, partLength);
+			}
+			parts = bounds.length - 1;
+		}
+
+		private static int totalUdhLength(int udhLength)
+		{
+			// also takes into account the field holding the length itself
+			return udhLength == 0 ? 0 : udhLength + 1;
+		}
+
+		// maximum data length for a part with the given UDH
+		private int getMaxLength(int totalUdhLength)
+		{
+			switch (encoding)
+			{
+				case PduUtils.DCS_ENCODING_7BIT:
+					return 160 - PduUtils.getNumSeptetsForOctets(totalUdhLength);
+				case PduUtils.DCS_ENCODING_8BIT:
+					return 140 - totalUdhLength;
+				default:
+					return (140 - totalUdhLength) / 2;
+			}
+		}
+	}
+
+	// ==================================================
+	// ENCODING
+	// ==================================================
+	private static int encode(SmsSubmitPdu pdu, Segments segments, int mpRefNo, int partNo, byte[] dst, int offset)
+	{
+		if (partNo < 1 || partNo > segments.parts) { throw new RuntimeException("Invalid partNo: " + partNo + ", maxParts=" + segments.parts); }
+		int pos = offset;
+		// SMSC address info
+		if (pdu.getSmscAddress() != null)
+		{
+			pos = writeBCDAddress(pdu.getSmscAddress(), pdu.getSmscAddressType(), pdu.getSmscInfoLength(), dst, pos);
+		}
+		else
+		{
+			dst[pos++] = 0;
+		}
+		// first octet, the UDHI is needed if a concat header is added
+		int firstOctet = pdu.getFirstOctet();
+		if (segments.udhLength > 0)
+		{
+			firstOctet |= PduUtils.TP_UDHI_WITH_UDH;
+		}
+		dst[pos++] = (byte) firstOctet;
+		// message reference
+		dst[pos++] = (byte) pdu.getMessageReference();
+		// destination address info
+		pos = writeAddress(pdu.getAddress(), pdu.getAddressType(), dst, pos);
+		// protocol id
+		dst[pos++] = (byte) pdu.getProtocolIdentifier();
+		// data coding scheme
+		dst[pos++] = (byte) pdu.getDataCodingScheme();
+		// validity period
+		switch (pdu.getTpVpf())
+		{
+			case PduUtils.TP_VPF_INTEGER:
+				dst[pos++] = (byte) getValidityPeriodInteger(pdu.getValidityPeriod());
+				break;
+			case PduUtils.TP_VPF_TIMESTAMP:
+				pos = TimeStampCodec.encode(pdu.getValidityDateAsOffsetDateTime(), dst, pos);
+				break;
+		}
+		// user data
+		return writeUserData(pdu, segments, mpRefNo, partNo, dst, pos) - offset;
+	}
+
+	private static int writeUserData(SmsSubmitPdu pdu, Segments segments, int mpRefNo, int partNo, byte[] dst, int pos)
+	{
+		int start = segments.bounds[partNo - 1];
+		int length = segments.bounds[partNo] - start;
+		int totalUdhLength = segments.udhLength == 0 ? 0 : segments.udhLength + 1;
+		// udLength is a septet count for 7bit, an octet count for 8bit/ucs2
+		switch (segments.encoding)
+		{
+			case PduUtils.DCS_ENCODING_7BIT:
+			{
+				int udhSeptets = PduUtils.getNumSeptetsForOctets(totalUdhLength);
+				dst[pos++] = (byte) (udhSeptets + length);
+				int udStart = pos;
+				pos = writeUDH(pdu, segments, mpRefNo, partNo, dst, pos);
+				if (udhSeptets * 7 > totalUdhLength * 8)
+				{
+					// clear the fill bits, the buffer may be reused
+					dst[pos] = 0;
+				}
+				PduUtils.packSeptets(segments.data, start, length, dst, udStart, udhSeptets);
+				return udStart + PduUtils.getNumOctetsForSeptets(udhSeptets + length);
+			}
+			case PduUtils.DCS_ENCODING_8BIT:
+			{
+				dst[pos++] = (byte) (totalUdhLength + length);
+				pos = writeUDH(pdu, segments, mpRefNo, partNo, dst, pos);
+				System.arraycopy(segments.data, start, dst, pos, length);
+				return pos + length;
+			}
+			default:
+			{
+				dst[pos++] = (byte) (totalUdhLength + length * 2);
+				pos = writeUDH(pdu, segments, mpRefNo, partNo, dst, pos);
+				// UTF-16 Big-Endian, no Byte Order Marker
+				for (int i = start; i < start + length; i++)
+				{
+					char c = segments.text.charAt(i);
+					dst[pos++] = (byte) (c >>> 8);
+					dst[pos++] = (byte) c;
+				}
+				return pos;
+			}
+		}
+	}
+
+	private static int writeUDH(SmsSubmitPdu pdu, Segments segments, int mpRefNo, int partNo, byte[] dst, int pos)
+	{
+		if (segments.udhLength == 0)
+		{
+			return pos;
+		}
+		dst[pos++] = (byte) segments.udhLength;
+		for (Iterator<InformationElement> ieIterator = pdu.getInformationElements(); ieIterator.hasNext();)
+		{
+			InformationElement ie = ieIterator.next();
+			if (ie == segments.concatInfo && segments.concat)
+			{
+				// existing concat info gets the values of this part
+				pos = writeConcatInfo(ie.getIdentifier(), mpRefNo, segments.parts, partNo, dst, pos);
+			}
+			else
+			{
+				byte[] data = ie.getData();
+				dst[pos++] = (byte) ie.getIdentifier();
+				dst[pos++] = (byte) data.length;
+				System.arraycopy(data, 0, dst, pos, data.length);
+				pos += data.length;
+			}
+		}
+		if (segments.addConcat)
+		{
+			pos = writeConcatInfo(ConcatInformationElement.getDefaultConcatType(), mpRefNo, segments.parts, partNo, dst, pos);
+		}
+		return pos;
+	}
+
+	private static int writeConcatInfo(int identifier, int mpRefNo, int mpMaxNo, int mpSeqNo, byte[] dst, int pos)
+	{
+		dst[pos++] = (byte) identifier;
+		if (identifier == ConcatInformationElement.CONCAT_16BIT_REF)
+		{
+			dst[pos++] = 4;
+			dst[pos++] = (byte) (mpRefNo >>> 8);
+		}
+		else
+		{
+			dst[pos++] = 3;
+		}
+		dst[pos++] = (byte) mpRefNo;
+		dst[pos++] = (byte) mpMaxNo;
+		dst[pos++] = (byte) mpSeqNo;
+		return pos;
+	}
+
+	private static int writeAddress(String address, int addressType, byte[] dst, int pos)
+	{
+		if (PduUtils.extractAddressType(addressType) == PduUtils.ADDRESS_TYPE_ALPHANUMERIC)
+		{
+			byte[] textSeptets = PduUtils.stringToUnencodedSeptets(address);
+			int octets = PduUtils.getNumOctetsForSeptets(textSeptets.length);
+			// ADDRESS LENGTH - the semi-octet count
+			dst[pos++] = (byte) (octets * 2);
+			// ADDRESS TYPE
+			dst[pos++] = (byte) addressType;
+			// ADDRESS TEXT
+			PduUtils.packSeptets(textSeptets, 0, textSeptets.length, dst, pos, 0);
+			return pos + octets;
+		}
+		return writeBCDAddress(address, addressType, address.length(), dst, pos);
+	}
+
+	private static int writeBCDAddress(String address, int addressType, int addressLength, byte[] dst, int pos)
+	{
+		// ADDRESS LENGTH - either an octet count or semi-octet count
+		dst[pos++] = (byte) addressLength;
+		// ADDRESS TYPE
+		dst[pos++] = (byte) addressType;
+		// ADDRESS NUMBERS, swapped nibbles, padded with F if the length is odd
+		int length = address.length();
+		for (int i = 0; i < length; i += 2)
+		{
+			int low = getDigit(address, i);
+			int high = i + 1 < length ? getDigit(address, i + 1) : 0x0F;
+			dst[pos++] = (byte) ((high << 4) | low);
+		}
+		return pos;
+	}
+
+	private static int getDigit(String address, int index)
+	{
+		int digit = Character.digit(address.charAt(index), 16);
+		if (digit < 0) { throw new NumberFormatException("Invalid digit in address: " + address); }
+		return digit;
+	}
+
+	// validity period conversion from hours to the proper integer
+	private static int getValidityPeriodInteger(int validityPeriod)
+	{
+		if (validityPeriod == -1) return 0xFF;
+		if (validityPeriod <= 12) return (validityPeriod * 12) - 1;
+		if (validityPeriod <= 24) return (((validityPeriod - 12) * 2) + 143);
+		if (validityPeriod <= 720) return (validityPeriod / 24) + 166;
+		return (validityPeriod / 168) + 192;
+	}
+}
@@ -0,0 +1,116 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+// reads and writes the 7 octet timestamps of the TP-SCTS, TP-DT and
+// absolute TP-VP fields: year, month, day, hour, minute, second and time
+// zone as swapped BCD digits, the time zone in quarters of an hour with the
+// sign in bit 3
+// the zone offsets are created once, so decoding a timestamp allocates no
+// Calendar or TimeZone
+public final class TimeStampCodec
+{
+	public static final int LENGTH = 7;
+
+	// ZoneOffset is limited to +/-18:00, larger values are clamped
+	private static final int MAX_QUARTERS = 72;
+
+	private static final ZoneOffset[] OFFSETS = new ZoneOffset[2 * MAX_QUARTERS + 1];
+
+	static
+	{
+		for (int i = 0; i < OFFSETS.length; i++)
+		{
+			OFFSETS[i] = ZoneOffset.ofTotalSeconds((i - MAX_QUARTERS) * 15 * 60);
+		}
+	}
+
+	private TimeStampCodec()
+	{
+	}
+
+	// the cached offset for the given number of quarter hours
+	public static ZoneOffset getOffset(int quarters)
+	{
+		return OFFSETS[Math.max(-MAX_QUARTERS, Math.min(MAX_QUARTERS, quarters)) + MAX_QUARTERS];
+	}
+
+	public static OffsetDateTime decode(byte[] src, int pos)
+	{
+		int year = readSwappedBCD(src[pos]) + 2000;
+		int month = readSwappedBCD(src[pos + 1]);
+		int day = readSwappedBCD(src[pos + 2]);
+		int hour = readSwappedBCD(src[pos + 3]);
+		int minute = readSwappedBCD(src[pos + 4]);
+		int second = readSwappedBCD(src[pos + 5]);
+		// bit 3 of the unswapped value is the sign
+		int tz = src[pos + 6];
+		int quarters = ((tz >>> 4) & 0xF) + (tz & 0x7) * 10;
+		ZoneOffset offset = getOffset((tz & 0x08) != 0 ? -quarters : quarters);
+		try
+		{
+			return OffsetDateTime.of(year, month, day, hour, minute, second, 0, offset);
+		}
+		catch (DateTimeException e)
+		{
+			// out of range fields roll over, as they did with a lenient Calendar
+			LocalDateTime dateTime = LocalDateTime.of(year, 1, 1, 0, 0).plusMonths(month - 1).plusDays(day - 1).plusHours(hour).plusMinutes(minute).plusSeconds(second);
+			return OffsetDateTime.of(dateTime, offset);
+		}
+	}
+
+	public static long decodeEpochMillis(byte[] src, int pos)
+	{
+		return decode(src, pos).toInstant().toEpochMilli();
+	}
+
+	// returns the position after the timestamp
+	public static int encode(OffsetDateTime timestamp, byte[] dst, int pos)
+	{
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(Math.floorMod(timestamp.getYear() - 2000, 100));
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(timestamp.getMonthValue());
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(timestamp.getDayOfMonth());
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(timestamp.getHour());
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(timestamp.getMinute());
+		dst[pos++] = (byte) PduUtils.createSwappedBCD(timestamp.getSecond());
+		int quarters = timestamp.getOffset().getTotalSeconds() / (15 * 60);
+		int value = PduUtils.createSwappedBCD(Math.abs(quarters));
+		dst[pos++] = (byte) (quarters < 0 ? value | 0x08 : value);
+		return pos;
+	}
+
+	// the time in the default time zone of the system
+	public static int encode(long epochMillis, byte[] dst, int pos)
+	{
+		Instant instant = Instant.ofEpochMilli(epochMillis);
+		ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(instant);
+		return encode(OffsetDateTime.ofInstant(instant, offset), dst, pos);
+	}
+
+	private static int readSwappedBCD(byte b)
+	{
+		return (b & 0xF) * 10 + ((b >>> 4) & 0xF);
+	}
+}
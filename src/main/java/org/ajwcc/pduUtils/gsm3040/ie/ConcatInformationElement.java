@@ -120,7 +120,7 @@ public class ConcatInformationElement extends InformationElement
 		{
 			return (data[0] & (0xFF));
 		}
-		else if (getIdentifier() == CONCAT_16BIT_REF) { return ((data[0] << 8) | data[1]) & (0xFFFF); }
+		else if (getIdentifier() == CONCAT_16BIT_REF) { return ((data[0] & 0xFF) << 8) | (data[1] & 0xFF); }
 		throw new RuntimeException("Invalid identifier");
 	}
 
@@ -31,6 +31,9 @@ public class InformationElementFactory
 				return new ConcatInformationElement(iei, data);
 			case PortInformationElement.PORT_16BIT:
 				return new PortInformationElement(iei, data);
+			case NationalLanguageInformationElement.SINGLE_SHIFT:
+			case NationalLanguageInformationElement.LOCKING_SHIFT:
+				return new NationalLanguageInformationElement(iei, data);
 			default:
 				return new InformationElement(iei, data);
 		}
@@ -53,4 +56,14 @@ public class InformationElementFactory
 		PortInformationElement portInfo = new PortInformationElement(PortInformationElement.PORT_16BIT, destPort, srcPort);
 		return portInfo;
 	}
+
+	public static NationalLanguageInformationElement generateNationalLanguageSingleShift(int language)
+	{
+		return new NationalLanguageInformationElement(NationalLanguageInformationElement.SINGLE_SHIFT, language);
+	}
+
+	public static NationalLanguageInformationElement generateNationalLanguageLockingShift(int language)
+	{
+		return new NationalLanguageInformationElement(NationalLanguageInformationElement.LOCKING_SHIFT, language);
+	}
 }
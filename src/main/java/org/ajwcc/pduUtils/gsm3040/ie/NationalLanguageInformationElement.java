@@ -0,0 +1,65 @@
+
+package org.ajwcc.pduUtils.gsm3040.ie;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+public class NationalLanguageInformationElement extends InformationElement
+{
+	// national language tables of 3GPP TS 23.038 used for 7bit text
+	public static final int SINGLE_SHIFT = 0x24;
+
+	public static final int LOCKING_SHIFT = 0x25;
+
+	NationalLanguageInformationElement(byte id, byte[] data)
+	{
+		super(id, data);
+		if (getIdentifier() != SINGLE_SHIFT && getIdentifier() != LOCKING_SHIFT) { throw new RuntimeException("Invalid identifier " + getIdentifier() + " in data in: " + getClass().getSimpleName()); }
+		// iei
+		// iel
+		// language
+		if (data.length != 1) { throw new RuntimeException("Invalid data length in: " + getClass().getSimpleName()); }
+	}
+
+	NationalLanguageInformationElement(int identifier, int language)
+	{
+		super();
+		switch (identifier)
+		{
+			case SINGLE_SHIFT:
+			case LOCKING_SHIFT:
+				break;
+			default:
+				throw new RuntimeException("Invalid identifier for " + getClass().getSimpleName());
+		}
+		initialize((byte) (identifier & 0xFF), new byte[] { (byte) (language & 0xFF) });
+	}
+
+	public int getLanguage()
+	{
+		return getData()[0] & 0xFF;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuffer sb = new StringBuffer();
+		sb.append(super.toString());
+		sb.append(getIdentifier() == LOCKING_SHIFT ? "[Locking Shift: " : "[Single Shift: ");
+		sb.append(getLanguage());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,56 @@
+package org.ajwcc.pduUtils.gsm3040;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+//PduUtils Library - A Java library for generating GSM 3040 Protocol Data Units (PDUs)
+//
+//Copyright (C) 2008, Ateneo Java Wireless Competency Center/Blueblade Technologies, Philippines.
+//PduUtils is distributed under the terms of the Apache License version 2.0
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+
+public class GsmTransliteratorTest
+{
+	private static final String NBSP_TEXT = "Tank\u00A0A1 high";
+
+	// the NBSP at 0x1B of the alphabet stands for the escape septet, a NBSP
+	// in the text must not be encoded as escape
+	@Test
+	public void nbspIsNotDefaultEncodable()
+	{
+		assertFalse(PduUtils.isDefaultEncodable('\u00A0'));
+		assertEquals(-1, PduUtils.getNumUnencodedSeptetsIfEncodable(NBSP_TEXT));
+	}
+
+	@Test
+	public void nbspIsReplacedBySpace()
+	{
+		assertEquals(" ", GsmTransliterator.getReplacement('\u00A0'));
+		assertEquals("Tank A1 high", GsmTransliterator.transliterate(NBSP_TEXT));
+	}
+
+	// the transliterated text is sent in 7bit and the space survives the
+	// round trip through the septets
+	@Test
+	public void transliteratedNbspIsSentAsSpace()
+	{
+		String text = GsmTransliterator.transliterate(NBSP_TEXT);
+		EncodingPlan plan = EncodingPlan.forText(text);
+		assertFalse(plan.isUcs2());
+		assertEquals(text.length(), plan.getLength());
+		assertEquals("Tank A1 high", PduUtils.unencodedSeptetsToString(PduUtils.stringToUnencodedSeptets(text)));
+	}
+}